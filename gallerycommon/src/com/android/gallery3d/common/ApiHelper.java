@@ -42,6 +42,7 @@ public class ApiHelper {
         public static final int JELLY_BEAN = 16;
         public static final int JELLY_BEAN_MR1 = 17;
         public static final int JELLY_BEAN_MR2 = 18;
+        public static final int O = 26;
     }
 
     public static final boolean AT_LEAST_16 = Build.VERSION.SDK_INT >= 16;
@@ -196,6 +197,9 @@ public class ApiHelper {
     public static final boolean HAS_DISPLAY_LISTENER =
             Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR1;
 
+    public static final boolean HAS_CHECKSUM_BYTE_BUFFER =
+            Build.VERSION.SDK_INT >= VERSION_CODES.O;
+
     // from android.provider.Settings.Global
     public static final String MULTI_SIM_DATA_CALL_SUBSCRIPTION = "multi_sim_data_call";
 
@@ -51,13 +51,26 @@
 // [16] Length of this blob (not including header)
 // [20] Blob
 //
-// Below are the interface for BlobCache. The instance of this class does not
-// support concurrent use by multiple threads.
+// Below are the interface for BlobCache. By default the instance of this class
+// does not support concurrent use by multiple threads.
+//
+// In concurrent mode lookups may run in parallel: they take the shared side
+// of a region lock and read blobs from read-only mappings of the data files
+// instead of seeking the shared RandomAccessFile. Inserts (and the copy-over
+// done by lookups hitting the inactive region) are serialized by a separate
+// lock which guards the active region only, so they never block lookups. The
+// exclusive side of the region lock is only taken when flipping regions,
+// because that truncates the file some lookups may be reading. In this mode
+// the active data file is grown ahead of the writes in MAP_CHUNK_SIZE steps
+// so the readers do not have to remap it after every insert.
 //
 // public BlobCache(String path, int maxEntries, int maxBytes, boolean reset) throws IOException;
+// public BlobCache(String path, int maxEntries, int maxBytes, boolean reset, int version, boolean concurrent) throws IOException;
 // public void insert(long key, byte[] data) throws IOException;
+// public void insert(long key, byte[] prefix, byte[] data, int offset, int length) throws IOException;
 // public byte[] lookup(long key) throws IOException;
 // public void lookup(LookupRequest req) throws IOException;
+// public boolean lookup(long key, BlobReader reader) throws IOException;
 // public void close();
 // public void syncIndex();
 // public void syncAll();
@@ -71,10 +84,14 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.Adler32;
 
 public class BlobCache implements Closeable {
@@ -103,6 +120,11 @@ public class BlobCache implements Closeable {
     private static final int BH_LENGTH = 16;
     private static final int BLOB_HEADER_SIZE = 20;
 
+    // The step by which the active data file is grown in concurrent mode.
+    private static final int MAP_CHUNK_SIZE = 4 * 1024 * 1024;
+    // The array the checksum of a mapped blob is computed through before O.
+    private static final int CHECKSUM_CHUNK_SIZE = 8 * 1024;
+
     private RandomAccessFile mIndexFile;
     private RandomAccessFile mDataFile0;
     private RandomAccessFile mDataFile1;
@@ -124,6 +146,21 @@ public class BlobCache implements Closeable {
     private byte[] mBlobHeader = new byte[BLOB_HEADER_SIZE];
     private Adler32 mAdler32 = new Adler32();
 
+    // Only used in concurrent mode.
+    private final boolean mConcurrent;
+    private final ReentrantReadWriteLock mRegionLock = new ReentrantReadWriteLock();
+    private final ReentrantLock mInsertLock = new ReentrantLock();
+    private final Object mMapLock = new Object();
+    private volatile MappedByteBuffer mDataMap0;
+    private volatile MappedByteBuffer mDataMap1;
+    // Written after each insert so lookups see the blob before its index slot.
+    private volatile int mInsertCount;
+    // Held for reading while a BlobReader reads a view of the mapped data file
+    // of a region after mRegionLock is released, and for writing while the
+    // region is truncated by flipRegion().
+    private final ReentrantReadWriteLock[] mViewLocks = {
+            new ReentrantReadWriteLock(), new ReentrantReadWriteLock()};
+
     // Creates the cache. Three files will be created:
     // path + ".idx", path + ".0", and path + ".1"
     // The ".0" file and the ".1" file each stores data for a region. Each of
@@ -137,6 +174,15 @@ public class BlobCache implements Closeable {
 
     public BlobCache(String path, int maxEntries, int maxBytes, boolean reset,
             int version) throws IOException {
+        this(path, maxEntries, maxBytes, reset, version, false);
+    }
+
+    // If "concurrent" is true, the cache can be used by multiple threads
+    // without external synchronization. The file format is the same in both
+    // modes, so a cache written in one mode can be opened in the other.
+    public BlobCache(String path, int maxEntries, int maxBytes, boolean reset,
+            int version, boolean concurrent) throws IOException {
+        mConcurrent = concurrent;
         mIndexFile = new RandomAccessFile(path + ".idx", "rw");
         mDataFile0 = new RandomAccessFile(path + ".0", "rw");
         mDataFile1 = new RandomAccessFile(path + ".1", "rw");
@@ -174,8 +220,27 @@ public class BlobCache implements Closeable {
     // called after this is called.
     @Override
     public void close() {
-        syncAll();
-        closeAll();
+        if (!mConcurrent) {
+            syncAll();
+            closeAll();
+            return;
+        }
+        mInsertLock.lock();
+        mRegionLock.writeLock().lock();
+        try {
+            syncAll();
+            closeAll();
+            mDataMap0 = null;
+            mDataMap1 = null;
+        } finally {
+            mRegionLock.writeLock().unlock();
+            mInsertLock.unlock();
+        }
+    }
+
+    // Returns true if this instance can be used by multiple threads.
+    public boolean isConcurrent() {
+        return mConcurrent;
     }
 
     private void closeAll() {
@@ -325,6 +390,31 @@ public class BlobCache implements Closeable {
 
     // Flip the active region and the inactive region.
     private void flipRegion() throws IOException {
+        if (!mConcurrent) {
+            flipRegionLocked();
+            return;
+        }
+        // The new active file is truncated, so no lookup may be reading it.
+        // The views are only taken from the active region, so a reader still
+        // holds one of the new active region only if it started before the
+        // previous flip; waiting for it is rare.
+        mRegionLock.writeLock().lock();
+        Lock viewLock = mViewLocks[1 - mActiveRegion].writeLock();
+        viewLock.lock();
+        try {
+            flipRegionLocked();
+            if (mActiveRegion == 0) {
+                mDataMap0 = null;
+            } else {
+                mDataMap1 = null;
+            }
+        } finally {
+            viewLock.unlock();
+            mRegionLock.writeLock().unlock();
+        }
+    }
+
+    private void flipRegionLocked() throws IOException {
         mActiveRegion = 1 - mActiveRegion;
         mActiveEntries = 0;
         mActiveBytes = DATA_HEADER_SIZE;
@@ -360,11 +450,34 @@ public class BlobCache implements Closeable {
 
     // Inserts a (key, data) pair into the cache.
     public void insert(long key, byte[] data) throws IOException {
-        if (DATA_HEADER_SIZE + BLOB_HEADER_SIZE + data.length > mMaxBytes) {
+        insert(key, null, data, 0, data.length);
+    }
+
+    // Inserts a (key, prefix + data[offset..offset+length)) pair into the
+    // cache without concatenating the two parts first. The prefix may be null.
+    public void insert(long key, byte[] prefix, byte[] data, int offset,
+            int length) throws IOException {
+        if (!mConcurrent) {
+            insertLocked(key, prefix, data, offset, length);
+            return;
+        }
+        mInsertLock.lock();
+        try {
+            insertLocked(key, prefix, data, offset, length);
+            mInsertCount++;
+        } finally {
+            mInsertLock.unlock();
+        }
+    }
+
+    private void insertLocked(long key, byte[] prefix, byte[] data, int offset,
+            int length) throws IOException {
+        int total = (prefix == null ? 0 : prefix.length) + length;
+        if (DATA_HEADER_SIZE + BLOB_HEADER_SIZE + total > mMaxBytes) {
             throw new RuntimeException("blob is too large!");
         }
 
-        if (mActiveBytes + BLOB_HEADER_SIZE + data.length > mMaxBytes
+        if (mActiveBytes + BLOB_HEADER_SIZE + total > mMaxBytes
                 || mActiveEntries * 2 >= mMaxEntries) {
             flipRegion();
         }
@@ -376,11 +489,25 @@ public class BlobCache implements Closeable {
             writeInt(mIndexHeader, IH_ACTIVE_ENTRIES, mActiveEntries);
         }
 
-        insertInternal(key, data, data.length);
+        insertInternal(key, prefix, data, offset, length);
         updateIndexHeader();
     }
 
     public void clearEntry(long key) throws IOException {
+        if (!mConcurrent) {
+            clearEntryLocked(key);
+            return;
+        }
+        mInsertLock.lock();
+        try {
+            clearEntryLocked(key);
+            mInsertCount++;
+        } finally {
+            mInsertLock.unlock();
+        }
+    }
+
+    private void clearEntryLocked(long key) throws IOException {
         if (!lookupInternal(key, mActiveHashStart)) {
             return; // Nothing to clear
         }
@@ -395,21 +522,46 @@ public class BlobCache implements Closeable {
     // pointed by mSlotOffset.
     private void insertInternal(long key, byte[] data, int length)
             throws IOException {
+        insertInternal(key, null, data, 0, length);
+    }
+
+    // Same as above, but the blob is the prefix (which may be null) followed
+    // by data[offset..offset+length).
+    private void insertInternal(long key, byte[] prefix, byte[] data,
+            int offset, int length) throws IOException {
         byte[] header = mBlobHeader;
-        int sum = checkSum(data);
+        int prefixLength = (prefix == null) ? 0 : prefix.length;
+        int total = prefixLength + length;
+        mAdler32.reset();
+        if (prefix != null) mAdler32.update(prefix);
+        mAdler32.update(data, offset, length);
+        int sum = (int) mAdler32.getValue();
+        if (mConcurrent) ensureActiveCapacity(BLOB_HEADER_SIZE + total);
         writeLong(header, BH_KEY, key);
         writeInt(header, BH_CHECKSUM, sum);
         writeInt(header, BH_OFFSET, mActiveBytes);
-        writeInt(header, BH_LENGTH, length);
+        writeInt(header, BH_LENGTH, total);
         mActiveDataFile.write(header);
-        mActiveDataFile.write(data, 0, length);
+        if (prefix != null) mActiveDataFile.write(prefix);
+        mActiveDataFile.write(data, offset, length);
 
         mIndexBuffer.putLong(mSlotOffset, key);
         mIndexBuffer.putInt(mSlotOffset + 8, mActiveBytes);
-        mActiveBytes += BLOB_HEADER_SIZE + length;
+        mActiveBytes += BLOB_HEADER_SIZE + total;
         writeInt(mIndexHeader, IH_ACTIVE_BYTES, mActiveBytes);
     }
 
+    // Grows the active data file so that the next "size" bytes fit in it. The
+    // file is grown in MAP_CHUNK_SIZE steps, so the lookups only need to remap
+    // it once in a while.
+    private void ensureActiveCapacity(int size) throws IOException {
+        long required = (long) mActiveBytes + size;
+        if (mActiveDataFile.length() >= required) return;
+        long capacity = (required + MAP_CHUNK_SIZE - 1)
+                / MAP_CHUNK_SIZE * MAP_CHUNK_SIZE;
+        mActiveDataFile.setLength(Math.max(required, Math.min(capacity, mMaxBytes)));
+    }
+
     public static class LookupRequest {
         public long key;        // input: the key to find
         public byte[] buffer;   // input/output: the buffer to store the blob
@@ -440,6 +592,8 @@ public class BlobCache implements Closeable {
     // This method tries not to throw IOException even if the data file is
     // corrupted, but it can still throw IOException if things get strange.
     public boolean lookup(LookupRequest req) throws IOException {
+        if (mConcurrent) return lookupConcurrent(req);
+
         // Look up in the active region first.
         if (lookupInternal(req.key, mActiveHashStart)) {
             if (getBlob(mActiveDataFile, mFileOffset, req)) {
@@ -478,6 +632,249 @@ public class BlobCache implements Closeable {
         return false;
     }
 
+    // Receives the blob found by lookup(long, BlobReader). The buffer is a
+    // read-only view positioned at the start of the blob and limited to its
+    // end. It is only valid during the call, so it must not be kept.
+    public interface BlobReader {
+        // Returns false if the blob is not acceptable to the reader.
+        boolean read(ByteBuffer blob) throws IOException;
+    }
+
+    // Looks up the blob for the given key and passes it to the reader without
+    // copying it out of the cache. This only avoids the copy in concurrent
+    // mode and for blobs in the active region; otherwise the blob is read into
+    // a temporary array first. Returns true if the blob is found and the
+    // reader accepts it.
+    //
+    // In concurrent mode the reader is called without mRegionLock held, so a
+    // slow reader does not hold up the inserts, and through them the other
+    // lookups.
+    public boolean lookup(long key, BlobReader reader) throws IOException {
+        if (mConcurrent) {
+            // See lookupConcurrent(). If an insert finished meanwhile, the view
+            // may have been taken from a half written slot or blob, so the
+            // blob is read again below through the copying path instead.
+            ByteBuffer blob = null;
+            Lock viewLock = null;
+            int insertCount = mInsertCount;
+            mRegionLock.readLock().lock();
+            try {
+                int offset = findBlobOffset(key, mActiveHashStart);
+                if (offset != 0) {
+                    blob = getMappedBlobView(mActiveRegion, offset, key);
+                    if (blob != null && mInsertCount == insertCount) {
+                        // Keeps the region from being truncated under the view.
+                        viewLock = mViewLocks[mActiveRegion].readLock();
+                        viewLock.lock();
+                    }
+                }
+            } finally {
+                mRegionLock.readLock().unlock();
+            }
+            if (viewLock != null) {
+                try {
+                    return reader.read(blob);
+                } finally {
+                    viewLock.unlock();
+                }
+            }
+        }
+
+        LookupRequest req = new LookupRequest();
+        req.key = key;
+        if (!lookup(req)) return false;
+        return reader.read(ByteBuffer.wrap(req.buffer, 0, req.length).asReadOnlyBuffer());
+    }
+
+    // The concurrent version of lookup(LookupRequest). It only reads the index
+    // and the mapped data files, and it copies a blob found in the inactive
+    // region over only if no insert is in progress.
+    private boolean lookupConcurrent(LookupRequest req) throws IOException {
+        mRegionLock.readLock().lock();
+        try {
+            while (true) {
+                // Reading the volatile counter makes the blobs and index slots
+                // written by the finished inserts visible to this thread. If
+                // another insert finishes before the blob is copied out, the
+                // slot or blob read may have been half written, so the lookup
+                // is done again.
+                int insertCount = mInsertCount;
+                int offset = findBlobOffset(req.key, mActiveHashStart);
+                if (offset != 0 && getMappedBlob(mActiveRegion, offset, req)) {
+                    if (mInsertCount != insertCount) continue;
+                    return true;
+                }
+
+                offset = findBlobOffset(req.key, mInactiveHashStart);
+                if (offset != 0 && getMappedBlob(1 - mActiveRegion, offset, req)) {
+                    if (mInsertCount != insertCount) continue;
+                    copyOverConcurrent(req);
+                    return true;
+                }
+                return false;
+            }
+        } finally {
+            mRegionLock.readLock().unlock();
+        }
+    }
+
+    // Copies the blob just read from the inactive region to the active one.
+    // The caller holds the shared region lock, so this must not flip regions.
+    private void copyOverConcurrent(LookupRequest req) {
+        if (!mInsertLock.tryLock()) return;
+        try {
+            if (mActiveBytes + BLOB_HEADER_SIZE + req.length > mMaxBytes
+                    || mActiveEntries * 2 >= mMaxEntries) {
+                return;
+            }
+            if (lookupInternal(req.key, mActiveHashStart)) return;
+            insertInternal(req.key, req.buffer, req.length);
+            mActiveEntries++;
+            writeInt(mIndexHeader, IH_ACTIVE_ENTRIES, mActiveEntries);
+            updateIndexHeader();
+            mInsertCount++;
+        } catch (Throwable t) {
+            Log.e(TAG, "cannot copy over");
+        } finally {
+            mInsertLock.unlock();
+        }
+    }
+
+    // Copies the blob for the specified offset in the mapped data file of the
+    // specified region to req.buffer. This is the counterpart of getBlob() for
+    // the concurrent mode, it does not touch any shared mutable state.
+    private boolean getMappedBlob(int region, int offset, LookupRequest req) {
+        try {
+            ByteBuffer data = getDataMap(region, offset + BLOB_HEADER_SIZE);
+            if (data == null) {
+                Log.w(TAG, "cannot read blob header");
+                return false;
+            }
+            long blobKey = data.getLong(offset + BH_KEY);
+            if (blobKey == 0) {
+                return false; // This entry has been cleared.
+            }
+            if (blobKey != req.key) {
+                Log.w(TAG, "blob key does not match: " + blobKey);
+                return false;
+            }
+            int sum = data.getInt(offset + BH_CHECKSUM);
+            int blobOffset = data.getInt(offset + BH_OFFSET);
+            if (blobOffset != offset) {
+                Log.w(TAG, "blob offset does not match: " + blobOffset);
+                return false;
+            }
+            int length = data.getInt(offset + BH_LENGTH);
+            if (length < 0 || length > mMaxBytes - offset - BLOB_HEADER_SIZE) {
+                Log.w(TAG, "invalid blob length: " + length);
+                return false;
+            }
+            int end = offset + BLOB_HEADER_SIZE + length;
+            if (end > data.limit()) {
+                data = getDataMap(region, end);
+                if (data == null) {
+                    Log.w(TAG, "cannot read blob data");
+                    return false;
+                }
+            }
+            if (req.buffer == null || req.buffer.length < length) {
+                req.buffer = new byte[length];
+            }
+
+            byte[] blob = req.buffer;
+            req.length = length;
+
+            data.position(offset + BLOB_HEADER_SIZE);
+            data.get(blob, 0, length);
+
+            Adler32 adler32 = new Adler32();
+            adler32.update(blob, 0, length);
+            if ((int) adler32.getValue() != sum) {
+                Log.w(TAG, "blob checksum does not match: " + sum);
+                return false;
+            }
+            return true;
+        } catch (Throwable t)  {
+            Log.e(TAG, "getMappedBlob failed.", t);
+            return false;
+        }
+    }
+
+    // Returns a read-only view of the blob for the specified offset in the
+    // mapped data file of the specified region, or null if the blob is not
+    // available.
+    private ByteBuffer getMappedBlobView(int region, int offset, long key) {
+        try {
+            ByteBuffer data = getDataMap(region, offset + BLOB_HEADER_SIZE);
+            if (data == null) return null;
+            if (data.getLong(offset + BH_KEY) != key) return null;
+            if (data.getInt(offset + BH_OFFSET) != offset) return null;
+            int sum = data.getInt(offset + BH_CHECKSUM);
+            int length = data.getInt(offset + BH_LENGTH);
+            if (length < 0 || length > mMaxBytes - offset - BLOB_HEADER_SIZE) {
+                Log.w(TAG, "invalid blob length: " + length);
+                return null;
+            }
+            int end = offset + BLOB_HEADER_SIZE + length;
+            if (end > data.limit()) {
+                data = getDataMap(region, end);
+                if (data == null) return null;
+            }
+            data.limit(end);
+            data.position(offset + BLOB_HEADER_SIZE);
+            ByteBuffer blob = data.slice().asReadOnlyBuffer();
+            Adler32 adler32 = new Adler32();
+            if (ApiHelper.HAS_CHECKSUM_BYTE_BUFFER) {
+                adler32.update(blob.duplicate());
+            } else {
+                // Before O, Adler32 only takes arrays, so the blob goes
+                // through a small one.
+                ByteBuffer in = blob.duplicate();
+                byte[] chunk = new byte[Math.min(length, CHECKSUM_CHUNK_SIZE)];
+                while (in.hasRemaining()) {
+                    int n = Math.min(in.remaining(), chunk.length);
+                    in.get(chunk, 0, n);
+                    adler32.update(chunk, 0, n);
+                }
+            }
+            if ((int) adler32.getValue() != sum) {
+                Log.w(TAG, "blob checksum does not match: " + sum);
+                return null;
+            }
+            return blob;
+        } catch (Throwable t)  {
+            Log.e(TAG, "getMappedBlobView failed.", t);
+            return null;
+        }
+    }
+
+    // Returns a private little-endian view of the mapped data file of the
+    // specified region which is at least minLength bytes long, or null if the
+    // file is shorter than that. The file is remapped if it has grown since it
+    // was last mapped.
+    private ByteBuffer getDataMap(int region, int minLength) throws IOException {
+        MappedByteBuffer map = (region == 0) ? mDataMap0 : mDataMap1;
+        if (map == null || map.capacity() < minLength) {
+            synchronized (mMapLock) {
+                map = (region == 0) ? mDataMap0 : mDataMap1;
+                if (map == null || map.capacity() < minLength) {
+                    RandomAccessFile file = (region == 0) ? mDataFile0 : mDataFile1;
+                    FileChannel channel = file.getChannel();
+                    long size = Math.min(channel.size(), mMaxBytes);
+                    if (size < minLength) return null;
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    if (region == 0) {
+                        mDataMap0 = map;
+                    } else {
+                        mDataMap1 = map;
+                    }
+                }
+            }
+        }
+        ByteBuffer data = map.duplicate();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        return data;
+    }
 
     // Copies the blob for the specified offset in the specified file to
     // req.buffer. If req.buffer is null or too small, allocate a buffer and
@@ -574,6 +971,31 @@ public class BlobCache implements Closeable {
         }
     }
 
+    // The read-only version of lookupInternal() used in concurrent mode.
+    // Returns the file offset of the blob, or 0 if the key is not found.
+    private int findBlobOffset(long key, int hashStart) {
+        int slot = (int) (key % mMaxEntries);
+        if (slot < 0) slot += mMaxEntries;
+        int slotBegin = slot;
+        while (true) {
+            int offset = hashStart + slot * 12;
+            long candidateKey = mIndexBuffer.getLong(offset);
+            int candidateOffset = mIndexBuffer.getInt(offset + 8);
+            if (candidateOffset == 0) {
+                return 0;
+            } else if (candidateKey == key) {
+                return candidateOffset;
+            }
+            if (++slot >= mMaxEntries) {
+                slot = 0;
+            }
+            if (slot == slotBegin) {
+                Log.w(TAG, "corrupted index: no free slot.");
+                return 0;
+            }
+        }
+    }
+
     public void syncIndex() {
         try {
             mIndexBuffer.force();
@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -714,6 +715,9 @@ public class ExifInterface {
     }
 
     private static final String NULL_ARGUMENT_STRING = "Argument is null";
+    // The headers of a jpeg file are fed to the exif writer in chunks of this
+    // size when it is copied, see writeExifToCopy().
+    private static final int STREAM_COPY_HEADER_SIZE = 4096;
     private ExifData mData = new ExifData(DEFAULT_BYTE_ORDER);
     public static final ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
 
@@ -1105,27 +1109,66 @@ public class ExifInterface {
             // Fall back to doing a copy
             ExifData tempData = mData;
             mData = new ExifData(DEFAULT_BYTE_ORDER);
-            FileInputStream is = null;
-            ByteArrayOutputStream bytes = null;
             try {
-                is = new FileInputStream(filename);
-                bytes = new ByteArrayOutputStream();
-                doExifStreamIO(is, bytes);
-                byte[] imageBytes = bytes.toByteArray();
-                readExif(imageBytes);
+                readExif(filename);
                 setTags(tags);
-                writeExif(imageBytes, filename);
-            } catch (IOException e) {
-                closeSilently(is);
-                throw e;
+                writeExifToCopy(filename);
             } finally {
-                is.close();
                 // Prevent clobbering of mData
                 mData = tempData;
             }
         }
     }
 
+    /**
+     * Writes the file again with the exif tags in this ExifInterface object.
+     * Only the headers go through the exif writer, the image data after them
+     * is copied from file to file, and the copy then replaces the file, so
+     * the file is never held in memory and is left as is on failure.
+     */
+    private void writeExifToCopy(String filename) throws IOException {
+        File file = new File(filename);
+        File temp = File.createTempFile("." + file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        FileInputStream is = null;
+        FileOutputStream os = null;
+        boolean done = false;
+        try {
+            is = new FileInputStream(file);
+            os = new FileOutputStream(temp);
+            ExifOutputStream eos = (ExifOutputStream) getExifWriterStream(os);
+            FileChannel in = is.getChannel();
+            long size = in.size();
+            byte[] buf = new byte[STREAM_COPY_HEADER_SIZE];
+            while (!eos.isCopyingImageData()) {
+                int ret = is.read(buf, 0, buf.length);
+                if (ret == -1) {
+                    break;
+                }
+                eos.write(buf, 0, ret);
+            }
+            eos.flush();
+            FileChannel out = os.getChannel();
+            long position = in.position();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            os.getFD().sync();
+            os.close();
+            os = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + filename);
+            }
+            done = true;
+        } finally {
+            closeSilently(is);
+            closeSilently(os);
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
     /**
      * Attempts to do an in-place rewrite of the exif metadata using the tags in
      * this ExifInterface object. If this fails, fall back to overwriting file.
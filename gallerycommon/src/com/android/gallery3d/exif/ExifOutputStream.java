@@ -103,6 +103,14 @@ class ExifOutputStream extends FilterOutputStream {
         return mExifData;
     }
 
+    /**
+     * Returns true once the headers have been written, and the rest of the
+     * input is copied as is.
+     */
+    protected boolean isCopyingImageData() {
+        return mState == STATE_JPEG_DATA && mByteToSkip == 0 && mByteToCopy == 0;
+    }
+
     private int requestByteToBuffer(int requestByteCount, byte[] buffer
             , int offset, int length) {
         int byteNeeded = requestByteCount - mBuffer.position();
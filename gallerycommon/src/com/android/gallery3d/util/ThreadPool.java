@@ -18,10 +18,18 @@ package com.android.gallery3d.util;
 
 import android.util.Log;
 
+import com.android.gallery3d.common.Utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 public class ThreadPool {
     @SuppressWarnings("unused")
@@ -34,11 +42,26 @@ public class ThreadPool {
     public static final int MODE_NONE = 0;
     public static final int MODE_CPU = 1;
     public static final int MODE_NETWORK = 2;
+    // For disk-bound work, so waiting on IO does not hold a CPU permit.
+    public static final int MODE_IO = 3;
+
+    private static final int DEFAULT_PERMITS = 2;
+
+    // Job priority. Queued jobs with a lower value are started first, and jobs
+    // with the same priority are started in the order they are submitted.
+    // Callers showing a window of items may use the distance of an item from
+    // the visible range as its priority (0 for visible items).
+    public static final int PRIORITY_FOREGROUND = -1;
+    public static final int PRIORITY_DEFAULT = 0;
+    // Used for cancelled jobs which are still queued, so they are dropped
+    // before any other job is started.
+    private static final int PRIORITY_DROPPED = Integer.MIN_VALUE;
 
     public static final JobContext JOB_CONTEXT_STUB = new JobContextStub();
 
-    ResourceCounter mCpuCounter = new ResourceCounter(2);
-    ResourceCounter mNetworkCounter = new ResourceCounter(2);
+    ResourceCounter mCpuCounter;
+    ResourceCounter mIoCounter;
+    ResourceCounter mNetworkCounter = new ResourceCounter(DEFAULT_PERMITS);
 
     // A Job is like a Callable, but it has an addition JobContext parameter.
     public interface Job<T> {
@@ -71,54 +94,247 @@ public class ThreadPool {
         public void onCancel();
     }
 
+    // A counting semaphore for the resource modes. The permits are taken with
+    // CAS, and the threads waiting for one are parked until a permit is
+    // released or their job is cancelled.
     private static class ResourceCounter {
-        public int value;
+        private final int mSize;
+        private final AtomicInteger mPermits;
+        private final ConcurrentLinkedQueue<Thread> mWaiters =
+                new ConcurrentLinkedQueue<Thread>();
+        // The size of mWaiters, which ConcurrentLinkedQueue does not keep.
+        private final AtomicInteger mWaiting = new AtomicInteger();
+
         public ResourceCounter(int v) {
-            value = v;
+            mSize = v;
+            mPermits = new AtomicInteger(v);
+        }
+
+        public boolean tryAcquire() {
+            while (true) {
+                int permits = mPermits.get();
+                if (permits <= 0) return false;
+                if (mPermits.compareAndSet(permits, permits - 1)) return true;
+            }
+        }
+
+        public void release() {
+            mPermits.incrementAndGet();
+            wakeUpWaiter();
+        }
+
+        // Wakes up the first waiting thread, if any, to retry tryAcquire().
+        public void wakeUpWaiter() {
+            Thread waiter = mWaiters.peek();
+            if (waiter != null) LockSupport.unpark(waiter);
+        }
+    }
+
+    // Worker states. A cancelled worker keeps its state with STATE_CANCELLED
+    // added on top of it.
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_MASK = 3;
+    private static final int STATE_CANCELLED = 4;
+
+    // Stands in for the cancel listener once the worker is cancelled, so a
+    // listener is notified exactly once, either by cancel() or when it is set.
+    private static final CancelListener CANCELLED_LISTENER = new CancelListener() {
+        @Override
+        public void onCancel() {
+        }
+    };
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Worker> sStateUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Worker.class, "mState");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Worker, CancelListener>
+            sCancelListenerUpdater = AtomicReferenceFieldUpdater.newUpdater(
+                    Worker.class, CancelListener.class, "mCancelListener");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Worker, WaitNode>
+            sWaitersUpdater = AtomicReferenceFieldUpdater.newUpdater(
+                    Worker.class, WaitNode.class, "mWaiters");
+
+    // A thread blocked in Worker.get(), linked in a stack.
+    private static class WaitNode {
+        final Thread mThread;
+        WaitNode mNext;
+
+        WaitNode(Thread thread) {
+            mThread = thread;
+        }
+    }
+
+    // A snapshot of the pool configuration and load, see getStats().
+    public static class Stats {
+        public int corePoolSize;
+        public int maxPoolSize;
+        public int activeThreads;
+        // Jobs submitted but not started yet.
+        public int queuedJobs;
+
+        // Permits per resource mode, and how many are taken.
+        public int cpuPermits;
+        public int cpuInUse;
+        public int ioPermits;
+        public int ioInUse;
+        public int networkPermits;
+        public int networkInUse;
+
+        // Started jobs blocked waiting for a permit of each mode.
+        public int cpuWaiting;
+        public int ioWaiting;
+        public int networkWaiting;
+
+        @Override
+        public String toString() {
+            return "pool=" + corePoolSize + "/" + maxPoolSize
+                    + " active=" + activeThreads + " queued=" + queuedJobs
+                    + " cpu=" + cpuInUse + "/" + cpuPermits + "+" + cpuWaiting
+                    + " io=" + ioInUse + "/" + ioPermits + "+" + ioWaiting
+                    + " net=" + networkInUse + "/" + networkPermits
+                    + "+" + networkWaiting;
         }
     }
 
-    private final Executor mExecutor;
+    private final ThreadPoolExecutor mExecutor;
+    private final PriorityBlockingQueue<Runnable> mQueue =
+            new PriorityBlockingQueue<Runnable>();
+    private final AtomicLong mSequence = new AtomicLong();
 
     public ThreadPool() {
         this(CORE_POOL_SIZE, MAX_POOL_SIZE);
     }
 
     public ThreadPool(int initPoolSize, int maxPoolSize) {
+        this(initPoolSize, maxPoolSize, DEFAULT_PERMITS, DEFAULT_PERMITS);
+    }
+
+    public ThreadPool(int initPoolSize, int maxPoolSize, int cpuPermits,
+            int ioPermits) {
+        mCpuCounter = new ResourceCounter(cpuPermits);
+        mIoCounter = new ResourceCounter(ioPermits);
         mExecutor = new ThreadPoolExecutor(
                 initPoolSize, maxPoolSize, KEEP_ALIVE_TIME,
-                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                TimeUnit.SECONDS, mQueue,
                 new PriorityThreadFactory("thread-pool",
                 android.os.Process.THREAD_PRIORITY_BACKGROUND));
     }
 
+    // Creates a pool sized for this device instead of the fixed defaults: the
+    // CPU permits follow the number of available processors, the IO permits
+    // are capped since storage does not scale with it, and there are enough
+    // threads for every CPU and IO permit to be used at the same time.
+    public static ThreadPool createAdaptive() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int cpuPermits = Utils.clamp(processors - 1, DEFAULT_PERMITS, 6);
+        int ioPermits = Utils.clamp(processors / 2, DEFAULT_PERMITS, 4);
+        int corePoolSize = Math.max(CORE_POOL_SIZE, cpuPermits + ioPermits);
+        return new ThreadPool(corePoolSize,
+                Math.max(MAX_POOL_SIZE, corePoolSize * 2), cpuPermits, ioPermits);
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.corePoolSize = mExecutor.getCorePoolSize();
+        stats.maxPoolSize = mExecutor.getMaximumPoolSize();
+        stats.activeThreads = mExecutor.getActiveCount();
+        stats.queuedJobs = mQueue.size();
+        stats.cpuPermits = mCpuCounter.mSize;
+        stats.cpuInUse = mCpuCounter.mSize - mCpuCounter.mPermits.get();
+        stats.cpuWaiting = mCpuCounter.mWaiting.get();
+        stats.ioPermits = mIoCounter.mSize;
+        stats.ioInUse = mIoCounter.mSize - mIoCounter.mPermits.get();
+        stats.ioWaiting = mIoCounter.mWaiting.get();
+        stats.networkPermits = mNetworkCounter.mSize;
+        stats.networkInUse = mNetworkCounter.mSize - mNetworkCounter.mPermits.get();
+        stats.networkWaiting = mNetworkCounter.mWaiting.get();
+        return stats;
+    }
+
     // Submit a job to the thread pool. The listener will be called when the
     // job is finished (or cancelled).
     public <T> Future<T> submit(Job<T> job, FutureListener<T> listener) {
-        Worker<T> w = new Worker<T>(job, listener);
+        return submit(job, listener, PRIORITY_DEFAULT);
+    }
+
+    // Same as above, but the job is started before the queued jobs with a
+    // higher priority value. See PRIORITY_DEFAULT.
+    public <T> Future<T> submit(Job<T> job, FutureListener<T> listener,
+            int priority) {
+        Worker<T> w = new Worker<T>(job, listener, priority,
+                mSequence.getAndIncrement());
         mExecutor.execute(w);
         return w;
     }
 
+    // Changes the priority of a job submitted to this pool. This has no
+    // effect if the job has already been started.
+    public void setPriority(Future<?> future, int priority) {
+        if (!(future instanceof ThreadPool.Worker)) return;
+        Worker<?> w = (Worker<?>) future;
+        if (w.isCancelled() || w.mPriority == priority) return;
+        requeue(w, priority);
+        // A cancel() racing with the requeue above may have found the worker
+        // out of the queue, so make sure it is still dropped first.
+        if (w.isCancelled()) requeue(w, PRIORITY_DROPPED);
+    }
+
+    // Moves a queued worker to its new place in the queue.
+    private void requeue(Worker<?> w, int priority) {
+        // The priority is only changed while the worker is out of the queue,
+        // so the queue order stays consistent. Only the thread which removed
+        // the worker puts it back.
+        if (mQueue.remove(w)) {
+            w.mPriority = priority;
+            mQueue.offer(w);
+        }
+    }
+
     public <T> Future<T> submit(Job<T> job) {
         return submit(job, null);
     }
 
-    private class Worker<T> implements Runnable, Future<T>, JobContext {
+    // The Future and JobContext of a job. It does not take any monitor: the
+    // state is a word changed with CAS, the cancel listener is registered
+    // with CAS, get() parks the waiting threads, and the resources are taken
+    // from lock-free counters.
+    private class Worker<T> implements Runnable, Future<T>, JobContext,
+            Comparable<Worker<?>> {
         @SuppressWarnings("hiding")
         private static final String TAG = "Worker";
         private Job<T> mJob;
         private FutureListener<T> mListener;
-        private CancelListener mCancelListener;
-        private ResourceCounter mWaitOnResource;
-        private volatile boolean mIsCancelled;
-        private boolean mIsDone;
+        // Changed through the updaters above.
+        volatile int mState = STATE_QUEUED;
+        volatile CancelListener mCancelListener;
+        volatile WaitNode mWaiters;
+        // The thread of the job while it waits for a resource.
+        private volatile Thread mWaitingThread;
+        // Written before the state becomes STATE_DONE.
         private T mResult;
         private int mMode;
+        private int mPriority;
+        private final long mSequence;
 
-        public Worker(Job<T> job, FutureListener<T> listener) {
+        public Worker(Job<T> job, FutureListener<T> listener, int priority,
+                long sequence) {
             mJob = job;
             mListener = listener;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Worker<?> another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1
+                    : (mSequence == another.mSequence ? 0 : 1);
         }
 
         // This is called by a thread in the thread pool.
@@ -128,7 +344,7 @@ public class ThreadPool {
 
             // A job is in CPU mode by default. setMode returns false
             // if the job is cancelled.
-            if (setMode(MODE_CPU)) {
+            if (transition(STATE_QUEUED, STATE_RUNNING) && setMode(MODE_CPU)) {
                 try {
                     result = mJob.run(this);
                 } catch (Throwable ex) {
@@ -136,49 +352,68 @@ public class ThreadPool {
                 }
             }
 
-            synchronized(this) {
-                setMode(MODE_NONE);
-                mResult = result;
-                mIsDone = true;
-                notifyAll();
+            setMode(MODE_NONE);
+            mResult = result;
+            transition(STATE_RUNNING, STATE_DONE);
+            for (WaitNode n = sWaitersUpdater.getAndSet(this, null);
+                    n != null; n = n.mNext) {
+                LockSupport.unpark(n.mThread);
             }
             if (mListener != null) mListener.onFutureDone(this);
         }
 
+        // Changes the state from "from" to "to", keeping STATE_CANCELLED.
+        private boolean transition(int from, int to) {
+            while (true) {
+                int state = mState;
+                if ((state & STATE_MASK) != from) return false;
+                int next = (state & ~STATE_MASK) | to;
+                if (sStateUpdater.compareAndSet(this, state, next)) return true;
+            }
+        }
+
         // Below are the methods for Future.
         @Override
-        public synchronized void cancel() {
-            if (mIsCancelled) return;
-            mIsCancelled = true;
-            if (mWaitOnResource != null) {
-                synchronized (mWaitOnResource) {
-                    mWaitOnResource.notifyAll();
+        public void cancel() {
+            while (true) {
+                int state = mState;
+                if ((state & STATE_CANCELLED) != 0) return;
+                if (sStateUpdater.compareAndSet(
+                        this, state, state | STATE_CANCELLED)) {
+                    break;
                 }
             }
-            if (mCancelListener != null) {
-                mCancelListener.onCancel();
-            }
+            // If the job is still queued, move it to the head of the queue.
+            // It finishes without running as soon as a thread is available
+            // instead of waiting behind the jobs submitted before it.
+            requeue(this, PRIORITY_DROPPED);
+            Thread waiting = mWaitingThread;
+            if (waiting != null) LockSupport.unpark(waiting);
+            CancelListener listener =
+                    sCancelListenerUpdater.getAndSet(this, CANCELLED_LISTENER);
+            if (listener != null) listener.onCancel();
         }
 
         @Override
         public boolean isCancelled() {
-            return mIsCancelled;
+            return (mState & STATE_CANCELLED) != 0;
         }
 
         @Override
-        public synchronized boolean isDone() {
-            return mIsDone;
+        public boolean isDone() {
+            return (mState & STATE_MASK) == STATE_DONE;
         }
 
         @Override
-        public synchronized T get() {
-            while (!mIsDone) {
-                try {
-                    wait();
-                } catch (Exception ex) {
-                    Log.w(TAG, "ingore exception", ex);
-                    // ignore.
-                }
+        public T get() {
+            if (isDone()) return mResult;
+            WaitNode node = new WaitNode(Thread.currentThread());
+            do {
+                node.mNext = mWaiters;
+            } while (!isDone()
+                    && !sWaitersUpdater.compareAndSet(this, node.mNext, node));
+            while (!isDone()) {
+                LockSupport.park(this);
             }
             return mResult;
         }
@@ -191,10 +426,16 @@ public class ThreadPool {
         // Below are the methods for JobContext (only called from the
         // thread running the job)
         @Override
-        public synchronized void setCancelListener(CancelListener listener) {
-            mCancelListener = listener;
-            if (mIsCancelled && mCancelListener != null) {
-                mCancelListener.onCancel();
+        public void setCancelListener(CancelListener listener) {
+            while (true) {
+                CancelListener current = mCancelListener;
+                if (current == CANCELLED_LISTENER) {
+                    if (listener != null) listener.onCancel();
+                    return;
+                }
+                if (sCancelListenerUpdater.compareAndSet(this, current, listener)) {
+                    return;
+                }
             }
         }
 
@@ -220,6 +461,8 @@ public class ThreadPool {
         private ResourceCounter modeToCounter(int mode) {
             if (mode == MODE_CPU) {
                 return mCpuCounter;
+            } else if (mode == MODE_IO) {
+                return mIoCounter;
             } else if (mode == MODE_NETWORK) {
                 return mNetworkCounter;
             } else {
@@ -228,41 +471,39 @@ public class ThreadPool {
         }
 
         private boolean acquireResource(ResourceCounter counter) {
-            while (true) {
-                synchronized (this) {
-                    if (mIsCancelled) {
-                        mWaitOnResource = null;
-                        return false;
-                    }
-                    mWaitOnResource = counter;
-                }
-
-                synchronized (counter) {
-                    if (counter.value > 0) {
-                        counter.value--;
+            if (isCancelled()) return false;
+            if (counter.tryAcquire()) return true;
+
+            Thread current = Thread.currentThread();
+            mWaitingThread = current;
+            counter.mWaiters.add(current);
+            counter.mWaiting.incrementAndGet();
+            boolean acquired = false;
+            try {
+                // A release() after the failed tryAcquire() below finds this
+                // thread in the waiters, so the wake-up is not lost.
+                while (!isCancelled()) {
+                    if (counter.tryAcquire()) {
+                        acquired = true;
                         break;
-                    } else {
-                        try {
-                            counter.wait();
-                        } catch (InterruptedException ex) {
-                            // ignore.
-                        }
                     }
+                    LockSupport.park(this);
                 }
+            } finally {
+                counter.mWaiters.remove(current);
+                counter.mWaiting.decrementAndGet();
+                mWaitingThread = null;
             }
-
-            synchronized (this) {
-                mWaitOnResource = null;
-            }
-
-            return true;
+            // We may have been woken up for a permit we are not taking. And
+            // since a release() only wakes up the first waiter, two releases
+            // close together may both wake this thread, so pass on a permit
+            // that is left to the next waiter.
+            if (!acquired || counter.mPermits.get() > 0) counter.wakeUpWaiter();
+            return acquired;
         }
 
         private void releaseResource(ResourceCounter counter) {
-            synchronized (counter) {
-                counter.value++;
-                counter.notifyAll();
-            }
+            counter.release();
         }
     }
 }
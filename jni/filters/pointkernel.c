@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <math.h>
+#include <stdlib.h>
+#include "filters.h"
+
+// Must match PointFilterKernel.java
+#define OP_LUT 0
+#define OP_MATRIX 1
+#define OP_VIBRANCE 2
+#define OP_BW 3
+
+#define LUT_SIZE (3 * 256)
+#define MATRIX_SIZE 12
+
+typedef struct {
+    int type;
+    const float* params;
+    const unsigned char* lut;
+    float bw[3];
+} PointOp;
+
+// Same constants as in vibrance.c
+static const float Rf = 0.2999f;
+static const float Gf = 0.587f;
+static const float Bf = 0.114f;
+
+static void setupOps(PointOp* kernel, int opCount, const jint* ops,
+        const float* params, const unsigned char* luts)
+{
+    int k;
+    for (k = 0; k < opCount; k++) {
+        kernel[k].type = ops[k];
+        kernel[k].params = params;
+        kernel[k].lut = luts;
+        switch (ops[k]) {
+            case OP_LUT:
+                luts += LUT_SIZE;
+                break;
+            case OP_MATRIX:
+                params += MATRIX_SIZE;
+                break;
+            case OP_VIBRANCE:
+                params += 1;
+                break;
+            case OP_BW: {
+                // As in bwfilter.c
+                float sr = params[0];
+                float sg = params[1];
+                float sb = params[2];
+                float min = MIN(sg, sb);
+                min = MIN(sr, min);
+                float max = MAX(sg, sb);
+                max = MAX(sr, max);
+                float avg = (min + max) / 2;
+                kernel[k].bw[0] = sr / avg;
+                kernel[k].bw[1] = sg / avg;
+                kernel[k].bw[2] = sb / avg;
+                params += 3;
+                break;
+            }
+        }
+    }
+}
+
+// Applies all the operations to each pixel in turn, so the bitmap is only
+// read and written once. Each operation does the same math as the native
+// code of the filter it comes from.
+static void applyOps(unsigned char* rgb, int len, const PointOp* kernel, int opCount)
+{
+    int i, k;
+    for (i = 0; i < len; i += 4) {
+        int r = rgb[RED];
+        int g = rgb[GREEN];
+        int b = rgb[BLUE];
+        for (k = 0; k < opCount; k++) {
+            const float* m = kernel[k].params;
+            switch (kernel[k].type) {
+                case OP_LUT: {
+                    const unsigned char* lut = kernel[k].lut;
+                    r = lut[r];
+                    g = lut[256 + g];
+                    b = lut[512 + b];
+                    break;
+                }
+                case OP_MATRIX: {
+                    float rf = r * m[0] + g * m[1] + b * m[2] + m[3];
+                    float gf = r * m[4] + g * m[5] + b * m[6] + m[7];
+                    float bf = r * m[8] + g * m[9] + b * m[10] + m[11];
+                    r = clamp((int) rf);
+                    g = clamp((int) gf);
+                    b = clamp((int) bf);
+                    break;
+                }
+                case OP_VIBRANCE: {
+                    float Vib = m[0] / 100.f;
+                    float red = (r - MAX(g, b)) / 256.f;
+                    float S = (float) (Vib / (1 + exp(-red * 3))) + 1;
+                    float MS = 1.0f - S;
+                    float Rt = Rf * MS;
+                    float Gt = Gf * MS;
+                    float Bt = Bf * MS;
+                    float R = r;
+                    float G = g;
+                    float B = b;
+                    float Rc = R * (Rt + S) + G * Gt + B * Bt;
+                    float Gc = R * Rt + G * (Gt + S) + B * Bt;
+                    float Bc = R * Rt + G * Gt + B * (Bt + S);
+                    r = (unsigned char) CLAMP(Rc);
+                    g = (unsigned char) CLAMP(Gc);
+                    b = (unsigned char) CLAMP(Bc);
+                    break;
+                }
+                case OP_BW: {
+                    float rf = kernel[k].bw[0] * r;
+                    float gf = kernel[k].bw[1] * g;
+                    float bf = kernel[k].bw[2] * b;
+                    float min = MIN(gf, bf);
+                    min = MIN(rf, min);
+                    float max = MAX(gf, bf);
+                    max = MAX(rf, max);
+                    float avg = (min + max) / 2;
+                    r = g = b = (unsigned char) CLAMP(avg);
+                    break;
+                }
+            }
+        }
+        rgb[RED] = r;
+        rgb[GREEN] = g;
+        rgb[BLUE] = b;
+    }
+}
+
+void JNIFUNCF(PointFilterKernel, nativeApplyKernel, jobject bitmap, jint width, jint height,
+        jintArray ops, jint opCount, jfloatArray params, jbyteArray luts)
+{
+    PointOp* kernel = (PointOp*) malloc(sizeof(PointOp) * opCount);
+    if (kernel == NULL) {
+        LOG("cannot allocate point kernel");
+        return;
+    }
+    jint* opArray = (*env)->GetIntArrayElements(env, ops, NULL);
+    jfloat* paramArray = (*env)->GetFloatArrayElements(env, params, NULL);
+    jbyte* lutArray = (*env)->GetByteArrayElements(env, luts, NULL);
+    setupOps(kernel, opCount, opArray, paramArray, (const unsigned char*) lutArray);
+
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    applyOps((unsigned char*) destination, width * height * 4, kernel, opCount);
+    AndroidBitmap_unlockPixels(env, bitmap);
+
+    (*env)->ReleaseByteArrayElements(env, luts, lutArray, JNI_ABORT);
+    (*env)->ReleaseFloatArrayElements(env, params, paramArray, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, ops, opArray, JNI_ABORT);
+    free(kernel);
+}
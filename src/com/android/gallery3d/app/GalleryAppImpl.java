@@ -88,7 +88,7 @@ public class GalleryAppImpl extends Application implements GalleryApp {
     @Override
     public synchronized ThreadPool getThreadPool() {
         if (mThreadPool == null) {
-            mThreadPool = new ThreadPool();
+            mThreadPool = ThreadPool.createAdaptive();
         }
         return mThreadPool;
     }
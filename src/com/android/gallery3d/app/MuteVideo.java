@@ -81,11 +81,13 @@ public class MuteVideo {
         }
 
         showProgressDialog();
+        final SaveVideoFileUtils.ProgressListener progressListener =
+                SaveVideoFileUtils.getDialogProgressListener(mHandler, mMuteProgress);
         new Thread(new Runnable() {
                 @Override
             public void run() {
                 try {
-                    VideoUtils.startMute(mFilePath, mDstFileInfo);
+                    VideoUtils.startMute(mFilePath, mDstFileInfo, progressListener);
                     SaveVideoFileUtils.insertContent(
                             mDstFileInfo, mActivity.getContentResolver(), mUri);
                 } catch (Exception e) {
@@ -141,6 +143,8 @@ public class MuteVideo {
         mMuteProgress = new ProgressDialog(mActivity);
         mMuteProgress.setTitle(mActivity.getString(R.string.muting));
         mMuteProgress.setMessage(mActivity.getString(R.string.please_wait));
+        mMuteProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mMuteProgress.setMax(100);
         mMuteProgress.setCancelable(false);
         mMuteProgress.setCanceledOnTouchOutside(false);
         if (isActivityValid(mActivity)) {
@@ -43,6 +43,7 @@ import com.android.gallery3d.ui.TiledScreenNail;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.GifDecoder;
+import com.android.gallery3d.util.GifFrame;
 import com.android.gallery3d.util.GifRequest;
 import com.android.gallery3d.util.MediaSetUtils;
 import com.android.gallery3d.util.ThreadPool;
@@ -78,6 +79,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
     private static final int BIT_GIF_ANIMATION = 3;
 
     private static final long NOTIFY_DIRTY_WAIT_TIME = 10;
+    // How long to wait for a streaming GIF frame which is not decoded yet.
+    private static final long GIF_FRAME_RETRY_DELAY = 10;
     // sImageFetchSeq is the fetching sequence for images.
     // We want to fetch the current screennail first (offset = 0), the next
     // screennail (offset = +1), then the previous screennail (offset = -1) etc.
@@ -865,15 +868,21 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         MediaItem item = mData[index % DATA_CACHE_SIZE];
         Utils.assertTrue(item != null);
         long version = item.getDataVersion();
+        // The farther the image is from the current one, the later it is
+        // needed. An already started task is re-prioritized as the user moves.
+        int priority = Math.abs(index - mCurrentIndex);
 
         if (which == BIT_SCREEN_NAIL && entry.screenNailTask != null
                 && entry.requestedScreenNail == version) {
+            mThreadPool.setPriority(entry.screenNailTask, priority);
             return entry.screenNailTask;
         } else if (which == BIT_FULL_IMAGE && entry.fullImageTask != null
                 && entry.requestedFullImage == version) {
+            mThreadPool.setPriority(entry.fullImageTask, priority);
             return entry.fullImageTask;
         } else if (which == BIT_GIF_ANIMATION && entry.gifDecoderTask != null
                 && entry.requestedGif == version) {
+            mThreadPool.setPriority(entry.gifDecoderTask, priority);
             return entry.gifDecoderTask;
         }
 
@@ -881,7 +890,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             entry.requestedScreenNail = version;
             entry.screenNailTask = mThreadPool.submit(
                     new ScreenNailJob(item),
-                    new ScreenNailListener(item));
+                    new ScreenNailListener(item), priority);
             // request screen nail
             return entry.screenNailTask;
         }
@@ -891,7 +900,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             entry.requestedFullImage = version;
             entry.fullImageTask = mThreadPool.submit(
                     new FullImageJob(item),
-                    new FullImageListener(item));
+                    new FullImageListener(item), priority);
             // request full image
             return entry.fullImageTask;
         }
@@ -902,7 +911,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             entry.requestedGif = version;
             entry.gifDecoderTask = mThreadPool.submit(
                     new GifDecoderJob(item),
-                    new GifDecoderListener(item.getPath()));
+                    new GifDecoderListener(item.getPath()), priority);
             // request gif decoder
             return entry.gifDecoderTask;
         }
@@ -942,6 +951,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
                         entry.gifDecoderTask.cancel();
                         entry.gifDecoderTask = null;
                     }
+                    freeStreamingGifDecoder(entry);
                     entry.gifDecoder = null;
                     entry.requestedGif = MediaItem.INVALID_DATA_VERSION;
                     if (null != entry.currentGifFrame) {
@@ -962,6 +972,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             if (entry.fullImageTask != null) entry.fullImageTask.cancel();
             if (entry.screenNailTask != null) entry.screenNailTask.cancel();
             if (entry.screenNail != null) entry.screenNail.recycle();
+            if (entry.gifDecoderTask != null) entry.gifDecoderTask.cancel();
+            freeStreamingGifDecoder(entry);
         }
 
         updateScreenNailUploadQueue();
@@ -1040,6 +1052,10 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
         ImageEntry entry = mImageCache.get(path);
         if (entry == null || entry.gifDecoderTask != future) {
+            // The task was cancelled after it was done, so nobody else will
+            // stop its decoder thread.
+            GifDecoder decoder = future.get();
+            if (decoder != null) decoder.free();
             return;
         }
 
@@ -1105,7 +1121,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             }
             mGifEntry.currentFrame = 0;
             mGifEntry.totalFrameCount = mGifEntry.gifDecoder.getFrameCount();
-            if (mGifEntry.totalFrameCount <= 1) {
+            // A streaming decoder only knows the frame count at the end.
+            if (mGifEntry.totalFrameCount <= 1 && !mGifEntry.gifDecoder.isStreaming()) {
                 free();
                 return;
             }
@@ -1132,19 +1149,48 @@ public class PhotoDataAdapter implements PhotoPage.Model {
                 return;
             }
 
-            Bitmap frameBitmap = mGifEntry.gifDecoder.getFrameImage(mGifEntry.currentFrame);
-            if (null == frameBitmap) {
-                free();
-                return;
+            Bitmap frameBitmap;
+            long delay;
+            if (mGifEntry.gifDecoder.isStreaming()) {
+                GifFrame frame = mGifEntry.gifDecoder.nextStreamingFrame();
+                if (frame == null) {
+                    if (mGifEntry.gifDecoder.isStreamDone()) {
+                        // A single frame, which stays on screen.
+                        mGifEntry = null;
+                        return;
+                    }
+                    // Not decoded yet.
+                    mMainHandler.sendMessageDelayed(mMainHandler.obtainMessage(
+                            MSG_RUN_OBJECT, this), GIF_FRAME_RETRY_DELAY);
+                    return;
+                }
+                frameBitmap = frame.mImage;
+                delay = frame.mDelayInMs;
+            } else {
+                frameBitmap = mGifEntry.gifDecoder.getFrameImage(mGifEntry.currentFrame);
+                if (null == frameBitmap) {
+                    free();
+                    return;
+                }
+                delay = (long) mGifEntry.gifDecoder.getDelay(mGifEntry.currentFrame);
+                mGifEntry.currentFrame =
+                        (mGifEntry.currentFrame + 1) % mGifEntry.totalFrameCount;
             }
-            long delay = (long) mGifEntry.gifDecoder.getDelay(mGifEntry.currentFrame);
-            mGifEntry.currentFrame = (mGifEntry.currentFrame + 1) % mGifEntry.totalFrameCount;
 
             ScreenNail gifFrame = new BitmapScreenNail(frameBitmap);
             if (mGifEntry.entry.currentGifFrame != null) {
                 mGifEntry.entry.currentGifFrame.recycle();
                 mGifEntry.entry.currentGifFrame = null;
             }
+            // The texture of the previous frame is gone, and this runs with
+            // the render thread locked, so its bitmap can be written again.
+            if (mGifEntry.shownFrame != null) {
+                mGifEntry.gifDecoder.releaseStreamingFrame(mGifEntry.shownFrame);
+                mGifEntry.shownFrame = null;
+            }
+            if (mGifEntry.gifDecoder.isStreaming()) {
+                mGifEntry.shownFrame = frameBitmap;
+            }
             mGifEntry.entry.currentGifFrame = gifFrame;
             updateTileProvider(mGifEntry.entry);
             mPhotoView.notifyImageChange(0);
@@ -1154,12 +1200,24 @@ public class PhotoDataAdapter implements PhotoPage.Model {
     }
 
 
+    // Stops the decoder thread of a streaming GIF decoder, which would
+    // otherwise wait for its frames to be shown. The frame on screen is not
+    // recycled, since the caller still holds it.
+    private static void freeStreamingGifDecoder(ImageEntry entry) {
+        if (entry.gifDecoder != null && entry.gifDecoder.isStreaming()) {
+            entry.gifDecoder.free();
+        }
+    }
+
     private static class GifEntry {
         public ImageEntry entry;
         public GifDecoder gifDecoder;
         public int animatedIndex;
         public int currentFrame;
         public int totalFrameCount;
+        // The bitmap of the streaming frame on screen, to give back to the
+        // decoder once the next frame replaces it.
+        public Bitmap shownFrame;
     }
 
     private static class ImageEntry {
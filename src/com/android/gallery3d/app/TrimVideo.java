@@ -270,6 +270,8 @@ public class TrimVideo extends Activity implements
         final File mSrcFile = new File(mSrcVideoPath);
 
         showProgressDialog();
+        final SaveVideoFileUtils.ProgressListener progressListener =
+                SaveVideoFileUtils.getDialogProgressListener(mHandler, mProgress);
 
         new Thread(new Runnable() {
             @Override
@@ -277,7 +279,7 @@ public class TrimVideo extends Activity implements
                 boolean hasError = false;
                 try {
                     VideoUtils.startTrim(mSrcFile, mDstFileInfo.mFile,
-                            mTrimStartTime, mTrimEndTime);
+                            mTrimStartTime, mTrimEndTime, progressListener);
                     // Update the database for adding a new video file.
                     SaveVideoFileUtils.insertContent(mDstFileInfo,
                             getContentResolver(), mUri);
@@ -341,6 +343,8 @@ public class TrimVideo extends Activity implements
         mProgress = new ProgressDialog(this);
         mProgress.setTitle(getString(R.string.trimming));
         mProgress.setMessage(getString(R.string.please_wait));
+        mProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgress.setMax(100);
         // TODO: make this cancelable.
         mProgress.setCancelable(false);
         mProgress.setCanceledOnTouchOutside(false);
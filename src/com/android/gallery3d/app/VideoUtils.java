@@ -28,6 +28,7 @@ import android.util.Log;
 
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.util.SaveVideoFileInfo;
+import com.android.gallery3d.util.SaveVideoFileUtils.ProgressListener;
 import com.coremedia.iso.IsoFile;
 import com.coremedia.iso.boxes.TimeToSampleBox;
 import com.googlecode.mp4parser.authoring.Movie;
@@ -53,26 +54,26 @@ public class VideoUtils {
     private static final int DEFAULT_BUFFER_SIZE = 1 * 1024 * 1024;
 
     /**
-     * Remove the sound track.
+     * Remove the sound track. The listener, if not null, gets the progress.
      */
-    public static void startMute(String filePath, SaveVideoFileInfo dstFileInfo)
-            throws IOException {
+    public static void startMute(String filePath, SaveVideoFileInfo dstFileInfo,
+            ProgressListener listener) throws IOException {
         if (ApiHelper.HAS_MEDIA_MUXER) {
             genVideoUsingMuxer(filePath, dstFileInfo.mFile.getPath(), -1, -1,
-                    false, true);
+                    false, true, listener);
         } else {
             startMuteUsingMp4Parser(filePath, dstFileInfo);
         }
     }
 
     /**
-     * Shortens/Crops tracks
+     * Shortens/Crops tracks. The listener, if not null, gets the progress.
      */
-    public static void startTrim(File src, File dst, int startMs, int endMs)
-            throws IOException {
+    public static void startTrim(File src, File dst, int startMs, int endMs,
+            ProgressListener listener) throws IOException {
         if (ApiHelper.HAS_MEDIA_MUXER) {
             genVideoUsingMuxer(src.getPath(), dst.getPath(), startMs, endMs,
-                    true, true);
+                    true, true, listener);
         } else {
             trimUsingMp4Parser(src, dst, startMs, endMs);
         }
@@ -122,11 +123,12 @@ public class VideoUtils {
      *            no trimming at the end.
      * @param useAudio true if keep the audio track from the source.
      * @param useVideo true if keep the video track from the source.
+     * @param listener gets the progress in percent of the time range, or null.
      * @throws IOException
      */
     private static void genVideoUsingMuxer(String srcPath, String dstPath,
-            int startMs, int endMs, boolean useAudio, boolean useVideo)
-            throws IOException {
+            int startMs, int endMs, boolean useAudio, boolean useVideo,
+            ProgressListener listener) throws IOException {
         // Set up MediaExtractor to read from the source.
         MediaExtractor extractor = new MediaExtractor();
         extractor.setDataSource(srcPath);
@@ -179,6 +181,8 @@ public class VideoUtils {
         retrieverSrc.setDataSource(srcPath);
         String degreesString = retrieverSrc.extractMetadata(
                 MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+        String durationString = retrieverSrc.extractMetadata(
+                MediaMetadataRetriever.METADATA_KEY_DURATION);
         try {
             retrieverSrc.release();
         } catch (IOException e) {
@@ -194,14 +198,22 @@ public class VideoUtils {
         if (startMs > 0) {
             extractor.seekTo(startMs * 1000, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
         }
+        long endUs = endMs > 0 ? endMs * 1000L : -1;
+        if (endUs < 0 && durationString != null) {
+            endUs = Long.parseLong(durationString) * 1000;
+        }
 
         // Copy the samples from MediaExtractor to MediaMuxer. We will loop
         // for copying each sample and stop when we get to the end of the source
         // file or exceed the end time of the trimming.
         int offset = 0;
         int trackIndex = -1;
-        ByteBuffer dstBuf = ByteBuffer.allocate(bufferSize);
+        // A direct buffer, so the extractor and the muxer use the sample data
+        // in place rather than copying it to and from a Java array.
+        ByteBuffer dstBuf = ByteBuffer.allocateDirect(bufferSize);
         BufferInfo bufferInfo = new BufferInfo();
+        long startUs = -1;
+        int percent = -1;
         try {
             muxer.start();
             while (true) {
@@ -223,11 +235,23 @@ public class VideoUtils {
                         muxer.writeSampleData(indexMap.get(trackIndex), dstBuf,
                                 bufferInfo);
                         extractor.advance();
+
+                        if (startUs < 0) startUs = bufferInfo.presentationTimeUs;
+                        if (listener != null && endUs > startUs) {
+                            int newPercent = (int) Math.min(100,
+                                    (bufferInfo.presentationTimeUs - startUs) * 100
+                                    / (endUs - startUs));
+                            if (newPercent > percent) {
+                                percent = newPercent;
+                                listener.onProgress(percent);
+                            }
+                        }
                     }
                 }
             }
 
             muxer.stop();
+            if (listener != null && percent < 100) listener.onProgress(100);
         } catch (IllegalStateException e) {
             // Swallow the exception due to malformed source.
             Log.w(LOGTAG, "The source video file is malformed");
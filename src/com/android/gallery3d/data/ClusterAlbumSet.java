@@ -33,6 +33,11 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
     private int mKind;
     private ArrayList<ClusterAlbum> mAlbums = new ArrayList<ClusterAlbum>();
     private boolean mIsLoading;
+    // Kept between updates if it can re-cluster incrementally.
+    private Clustering mClustering;
+    // True if the albums come from a ClusterSnapshot and the clustering has
+    // not run yet.
+    private boolean mReconcilePending;
 
     private int mTotalMediaItemCount;
     /** mTotalSelectableMediaItemCount is the count of items
@@ -72,10 +77,23 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
     @Override
     public long reload() {
         synchronized (this) {
+            if (mDataVersion == INVALID_DATA_VERSION && loadSnapshot()) {
+                // Show the saved clusters first, and let the listeners
+                // reload again to run the clustering.
+                mReconcilePending = true;
+                mDataVersion = nextVersionNumber();
+                if (mKind == ClusterSource.CLUSTER_ALBUMSET_TIME) {
+                    calculateTotalItemsCount();
+                    calculateTotalSelectableItemsCount();
+                }
+                notifyContentChanged();
+                return mDataVersion;
+            }
             long version = mBaseSet.reload();
             mIsLoading = mBaseSet.isLoading();
-            if (version > mDataVersion && !mIsLoading) {
+            if ((version > mDataVersion || mReconcilePending) && !mIsLoading) {
                 updateClusters();
+                mReconcilePending = false;
                 mIsLoading = false;
                 mDataVersion = nextVersionNumber();
             }
@@ -92,7 +110,56 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
         notifyContentChanged();
     }
 
+    private boolean loadSnapshot() {
+        ClusterSnapshot snapshot =
+                ClusterSnapshot.load(mApplication, mBaseSet.getPath(), mKind);
+        if (snapshot == null) return false;
+        setClusters(snapshot, snapshot.getSegments());
+        return true;
+    }
+
     private void updateClusters() {
+        Clustering clustering = mClustering;
+        Context context = mApplication.getAndroidContext();
+        if (clustering == null) {
+            switch (mKind) {
+                case ClusterSource.CLUSTER_ALBUMSET_TIME:
+                    clustering = new TimeClustering(context);
+                    break;
+                case ClusterSource.CLUSTER_ALBUMSET_LOCATION:
+                    clustering = new LocationClustering(context);
+                    break;
+                case ClusterSource.CLUSTER_ALBUMSET_TAG:
+                    clustering = new TagClustering(context);
+                    break;
+                case ClusterSource.CLUSTER_ALBUMSET_FACE:
+                    clustering = new FaceClustering(context);
+                    break;
+                default: /* CLUSTER_ALBUMSET_SIZE */
+                    clustering = new SizeClustering(context);
+                    break;
+            }
+        }
+        clustering.run(mBaseSet);
+        mClustering = clustering.isIncremental() ? clustering : null;
+        int n = clustering.getNumberOfClusters();
+        String[] segments = new String[n];
+        for (int i = 0; i < n; i++) {
+            if (mKind == ClusterSource.CLUSTER_ALBUMSET_TAG) {
+                segments[i] = Uri.encode(clustering.getClusterName(i));
+            } else if (mKind == ClusterSource.CLUSTER_ALBUMSET_SIZE) {
+                long minSize = ((SizeClustering) clustering).getMinSize(i);
+                segments[i] = String.valueOf(minSize);
+            } else {
+                segments[i] = String.valueOf(i);
+            }
+        }
+        setClusters(clustering, segments);
+        ClusterSnapshot.save(mApplication, mBaseSet.getPath(), mKind,
+                clustering, segments);
+    }
+
+    private void setClusters(Clustering clustering, String[] segments) {
         //save last paths to find the empty albums
         ArrayList<Path> oldPaths = new ArrayList<Path>();
         for (ClusterAlbum album : mAlbums) {
@@ -100,39 +167,11 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
         }
 
         mAlbums.clear();
-        Clustering clustering;
-        Context context = mApplication.getAndroidContext();
-        switch (mKind) {
-            case ClusterSource.CLUSTER_ALBUMSET_TIME:
-                clustering = new TimeClustering(context);
-                break;
-            case ClusterSource.CLUSTER_ALBUMSET_LOCATION:
-                clustering = new LocationClustering(context);
-                break;
-            case ClusterSource.CLUSTER_ALBUMSET_TAG:
-                clustering = new TagClustering(context);
-                break;
-            case ClusterSource.CLUSTER_ALBUMSET_FACE:
-                clustering = new FaceClustering(context);
-                break;
-            default: /* CLUSTER_ALBUMSET_SIZE */
-                clustering = new SizeClustering(context);
-                break;
-        }
-        clustering.run(mBaseSet);
         int n = clustering.getNumberOfClusters();
         DataManager dataManager = mApplication.getDataManager();
         for (int i = 0; i < n; i++) {
-            Path childPath;
+            Path childPath = mPath.getChild(segments[i]);
             String childName = clustering.getClusterName(i);
-            if (mKind == ClusterSource.CLUSTER_ALBUMSET_TAG) {
-                childPath = mPath.getChild(Uri.encode(childName));
-            } else if (mKind == ClusterSource.CLUSTER_ALBUMSET_SIZE) {
-                long minSize = ((SizeClustering) clustering).getMinSize(i);
-                childPath = mPath.getChild(minSize);
-            } else {
-                childPath = mPath.getChild(i);
-            }
 
             ClusterAlbum album;
             synchronized (DataManager.LOCK) {
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import com.android.gallery3d.app.GalleryApp;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.CacheManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// ClusterSnapshot is the result of the last Clustering run over a base set,
+// saved in a cache file. A ClusterAlbumSet shows it right away when it is
+// first loaded, and runs the real clustering in the next reload.
+//
+// The data versions of media sets do not survive the process, so snapshots
+// are keyed by the base set path and the cluster kind, and are only used
+// until the clustering has run once.
+class ClusterSnapshot extends Clustering {
+    private static final String TAG = "ClusterSnapshot";
+
+    private static final String CLUSTER_CACHE_FILE = "clustercache";
+    private static final int CLUSTER_CACHE_MAX_ENTRIES = 64;
+    private static final int CLUSTER_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int CLUSTER_CACHE_VERSION = 1;
+
+    private final DataManager mDataManager;
+    private final String[] mSegments;
+    private final String[] mNames;
+    private final ArrayList<ArrayList<Path>> mClusters;
+    private final Path[] mCovers;
+    private final int[] mImageCounts;
+    private final int[] mVideoCounts;
+
+    private ClusterSnapshot(DataManager dataManager, int n) {
+        mDataManager = dataManager;
+        mSegments = new String[n];
+        mNames = new String[n];
+        mClusters = new ArrayList<ArrayList<Path>>(n);
+        mCovers = new Path[n];
+        mImageCounts = new int[n];
+        mVideoCounts = new int[n];
+    }
+
+    @Override
+    public void run(MediaSet baseSet) {
+        // The clusters are already there.
+    }
+
+    @Override
+    public int getNumberOfClusters() {
+        return mNames.length;
+    }
+
+    @Override
+    public ArrayList<Path> getCluster(int index) {
+        return mClusters.get(index);
+    }
+
+    @Override
+    public String getClusterName(int index) {
+        return mNames[index];
+    }
+
+    @Override
+    public MediaItem getClusterCover(int index) {
+        if (mCovers[index] == null) return null;
+        try {
+            return (MediaItem) mDataManager.getMediaObject(mCovers[index]);
+        } catch (Throwable t) {
+            Log.w(TAG, "cannot get cover: " + mCovers[index], t);
+            return null;
+        }
+    }
+
+    @Override
+    public int getClusterImageCount(int index) {
+        return mImageCounts[index];
+    }
+
+    @Override
+    public int getClusterVideoCount(int index) {
+        return mVideoCounts[index];
+    }
+
+    // The path segments of the cluster albums.
+    public String[] getSegments() {
+        return mSegments;
+    }
+
+    private static BlobCache getCache(GalleryApp app) {
+        return CacheManager.getCache(app.getAndroidContext(), CLUSTER_CACHE_FILE,
+                CLUSTER_CACHE_MAX_ENTRIES, CLUSTER_CACHE_MAX_BYTES,
+                CLUSTER_CACHE_VERSION, true);
+    }
+
+    private static String getKeyString(Path basePath, int kind) {
+        return basePath + "#" + kind;
+    }
+
+    // Returns the snapshot saved for the base set, or null if there is none.
+    public static ClusterSnapshot load(GalleryApp app, Path basePath, int kind) {
+        BlobCache cache = getCache(app);
+        if (cache == null) return null;
+        String keyString = getKeyString(basePath, kind);
+        try {
+            byte[] data = cache.lookup(Utils.crc64Long(keyString));
+            if (data == null) return null;
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            if (!keyString.equals(dis.readUTF())) return null;
+
+            // The parents of the item paths, referred to by index below.
+            Path[] parents = new Path[readVarint(dis)];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Path.fromString(dis.readUTF());
+            }
+
+            int n = readVarint(dis);
+            ClusterSnapshot snapshot = new ClusterSnapshot(app.getDataManager(), n);
+            for (int i = 0; i < n; i++) {
+                snapshot.mSegments[i] = dis.readUTF();
+                snapshot.mNames[i] = dis.readUTF();
+                snapshot.mImageCounts[i] = readVarint(dis);
+                snapshot.mVideoCounts[i] = readVarint(dis);
+                if (dis.readBoolean()) snapshot.mCovers[i] = readPath(dis, parents);
+                int m = readVarint(dis);
+                ArrayList<Path> paths = new ArrayList<Path>(m);
+                for (int j = 0; j < m; j++) {
+                    paths.add(readPath(dis, parents));
+                }
+                snapshot.mClusters.add(paths);
+            }
+            return snapshot;
+        } catch (Throwable t) {
+            // The snapshot is only a shortcut, so just drop a bad one.
+            Log.w(TAG, "cannot load snapshot for " + keyString, t);
+            return null;
+        }
+    }
+
+    // Saves the result of the clustering run over the base set.
+    public static void save(GalleryApp app, Path basePath, int kind,
+            Clustering clustering, String[] segments) {
+        BlobCache cache = getCache(app);
+        if (cache == null) return;
+        String keyString = getKeyString(basePath, kind);
+        try {
+            int n = clustering.getNumberOfClusters();
+            HashMap<Path, Integer> parentIndex = new HashMap<Path, Integer>();
+            ArrayList<Path> parents = new ArrayList<Path>();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(body);
+            writeVarint(dos, n);
+            for (int i = 0; i < n; i++) {
+                dos.writeUTF(segments[i]);
+                String name = clustering.getClusterName(i);
+                dos.writeUTF(name == null ? "" : name);
+                writeVarint(dos, clustering.getClusterImageCount(i));
+                writeVarint(dos, clustering.getClusterVideoCount(i));
+                MediaItem cover = clustering.getClusterCover(i);
+                dos.writeBoolean(cover != null);
+                if (cover != null) writePath(dos, cover.getPath(), parentIndex, parents);
+                ArrayList<Path> paths = clustering.getCluster(i);
+                writeVarint(dos, paths.size());
+                for (int j = 0, m = paths.size(); j < m; j++) {
+                    writePath(dos, paths.get(j), parentIndex, parents);
+                }
+            }
+            dos.flush();
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(body.size() + 256);
+            DataOutputStream header = new DataOutputStream(bos);
+            header.writeUTF(keyString);
+            writeVarint(header, parents.size());
+            for (Path parent : parents) {
+                header.writeUTF(parent.toString());
+            }
+            header.flush();
+            body.writeTo(bos);
+            cache.insert(Utils.crc64Long(keyString), bos.toByteArray());
+        } catch (Throwable t) {
+            Log.w(TAG, "cannot save snapshot for " + keyString, t);
+        }
+    }
+
+    // A path is written as the index of its parent, shifted left by one,
+    // followed by its numeric suffix if the low bit is 0, or by its suffix as
+    // a string otherwise. Most paths are like "/local/image/item/123", so
+    // this takes a few bytes per item.
+    private static void writePath(DataOutputStream dos, Path path,
+            HashMap<Path, Integer> parentIndex, ArrayList<Path> parents)
+            throws IOException {
+        Path parent = path.getParent();
+        Integer index = parentIndex.get(parent);
+        if (index == null) {
+            index = parents.size();
+            parents.add(parent);
+            parentIndex.put(parent, index);
+        }
+        long id = path.getMediaId();
+        if (id >= 0) {
+            writeVarint(dos, (long) index << 1);
+            writeVarint(dos, id);
+        } else {
+            writeVarint(dos, ((long) index << 1) | 1);
+            dos.writeUTF(path.getSuffix());
+        }
+    }
+
+    private static Path readPath(DataInputStream dis, Path[] parents)
+            throws IOException {
+        long tag = readVarintLong(dis);
+        Path parent = parents[(int) (tag >>> 1)];
+        if ((tag & 1) == 0) {
+            return parent.getChild(readVarintLong(dis));
+        } else {
+            return parent.getChild(dis.readUTF());
+        }
+    }
+
+    private static void writeVarint(DataOutputStream dos, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            dos.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dos.writeByte((int) value);
+    }
+
+    private static long readVarintLong(DataInputStream dis) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = dis.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("bad varint");
+    }
+
+    private static int readVarint(DataInputStream dis) throws IOException {
+        long value = readVarintLong(dis);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("bad count: " + value);
+        }
+        return (int) value;
+    }
+}
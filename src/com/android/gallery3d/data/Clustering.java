@@ -23,6 +23,13 @@ public abstract class Clustering {
     public abstract int getNumberOfClusters();
     public abstract ArrayList<Path> getCluster(int index);
     public abstract String getClusterName(int index);
+
+    // Returns true if run() can be called again after the base set changed,
+    // reusing the work of the previous run.
+    public boolean isIncremental() {
+        return false;
+    }
+
     public MediaItem getClusterCover(int index) {
         return null;
     }
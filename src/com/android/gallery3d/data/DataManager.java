@@ -265,6 +265,29 @@ public class DataManager implements StitchingChangeListener {
         getMediaObject(path).rotate(degrees);
     }
 
+    // Deletes a list of media objects. They are grouped by their media
+    // source, so a source can batch the work for its objects.
+    public void delete(ArrayList<Path> paths) {
+        for (Entry<String, ArrayList<Path>> entry : groupBySource(paths).entrySet()) {
+            mSourceMap.get(entry.getKey()).deleteAll(entry.getValue());
+        }
+    }
+
+    private HashMap<String, ArrayList<Path>> groupBySource(ArrayList<Path> paths) {
+        HashMap<String, ArrayList<Path>> map = new HashMap<String, ArrayList<Path>>();
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            Path path = paths.get(i);
+            String prefix = path.getPrefix();
+            ArrayList<Path> group = map.get(prefix);
+            if (group == null) {
+                group = new ArrayList<Path>();
+                map.put(prefix, group);
+            }
+            group.add(path);
+        }
+        return map;
+    }
+
     public Uri getContentUri(Path path) {
         return getMediaObject(path).getContentUri();
     }
@@ -35,6 +35,7 @@ import com.android.gallery3d.util.ThreadPool.JobContext;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class DecodeUtils {
     private static final String TAG = "DecodeUtils";
@@ -52,6 +53,57 @@ public class DecodeUtils {
         }
     }
 
+    // Streams the remaining bytes of a ByteBuffer into the decoder. It supports
+    // mark/reset so BitmapFactory does not need to buffer it again.
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuf;
+
+        public ByteBufferInputStream(ByteBuffer buf) {
+            mBuf = buf;
+        }
+
+        @Override
+        public int read() {
+            if (!mBuf.hasRemaining()) return -1;
+            return mBuf.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!mBuf.hasRemaining()) return -1;
+            len = Math.min(len, mBuf.remaining());
+            mBuf.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int step = (int) Math.min(Math.max(n, 0), mBuf.remaining());
+            mBuf.position(mBuf.position() + step);
+            return step;
+        }
+
+        @Override
+        public int available() {
+            return mBuf.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mBuf.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            mBuf.reset();
+        }
+    }
+
     @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
     public static void setOptionsMutable(Options options) {
         if (ApiHelper.HAS_OPTIONS_IN_MUTABLE) options.inMutable = true;
@@ -96,6 +148,26 @@ public class DecodeUtils {
         options.inJustDecodeBounds = false;
     }
 
+    // Decodes the remaining bytes of the buffer without copying them into an
+    // array. The position of the buffer is not changed.
+    public static Bitmap decode(JobContext jc, ByteBuffer data, Options options) {
+        if (options == null) options = new Options();
+        jc.setCancelListener(new DecodeCanceller(options));
+        setOptionsMutable(options);
+        return ensureGLCompatibleBitmap(BitmapFactory.decodeStream(
+                new ByteBufferInputStream(data.duplicate()), null, options));
+    }
+
+    public static void decodeBounds(JobContext jc, ByteBuffer data,
+            Options options) {
+        Utils.assertTrue(options != null);
+        options.inJustDecodeBounds = true;
+        jc.setCancelListener(new DecodeCanceller(options));
+        BitmapFactory.decodeStream(
+                new ByteBufferInputStream(data.duplicate()), null, options);
+        options.inJustDecodeBounds = false;
+    }
+
     public static Bitmap decodeThumbnail(
             JobContext jc, String filePath, Options options, int targetSize, int type) {
         FileInputStream fis = null;
@@ -299,6 +371,39 @@ public class DecodeUtils {
         }
     }
 
+    // This is the same as the method above except the source data comes
+    // from a ByteBuffer, e.g. a view of a blob in the image cache.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Bitmap decodeUsingPool(JobContext jc, ByteBuffer data,
+            Options options) {
+        if (options == null) options = new BitmapFactory.Options();
+        if (options.inSampleSize < 1) options.inSampleSize = 1;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = (options.inSampleSize == 1)
+                ? findCachedBitmap(jc, data, options) : null;
+        try {
+            Bitmap bitmap = decode(jc, data, options);
+            if (options.inBitmap != null && options.inBitmap != bitmap) {
+                GalleryBitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+
+            Log.w(TAG, "decode fail with a given bitmap, try decode to a new bitmap");
+            GalleryBitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            return decode(jc, data, options);
+        }
+    }
+
+    private static Bitmap findCachedBitmap(JobContext jc, ByteBuffer data,
+            Options options) {
+        decodeBounds(jc, data, options);
+        return GalleryBitmapPool.getInstance().get(options.outWidth, options.outHeight);
+    }
+
     private static Bitmap findCachedBitmap(JobContext jc, byte[] data,
             int offset, int length, Options options) {
         decodeBounds(jc, data, offset, length, options);
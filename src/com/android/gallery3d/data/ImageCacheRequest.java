@@ -23,10 +23,13 @@ import android.text.TextUtils;
 
 import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.BitmapUtils;
-import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
+import com.android.gallery3d.common.BlobCache.BlobReader;
+import com.android.gallery3d.util.ThreadPool;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
+import java.nio.ByteBuffer;
+
 abstract class ImageCacheRequest implements Job<Bitmap> {
     private static final String TAG = "ImageCacheRequest";
 
@@ -73,28 +76,16 @@ abstract class ImageCacheRequest implements Job<Bitmap> {
 
         ImageCacheService cacheService = mApplication.getImageCacheService();
 
-        BytesBuffer buffer = MediaItem.getBytesBufferPool().get();
-        try {
-            boolean found = cacheService.getImageData(mPath, mTimeModified, mType, buffer);
-            if (jc.isCancelled()) return null;
-            if (found) {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                Bitmap bitmap;
-                if (mType == MediaItem.TYPE_MICROTHUMBNAIL) {
-                    bitmap = DecodeUtils.decodeUsingPool(jc,
-                            buffer.data, buffer.offset, buffer.length, options);
-                } else {
-                    bitmap = DecodeUtils.decodeUsingPool(jc,
-                            buffer.data, buffer.offset, buffer.length, options);
-                }
-                if (bitmap == null && !jc.isCancelled()) {
-                    Log.w(TAG, "decode cached failed " + debugTag());
-                }
-                return bitmap;
+        // The cached data is decoded straight from the cache file, so it is
+        // not copied into a BytesBuffer first.
+        CachedImageDecoder decoder = new CachedImageDecoder(jc);
+        boolean found = cacheService.getImageData(mPath, mTimeModified, mType, decoder);
+        if (jc.isCancelled()) return null;
+        if (found) {
+            if (decoder.mBitmap == null && !jc.isCancelled()) {
+                Log.w(TAG, "decode cached failed " + debugTag());
             }
-        } finally {
-            MediaItem.getBytesBufferPool().recycle(buffer);
+            return decoder.mBitmap;
         }
 
         Bitmap bitmap = onDecodeOriginal(jc, mType);
@@ -115,9 +106,31 @@ abstract class ImageCacheRequest implements Job<Bitmap> {
         byte[] array = BitmapUtils.compressToBytes(bitmap);
         if (jc.isCancelled()) return null;
 
+        // Writing the cache is disk-bound, so give the decode permit back.
+        // The lookup above stays in CPU mode: it decodes straight from the
+        // mapped cache file, so its reads and decoding cannot be separated.
+        if (!jc.setMode(ThreadPool.MODE_IO)) return null;
         cacheService.putImageData(mPath, mTimeModified, mType, array);
         return bitmap;
     }
 
     public abstract Bitmap onDecodeOriginal(JobContext jc, int targetSize);
+
+    private static class CachedImageDecoder implements BlobReader {
+        private final JobContext mJobContext;
+        Bitmap mBitmap;
+
+        public CachedImageDecoder(JobContext jc) {
+            mJobContext = jc;
+        }
+
+        @Override
+        public boolean read(ByteBuffer data) {
+            if (mJobContext.isCancelled()) return true;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            mBitmap = DecodeUtils.decodeUsingPool(mJobContext, data, options);
+            return true;
+        }
+    }
 }
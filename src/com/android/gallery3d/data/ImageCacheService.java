@@ -19,6 +19,7 @@ package com.android.gallery3d.data;
 import android.content.Context;
 
 import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.BlobCache.BlobReader;
 import com.android.gallery3d.common.BlobCache.LookupRequest;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
@@ -35,14 +36,35 @@ public class ImageCacheService {
     private static final String IMAGE_CACHE_FILE = "imgcache";
     private static final int IMAGE_CACHE_MAX_ENTRIES = 5000;
     private static final int IMAGE_CACHE_MAX_BYTES = 200 * 1024 * 1024;
-    private static final int IMAGE_CACHE_VERSION = 7;
-
+    // Version 8 introduced the compact keys below. BlobCache discards a cache
+    // file with another version when it is opened, so a version 7 cache is
+    // simply rebuilt as the thumbnails are requested again.
+    private static final int IMAGE_CACHE_VERSION = 8;
+
+    // Paths ending with a numeric id, e.g. "/local/image/item/123", use a
+    // fixed-width binary key which is stored in front of the image data:
+    // [0]  Marker: 0. The string keys used for other paths start with '/'.
+    // [1]  Type: MediaItem.TYPE_*
+    // [2]  Reserved: 0
+    // [4]  Parent id: Path.getParentId()
+    // [8]  Media id: Path.getMediaId()
+    // [16] Time modified
+    // [24] Image data
+    private static final int CK_MARKER = 0;
+    private static final int CK_TYPE = 1;
+    private static final int CK_PARENT_ID = 4;
+    private static final int CK_MEDIA_ID = 8;
+    private static final int CK_TIME_MODIFIED = 16;
+    private static final int COMPACT_KEY_SIZE = 24;
+
+    // Opened in concurrent mode, so the decode threads can look up thumbnails
+    // in parallel without synchronizing on it.
     private BlobCache mCache;
 
     public ImageCacheService(Context context) {
         mCache = CacheManager.getCache(context, IMAGE_CACHE_FILE,
                 IMAGE_CACHE_MAX_ENTRIES, IMAGE_CACHE_MAX_BYTES,
-                IMAGE_CACHE_VERSION);
+                IMAGE_CACHE_VERSION, true);
     }
 
     /**
@@ -58,21 +80,16 @@ public class ImageCacheService {
     public boolean getImageData(Path path, long timeModified, int type, BytesBuffer buffer) {
         if (mCache == null) return false;
 
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
+        byte[] key = hasCompactKey(path) ? null : makeKey(path, timeModified, type);
         try {
             LookupRequest request = new LookupRequest();
-            request.key = cacheKey;
+            request.key = getCacheKey(path, timeModified, type, key);
             request.buffer = buffer.data;
-            if (mCache == null) {
-                return false;
-            }
-            synchronized (mCache) {
-                if (!mCache.lookup(request)) return false;
-            }
-            if (isSameKey(key, request.buffer)) {
+            if (!mCache.lookup(request)) return false;
+            ByteBuffer blob = ByteBuffer.wrap(request.buffer, 0, request.length);
+            if (isSameKey(path, timeModified, type, key, blob)) {
                 buffer.data = request.buffer;
-                buffer.offset = key.length;
+                buffer.offset = (key == null) ? COMPACT_KEY_SIZE : key.length;
                 buffer.length = request.length - buffer.offset;
                 return true;
             }
@@ -82,54 +99,129 @@ public class ImageCacheService {
         return false;
     }
 
+    /**
+     * Gets the cached image data for the given <code>path</code>,
+     *  <code>timeModified</code> and <code>type</code> without copying it.
+     *
+     * A read-only view of the image data is passed to <code>reader</code>.
+     * The view is only valid during the call, so the reader should decode
+     * it right away rather than keep it.
+     *
+     * @return true if the image data is found and accepted by the reader.
+     */
+    public boolean getImageData(final Path path, final long timeModified,
+            final int type, final BlobReader reader) {
+        if (mCache == null) return false;
+
+        final byte[] key = hasCompactKey(path) ? null : makeKey(path, timeModified, type);
+        try {
+            return mCache.lookup(getCacheKey(path, timeModified, type, key),
+                    new BlobReader() {
+                @Override
+                public boolean read(ByteBuffer blob) throws IOException {
+                    if (!isSameKey(path, timeModified, type, key, blob)) return false;
+                    int keyLength = (key == null) ? COMPACT_KEY_SIZE : key.length;
+                    blob.position(blob.position() + keyLength);
+                    return reader.read(blob.slice());
+                }
+            });
+        } catch (IOException ex) {
+            // ignore.
+        }
+        return false;
+    }
+
     public void putImageData(Path path, long timeModified, int type, byte[] value) {
         if (mCache == null) return;
 
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
-        ByteBuffer buffer = ByteBuffer.allocate(key.length + value.length);
-        buffer.put(key);
-        buffer.put(value);
-        if (mCache == null) {
-            return;
-        }
-        synchronized (mCache) {
-            try {
-                mCache.insert(cacheKey, buffer.array());
-            } catch (IOException ex) {
-                // ignore.
-            }
+        byte[] key = hasCompactKey(path)
+                ? makeCompactKey(path, timeModified, type)
+                : makeKey(path, timeModified, type);
+        long cacheKey = hasCompactKey(path)
+                ? makeCompactCacheKey(path, timeModified, type)
+                : Utils.crc64Long(key);
+        try {
+            mCache.insert(cacheKey, key, value, 0, value.length);
+        } catch (IOException ex) {
+            // ignore.
         }
     }
 
     public void clearImageData(Path path, long timeModified, int type) {
         if (mCache == null) return;
 
-        byte[] key = makeKey(path, timeModified, type);
-        long cacheKey = Utils.crc64Long(key);
-        if (mCache == null) {
-            return;
-        }
-        synchronized (mCache) {
-            try {
-                mCache.clearEntry(cacheKey);
-            } catch (IOException ex) {
-                // ignore.
-            }
+        byte[] key = hasCompactKey(path) ? null : makeKey(path, timeModified, type);
+        try {
+            mCache.clearEntry(getCacheKey(path, timeModified, type, key));
+        } catch (IOException ex) {
+            // ignore.
         }
     }
 
+    private static boolean hasCompactKey(Path path) {
+        return path.getMediaId() >= 0;
+    }
+
+    // Returns the BlobCache key. The string key is null for compact keys.
+    private static long getCacheKey(Path path, long timeModified, int type,
+            byte[] key) {
+        return (key == null)
+                ? makeCompactCacheKey(path, timeModified, type)
+                : Utils.crc64Long(key);
+    }
+
     private static byte[] makeKey(Path path, long timeModified, int type) {
         return GalleryUtils.getBytes(path.toString() + "+" + timeModified + "+" + type);
     }
 
-    private static boolean isSameKey(byte[] key, byte[] buffer) {
+    private static byte[] makeCompactKey(Path path, long timeModified, int type) {
+        byte[] key = new byte[COMPACT_KEY_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(key);
+        buffer.put(CK_MARKER, (byte) 0);
+        buffer.put(CK_TYPE, (byte) type);
+        buffer.putInt(CK_PARENT_ID, path.getParentId());
+        buffer.putLong(CK_MEDIA_ID, path.getMediaId());
+        buffer.putLong(CK_TIME_MODIFIED, timeModified);
+        return key;
+    }
+
+    // The BlobCache uses the key to index its hash table directly, so the
+    // fields are mixed to spread consecutive media ids over the table.
+    private static long makeCompactCacheKey(Path path, long timeModified, int type) {
+        long h = mix(timeModified);
+        h = mix(h ^ (((long) path.getParentId() << 8) | (type & 0xff)));
+        return mix(h ^ path.getMediaId());
+    }
+
+    // The finalizer of SplitMix64.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // Checks the key stored at the current position of the blob. The string
+    // key is null for compact keys.
+    private static boolean isSameKey(Path path, long timeModified, int type,
+            byte[] key, ByteBuffer blob) {
+        if (key != null) return isSameKey(key, blob);
+        if (blob.remaining() < COMPACT_KEY_SIZE) return false;
+        int start = blob.position();
+        return blob.get(start + CK_MARKER) == 0
+                && blob.get(start + CK_TYPE) == (byte) type
+                && blob.getInt(start + CK_PARENT_ID) == path.getParentId()
+                && blob.getLong(start + CK_MEDIA_ID) == path.getMediaId()
+                && blob.getLong(start + CK_TIME_MODIFIED) == timeModified;
+    }
+
+    private static boolean isSameKey(byte[] key, ByteBuffer buffer) {
         int n = key.length;
-        if (buffer.length < n) {
+        if (buffer.remaining() < n) {
             return false;
         }
+        int start = buffer.position();
         for (int i = 0; i < n; ++i) {
-            if (key[i] != buffer[i]) {
+            if (key[i] != buffer.get(start + i)) {
                 return false;
             }
         }
@@ -36,14 +36,26 @@ import com.android.gallery3d.util.MediaSetUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 // LocalAlbumSet lists all media items in one bucket on local storage.
 // The media items need to be all images or all videos, but not both.
 public class LocalAlbum extends MediaSet {
     private static final String TAG = "LocalAlbum";
     private static final String[] COUNT_PROJECTION = { "COUNT(_id)" };
+    private static final String[] ID_PROJECTION = { "_id" };
 
     private static final int INVALID_COUNT = -1;
+
+    // The date taken column in both LocalImage.PROJECTION and
+    // LocalVideo.PROJECTION.
+    private static final int INDEX_DATE_TAKEN = 5;
+    // The number of page boundaries remembered for keyset pagination.
+    private static final int MAX_ANCHORS = 1024;
+    // Pages starting further than this past an anchor use a plain offset.
+    private static final int MAX_ANCHOR_SKIP = 256;
+
     private final String mWhereClause;
     private final String mOrderClause;
     private final Uri mBaseUri;
@@ -58,6 +70,15 @@ public class LocalAlbum extends MediaSet {
     private final Path mItemPath;
     private int mCachedCount = INVALID_COUNT;
 
+    // A page ends with the item at (position - 1); mAnchors maps position to
+    // the sort key {date taken, _id} of that item, or {NULL_DATE, _id} if its
+    // date taken is NULL. A page starting at or a bit after a known position
+    // seeks on the sort key, instead of making the database skip all the
+    // items before it. Cleared together with mCachedCount.
+    private static final long NULL_DATE = Long.MIN_VALUE;
+    private final TreeMap<Integer, long[]> mAnchors = new TreeMap<Integer, long[]>();
+    private final String mDateTakenColumn;
+
     public LocalAlbum(Path path, GalleryApp application, int bucketId,
             boolean isImage, String name) {
         super(path, nextVersionNumber());
@@ -74,6 +95,7 @@ public class LocalAlbum extends MediaSet {
             mBaseUri = Images.Media.EXTERNAL_CONTENT_URI;
             mProjection = LocalImage.PROJECTION;
             mItemPath = LocalImage.ITEM_PATH;
+            mDateTakenColumn = ImageColumns.DATE_TAKEN;
         } else {
             if (mBucketId == -1) {
                 mWhereClause = null;
@@ -85,6 +107,7 @@ public class LocalAlbum extends MediaSet {
             mBaseUri = Video.Media.EXTERNAL_CONTENT_URI;
             mProjection = LocalVideo.PROJECTION;
             mItemPath = LocalVideo.ITEM_PATH;
+            mDateTakenColumn = VideoColumns.DATE_TAKEN;
         }
 
         mNotifier = new ChangeNotifier(this, mBaseUri, application);
@@ -119,28 +142,58 @@ public class LocalAlbum extends MediaSet {
     @Override
     public ArrayList<MediaItem> getMediaItem(int start, int count) {
         DataManager dataManager = mApplication.getDataManager();
-        Uri uri = mBaseUri.buildUpon()
-                .appendQueryParameter("limit", start + "," + count).build();
         ArrayList<MediaItem> list = new ArrayList<MediaItem>();
         GalleryUtils.assertNotInRenderThread();
-        Cursor cursor;
-        if (mBucketId == -1) {
-            cursor = mResolver.query(uri, mProjection, mWhereClause, null,
-                    mOrderClause);
-        } else {
-            cursor = mResolver.query(
-                uri, mProjection, mWhereClause,
-                new String[]{String.valueOf(mBucketId)},
-                mOrderClause);
+
+        // Find the nearest page boundary at or before start.
+        int anchorPos = 0;
+        long[] anchor = null;
+        long version;
+        synchronized (this) {
+            version = mDataVersion;
+            Map.Entry<Integer, long[]> entry = mAnchors.floorEntry(start);
+            if (entry != null && start - entry.getKey() <= MAX_ANCHOR_SKIP) {
+                anchorPos = entry.getKey();
+                anchor = entry.getValue();
+            }
         }
+
+        String where = mWhereClause;
+        ArrayList<String> args = new ArrayList<String>(4);
+        if (mBucketId != -1) args.add(String.valueOf(mBucketId));
+        if (anchor != null) {
+            // Rows sorting after the anchor in "date taken DESC, _id DESC"
+            // order. NULL dates sort after all the others.
+            String seek;
+            if (anchor[0] == NULL_DATE) {
+                seek = mDateTakenColumn + " IS NULL AND _id < ?";
+            } else {
+                seek = "(" + mDateTakenColumn + " < ? OR (" + mDateTakenColumn
+                        + " = ? AND _id < ?) OR " + mDateTakenColumn + " IS NULL)";
+                args.add(String.valueOf(anchor[0]));
+                args.add(String.valueOf(anchor[0]));
+            }
+            args.add(String.valueOf(anchor[1]));
+            where = (where == null) ? seek : where + " AND " + seek;
+        }
+        int skip = start - anchorPos;
+        Uri uri = mBaseUri.buildUpon()
+                .appendQueryParameter("limit", skip + "," + count).build();
+        Cursor cursor = mResolver.query(uri, mProjection, where,
+                args.isEmpty() ? null : args.toArray(new String[args.size()]),
+                mOrderClause);
         if (cursor == null) {
             Log.w(TAG, "query fail: " + uri);
             return list;
         }
 
+        long dateTaken = 0;
+        int id = 0;
         try {
             while (cursor.moveToNext()) {
-                int id = cursor.getInt(0);  // _id must be in the first column
+                id = cursor.getInt(0);  // _id must be in the first column
+                dateTaken = cursor.isNull(INDEX_DATE_TAKEN)
+                        ? NULL_DATE : cursor.getLong(INDEX_DATE_TAKEN);
                 Path childPath = mItemPath.getChild(id);
                 MediaItem item = loadOrUpdateItem(childPath, cursor,
                         dataManager, mApplication, mIsImage);
@@ -149,9 +202,50 @@ public class LocalAlbum extends MediaSet {
         } finally {
             cursor.close();
         }
+
+        // Remember where this page ends, unless the content changed meanwhile.
+        if (!list.isEmpty()) {
+            synchronized (this) {
+                if (version == mDataVersion) {
+                    mAnchors.put(start + list.size(), new long[] {dateTaken, id});
+                    if (mAnchors.size() > MAX_ANCHORS) {
+                        // Drop the boundary furthest from this page.
+                        if (start - mAnchors.firstKey() > mAnchors.lastKey() - start) {
+                            mAnchors.pollFirstEntry();
+                        } else {
+                            mAnchors.pollLastEntry();
+                        }
+                    }
+                }
+            }
+        }
         return list;
     }
 
+    // Lists the paths with a query of the ids only, in one pass, so the
+    // list is not torn by changes made between two pages.
+    @Override
+    public ArrayList<Path> getMediaItemPaths() {
+        GalleryUtils.assertNotInRenderThread();
+        ArrayList<Path> paths = new ArrayList<Path>();
+        Cursor cursor = mResolver.query(mBaseUri, ID_PROJECTION, mWhereClause,
+                mBucketId == -1 ? null : new String[] {String.valueOf(mBucketId)},
+                mOrderClause);
+        if (cursor == null) {
+            Log.w(TAG, "query fail: " + mBaseUri);
+            return paths;
+        }
+        try {
+            paths.ensureCapacity(cursor.getCount());
+            while (cursor.moveToNext()) {
+                paths.add(mItemPath.getChild(cursor.getInt(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return paths;
+    }
+
     private static MediaItem loadOrUpdateItem(Path path, Cursor cursor,
             DataManager dataManager, GalleryApp app, boolean isImage) {
         synchronized (DataManager.LOCK) {
@@ -271,8 +365,11 @@ public class LocalAlbum extends MediaSet {
     @Override
     public long reload() {
         if (mNotifier.isDirty()) {
-            mDataVersion = nextVersionNumber();
-            mCachedCount = INVALID_COUNT;
+            synchronized (this) {
+                mDataVersion = nextVersionNumber();
+                mCachedCount = INVALID_COUNT;
+                mAnchors.clear();
+            }
         }
         return mDataVersion;
     }
@@ -21,22 +21,44 @@ import android.provider.MediaStore;
 
 import com.android.gallery3d.common.ApiHelper;
 
+import com.android.gallery3d.common.Utils;
+
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.NoSuchElementException;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 // MergeAlbum merges items from two or more MediaSets. It uses a Comparator to
 // determine the order of items. The items are assumed to be sorted in the input
 // media sets (with the same order that the Comparator uses).
 //
 // This only handles MediaItems, not SubMediaSets.
+//
+// The sources are merged with a binary heap, so each output item costs
+// O(log k) comparisons for k sources. Every PAGE_SIZE output items a mark
+// records the position reached in each source, so a request for a deep
+// position starts from the nearest mark instead of the beginning. The marks
+// are kept in flat primitive arrays:
+//
+// mMarkPositions[m * k + i]: the position in source i at global position
+//     m * PAGE_SIZE.
+// mMarkIds[(m * k + i) * 2]: the id (see getItemId) of the item before that
+//     position in source i, or NO_ITEM.
+// mMarkIds[(m * k + i) * 2 + 1]: the id of the item at that position, or
+//     NO_ITEM.
+//
+// The ids let the marks survive a content change: a mark is still valid if
+// no item was inserted or deleted at or before its position in any of the
+// sources that changed, which is the case if the items around its position
+// in those sources are the same. A reload can both insert and delete items in
+// a source, so a valid mark may follow an invalid one; the marks past the
+// verified ones are checked in order when needed, and the first invalid one
+// drops it and all the marks after it.
 public class LocalMergeAlbum extends MediaSet implements ContentListener {
     @SuppressWarnings("unused")
     private static final String TAG = "LocalMergeAlbum";
     private static final int PAGE_SIZE = 1024;
+    private static final long NO_ITEM = Long.MIN_VALUE;
 
     private final Comparator<MediaItem> mComparator;
     private final MediaSet[] mSources;
@@ -45,8 +67,15 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
     private int mSupportedOperation;
     private int mBucketId;
 
-    // mIndex maps global position to the position of each underlying media sets.
-    private TreeMap<Integer, int[]> mIndex = new TreeMap<Integer, int[]>();
+    // The mark index, see above. Mark 0 is always valid.
+    private int[] mMarkPositions;
+    private long[] mMarkIds;
+    private int mMarkCount;
+    // Marks below this one are known to be valid.
+    private int mVerifiedMarkCount;
+    // The sources which have changed since the unverified marks were made.
+    private final boolean[] mChangedSources;
+    private final long[] mSourceVersions;
 
     public LocalMergeAlbum(
             Path path, Comparator<MediaItem> comparator, MediaSet[] sources, int bucketId) {
@@ -54,6 +83,10 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
         mComparator = comparator;
         mSources = sources;
         mBucketId = bucketId;
+        mChangedSources = new boolean[sources.length];
+        mSourceVersions = new long[sources.length];
+        Arrays.fill(mSourceVersions, INVALID_DATA_VERSION);
+        resetIndex();
         for (MediaSet set : mSources) {
             set.addContentListener(this);
         }
@@ -78,16 +111,84 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
             supported &= mSources[i].getSupportedOperations();
         }
         mSupportedOperation = supported;
-        mIndex.clear();
-        mIndex.put(0, new int[mSources.length]);
     }
 
     private void invalidateCache() {
         for (int i = 0, n = mSources.length; i < n; i++) {
             mFetcher[i].invalidate();
         }
-        mIndex.clear();
-        mIndex.put(0, new int[mSources.length]);
+    }
+
+    private void resetIndex() {
+        int size = mSources.length;
+        mMarkPositions = new int[Math.max(size, 1) * 16];
+        mMarkIds = new long[mMarkPositions.length * 2];
+        Arrays.fill(mMarkIds, 0, size * 2, NO_ITEM);
+        mMarkCount = 1;
+        mVerifiedMarkCount = 1;
+        Arrays.fill(mChangedSources, false);
+    }
+
+    // Records the positions reached in the sources as mark m. This is only
+    // called while merging forward from a valid mark, for the first mark
+    // not verified yet, so m is at most one past the last mark and every
+    // mark below m is valid.
+    private void setMark(int m, int[] subPos, MediaItem[] slot) {
+        int size = mSources.length;
+        int base = m * size;
+        if (base + size > mMarkPositions.length) {
+            mMarkPositions = Arrays.copyOf(mMarkPositions, mMarkPositions.length * 2);
+            mMarkIds = Arrays.copyOf(mMarkIds, mMarkPositions.length * 2);
+        }
+        for (int i = 0; i < size; i++) {
+            mMarkPositions[base + i] = subPos[i];
+            mMarkIds[(base + i) * 2] = (subPos[i] == 0)
+                    ? NO_ITEM : getItemId(mFetcher[i].getItem(subPos[i] - 1));
+            mMarkIds[(base + i) * 2 + 1] = getItemId(slot[i]);
+        }
+        if (m == mMarkCount) ++mMarkCount;
+        if (m == mVerifiedMarkCount) ++mVerifiedMarkCount;
+        if (mVerifiedMarkCount == mMarkCount) Arrays.fill(mChangedSources, false);
+    }
+
+    private static long getItemId(MediaItem item) {
+        if (item == null) return NO_ITEM;
+        Path path = item.getPath();
+        long id = path.getMediaId();
+        return id >= 0 ? id : Utils.crc64Long(path.toString());
+    }
+
+    // Returns true if mark m still matches the changed sources.
+    private boolean isMarkValid(int m) {
+        int size = mSources.length;
+        int base = m * size;
+        for (int i = 0; i < size; i++) {
+            if (!mChangedSources[i]) continue;
+            int pos = mMarkPositions[base + i];
+            long before = (pos == 0)
+                    ? NO_ITEM : getItemId(mFetcher[i].getItem(pos - 1));
+            if (before != mMarkIds[(base + i) * 2]) return false;
+            if (getItemId(mFetcher[i].getItem(pos))
+                    != mMarkIds[(base + i) * 2 + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the last valid mark at or before the given one. The marks
+    // past the verified ones are checked in order, and the first invalid one
+    // is dropped with all the marks after it.
+    private int findValidMark(int m) {
+        while (mVerifiedMarkCount <= m) {
+            if (!isMarkValid(mVerifiedMarkCount)) {
+                mMarkCount = mVerifiedMarkCount;
+                break;
+            }
+            ++mVerifiedMarkCount;
+        }
+        if (mVerifiedMarkCount == mMarkCount) Arrays.fill(mChangedSources, false);
+        return Math.min(m, mVerifiedMarkCount - 1);
     }
 
     @Override
@@ -118,51 +219,91 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
 
     @Override
     public ArrayList<MediaItem> getMediaItem(int start, int count) {
-
-        // First find the nearest mark position <= start.
-        SortedMap<Integer, int[]> head = mIndex.headMap(start + 1);
-        int markPos = head.lastKey();
-        int[] subPos = head.get(markPos).clone();
-        MediaItem[] slot = new MediaItem[mSources.length];
-
         int size = mSources.length;
 
-        // fill all slots
+        // First find the nearest valid mark position <= start.
+        int mark = findValidMark(Math.min(start / PAGE_SIZE, mMarkCount - 1));
+        int markPos = mark * PAGE_SIZE;
+        int[] subPos = Arrays.copyOfRange(
+                mMarkPositions, mark * size, mark * size + size);
+        MediaItem[] slot = new MediaItem[size];
+
+        // fill all slots, and put the non-empty ones in the heap
+        int[] heap = new int[size];
+        int heapSize = 0;
         for (int i = 0; i < size; i++) {
             slot[i] = mFetcher[i].getItem(subPos[i]);
+            if (slot[i] != null) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, slot);
+            }
         }
 
         ArrayList<MediaItem> result = new ArrayList<MediaItem>();
 
         for (int i = markPos; i < start + count; i++) {
-            int k = -1;  // k points to the best slot up to now.
-            for (int j = 0; j < size; j++) {
-                if (slot[j] != null) {
-                    if (k == -1 || mComparator.compare(slot[j], slot[k]) < 0) {
-                        k = j;
-                    }
-                }
-            }
-
             // If we don't have anything, all streams are exhausted.
-            if (k == -1) break;
+            if (heapSize == 0) break;
 
             // Pick the best slot and refill it.
+            int k = heap[0];
             subPos[k]++;
             if (i >= start) {
                 result.add(slot[k]);
             }
             slot[k] = mFetcher[k].getItem(subPos[k]);
+            if (slot[k] == null) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, slot);
 
             // Periodically leave a mark in the index, so we can come back later.
+            // Marks we pass which are not verified yet are rewritten, so
+            // they don't need to be checked again.
             if ((i + 1) % PAGE_SIZE == 0) {
-                mIndex.put(i + 1, subPos.clone());
+                int m = (i + 1) / PAGE_SIZE;
+                if (m >= mVerifiedMarkCount) setMark(m, subPos, slot);
             }
         }
 
         return result;
     }
 
+    // Returns true if the item in slot a comes before the one in slot b. Ties
+    // go to the source listed first.
+    private boolean isBefore(int a, int b, MediaItem[] slot) {
+        int c = mComparator.compare(slot[a], slot[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    private void siftUp(int[] heap, int index, MediaItem[] slot) {
+        int value = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isBefore(value, heap[parent], slot)) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    private void siftDown(int[] heap, int heapSize, MediaItem[] slot) {
+        if (heapSize == 0) return;
+        int index = 0;
+        int value = heap[0];
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child], slot)) {
+                ++child;
+            }
+            if (!isBefore(heap[child], value, slot)) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+
     @Override
     public int getTotalMediaItemCount() {
         int count = 0;
@@ -176,7 +317,15 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
     public long reload() {
         boolean changed = false;
         for (int i = 0, n = mSources.length; i < n; ++i) {
-            if (mSources[i].reload() > mDataVersion) changed = true;
+            long version = mSources[i].reload();
+            if (version > mDataVersion) changed = true;
+            if (version != mSourceVersions[i]) {
+                // The marks past the verified ones are checked against this
+                // source before they are used again.
+                mSourceVersions[i] = version;
+                mChangedSources[i] = true;
+                mVerifiedMarkCount = 1;
+            }
         }
         if (changed) {
             mDataVersion = nextVersionNumber();
@@ -17,18 +17,26 @@
 package com.android.gallery3d.data;
 
 import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.UriMatcher;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.MediaStore;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Images.ImageColumns;
+import android.provider.MediaStore.Video;
 
 import com.android.gallery3d.app.GalleryActivity;
 import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.data.MediaSet.ItemConsumer;
+import com.android.gallery3d.filtershow.tools.SaveImage;
+import com.android.gallery3d.util.GalleryUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 class LocalSource extends MediaSource {
 
@@ -51,6 +59,9 @@ class LocalSource extends MediaSource {
 
     private static final String TAG = "LocalSource";
 
+    // Keeps the "IN (...)" arguments well below the SQLite limit of 999.
+    private static final int BULK_BATCH_SIZE = 500;
+
     private ContentProviderClient mClient;
 
     public LocalSource(GalleryApp context) {
@@ -243,6 +254,65 @@ class LocalSource extends MediaSource {
         }
     }
 
+    // Deletes the local images and videos with a few "_id IN (...)" deletes
+    // instead of one delete per item, so the media provider sends one change
+    // notification per batch. Albums are deleted one by one.
+    @Override
+    public void deleteAll(ArrayList<Path> paths) {
+        GalleryUtils.assertNotInRenderThread();
+        ArrayList<String> imageIds = new ArrayList<String>();
+        ArrayList<String> videoIds = new ArrayList<String>();
+        ArrayList<Path> others = new ArrayList<Path>();
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            Path path = paths.get(i);
+            Path parent = path.getParent();
+            if (parent == LocalImage.ITEM_PATH) {
+                imageIds.add(path.getSuffix());
+            } else if (parent == LocalVideo.ITEM_PATH) {
+                videoIds.add(path.getSuffix());
+            } else {
+                others.add(path);
+            }
+        }
+        ContentResolver resolver = mApplication.getContentResolver();
+        for (int i = 0, n = imageIds.size(); i < n; i += BULK_BATCH_SIZE) {
+            List<String> ids = imageIds.subList(i, Math.min(n, i + BULK_BATCH_SIZE));
+            String[] args = ids.toArray(new String[ids.size()]);
+            String where = getIdSelection(args.length);
+            deleteAuxFiles(resolver, where, args);
+            resolver.delete(Images.Media.EXTERNAL_CONTENT_URI, where, args);
+        }
+        for (int i = 0, n = videoIds.size(); i < n; i += BULK_BATCH_SIZE) {
+            List<String> ids = videoIds.subList(i, Math.min(n, i + BULK_BATCH_SIZE));
+            String[] args = ids.toArray(new String[ids.size()]);
+            resolver.delete(Video.Media.EXTERNAL_CONTENT_URI, getIdSelection(args.length), args);
+        }
+        super.deleteAll(others);
+    }
+
+    private static void deleteAuxFiles(ContentResolver resolver, String where, String[] args) {
+        Cursor cursor = resolver.query(Images.Media.EXTERNAL_CONTENT_URI,
+                new String[] {ImageColumns.DATA}, where, args, null);
+        if (cursor == null) return;
+        try {
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(0);
+                if (path != null) SaveImage.deleteAuxFiles(path);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns "_id IN (?,?,...)" with count arguments.
+    private static String getIdSelection(int count) {
+        StringBuilder builder = new StringBuilder("_id IN (");
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.append(')').toString();
+    }
+
     // This is a comparator which compares the suffix number in two Paths.
     private static class IdComparator implements Comparator<PathId> {
         @Override
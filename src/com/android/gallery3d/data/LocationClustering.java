@@ -26,6 +26,7 @@ import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.ReverseGeocoder;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 class LocationClustering extends Clustering {
     @SuppressWarnings("unused")
@@ -37,12 +38,23 @@ class LocationClustering extends Clustering {
 
     // If the total distance change is less than this ratio, stop iterating.
     private static final float STOP_CHANGE_RATIO = 0.01f;
+
+    // Re-cluster everything if more than 1/4 of the items changed.
+    private static final int MAX_CHANGED_ITEMS_FRACTION = 4;
+    // A new item further than this from every group, and further than twice
+    // the radius of the nearest one, is at a new place and needs a full run.
+    private static final double NEW_PLACE_MIN_DISTANCE_IN_METERS = 1000;
+
     private Context mContext;
     private ArrayList<ArrayList<SmallItem>> mClusters;
     private ArrayList<String> mNames;
     private String mNoLocationString;
     private Handler mHandler;
 
+    // The state kept between runs for incremental clustering.
+    private HashMap<Path, SmallItem> mItemMap;
+    private ArrayList<Group> mGroups;
+
     private static class Point {
         public Point(double lat, double lng) {
             latRad = Math.toRadians(lat);
@@ -55,6 +67,49 @@ class LocationClustering extends Clustering {
     private static class SmallItem {
         Path path;
         double lat, lng;
+        Group group;
+    }
+
+    // A group of items with lat-long, as found by kMeans and then updated
+    // with the inserted and deleted items.
+    private static class Group {
+        final ArrayList<SmallItem> items = new ArrayList<SmallItem>();
+        int count;
+        double latRadSum, lngRadSum;
+        final Point center = new Point();
+        // The largest distance from an item to the center, in meters.
+        double radius;
+        String name;
+        // True if the items changed since the name was generated.
+        boolean dirty = true;
+
+        void add(SmallItem item, Point p) {
+            item.group = this;
+            count++;
+            latRadSum += p.latRad;
+            lngRadSum += p.lngRad;
+            dirty = true;
+        }
+
+        void remove(SmallItem item) {
+            Point p = new Point(item.lat, item.lng);
+            item.group = null;
+            count--;
+            latRadSum -= p.latRad;
+            lngRadSum -= p.lngRad;
+            dirty = true;
+        }
+
+        void updateCenter() {
+            if (count == 0) return;
+            center.latRad = latRadSum / count;
+            center.lngRad = lngRadSum / count;
+        }
+
+        double distanceTo(Point p) {
+            return GalleryUtils.fastDistanceMeters(
+                    p.latRad, p.lngRad, center.latRad, center.lngRad);
+        }
     }
 
     public LocationClustering(Context context) {
@@ -63,70 +118,98 @@ class LocationClustering extends Clustering {
         mHandler = new Handler(Looper.getMainLooper());
     }
 
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    // The first run groups the items with lat-long by kMeans. Later runs on
+    // the same base set remove the deleted items from their groups and add
+    // the inserted ones to the nearest group, so only the names of the
+    // groups which changed are generated again.
     @Override
     public void run(MediaSet baseSet) {
         final int total = baseSet.getTotalMediaItemCount();
         final SmallItem[] buf = new SmallItem[total];
-        // Separate items to two sets: with or without lat-long.
+        final HashMap<Path, SmallItem> oldMap = mItemMap;
+        final HashMap<Path, SmallItem> itemMap = new HashMap<Path, SmallItem>();
+        final ArrayList<SmallItem> inserted = new ArrayList<SmallItem>();
         final double[] latLong = new double[2];
         baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
             @Override
             public void consume(int index, MediaItem item) {
                 if (index < 0 || index >= total) return;
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
+                Path path = item.getPath();
                 item.getLatLong(latLong);
-                s.lat = latLong[0];
-                s.lng = latLong[1];
+                SmallItem s = (oldMap == null) ? null : oldMap.get(path);
+                if (s == null || s.lat != latLong[0] || s.lng != latLong[1]) {
+                    s = new SmallItem();
+                    s.path = path;
+                    s.lat = latLong[0];
+                    s.lng = latLong[1];
+                    inserted.add(s);
+                }
                 buf[index] = s;
+                itemMap.put(path, s);
             }
         });
 
-        final ArrayList<SmallItem> withLatLong = new ArrayList<SmallItem>();
+        int deleted = (oldMap == null)
+                ? 0 : oldMap.size() - (itemMap.size() - inserted.size());
+        if (mGroups == null
+                || (inserted.size() + deleted) * MAX_CHANGED_ITEMS_FRACTION > total
+                || !updateGroups(oldMap, itemMap, inserted)) {
+            buildGroups(buf);
+        }
+        mItemMap = itemMap;
+
+        // Separate items to two sets: with or without lat-long, keeping the
+        // order of the base set.
         final ArrayList<SmallItem> withoutLatLong = new ArrayList<SmallItem>();
-        final ArrayList<Point> points = new ArrayList<Point>();
+        for (Group group : mGroups) {
+            group.items.clear();
+        }
         for (int i = 0; i < total; i++) {
             SmallItem s = buf[i];
             if (s == null) continue;
-            if (GalleryUtils.isValidLocation(s.lat, s.lng)) {
-                withLatLong.add(s);
-                points.add(new Point(s.lat, s.lng));
+            if (s.group != null) {
+                s.group.items.add(s);
             } else {
                 withoutLatLong.add(s);
             }
         }
+        for (int i = mGroups.size() - 1; i >= 0; i--) {
+            if (mGroups.get(i).items.isEmpty()) mGroups.remove(i);
+        }
 
-        ArrayList<ArrayList<SmallItem>> clusters = new ArrayList<ArrayList<SmallItem>>();
-
-        int m = withLatLong.size();
-        if (m > 0) {
-            // cluster the items with lat-long
-            Point[] pointsArray = new Point[m];
-            pointsArray = points.toArray(pointsArray);
-            int[] bestK = new int[1];
-            int[] index = kMeans(pointsArray, bestK);
-
-            for (int i = 0; i < bestK[0]; i++) {
-                clusters.add(new ArrayList<SmallItem>());
+        // Name all the groups which need it in one batch, so the geocoder
+        // resolves their corners together.
+        ArrayList<Group> unnamed = new ArrayList<Group>();
+        ArrayList<ReverseGeocoder.SetLatLong> sets = new ArrayList<ReverseGeocoder.SetLatLong>();
+        for (Group group : mGroups) {
+            if (group.dirty || group.name == null) {
+                unnamed.add(group);
+                sets.add(getSetLatLong(group.items));
             }
-
-            for (int i = 0; i < m; i++) {
-                clusters.get(index[i]).add(withLatLong.get(i));
+        }
+        if (!unnamed.isEmpty()) {
+            String[] names = new ReverseGeocoder(mContext).computeAddresses(sets);
+            for (int i = 0; i < names.length; i++) {
+                unnamed.get(i).name = names[i];
+                unnamed.get(i).dirty = false;
             }
         }
 
-        ReverseGeocoder geocoder = new ReverseGeocoder(mContext);
         mNames = new ArrayList<String>();
         boolean hasUnresolvedAddress = false;
         mClusters = new ArrayList<ArrayList<SmallItem>>();
-        for (ArrayList<SmallItem> cluster : clusters) {
-            String name = generateName(cluster, geocoder);
-            if (name != null) {
-                mNames.add(name);
-                mClusters.add(cluster);
+        for (Group group : mGroups) {
+            if (group.name != null) {
+                mNames.add(group.name);
+                mClusters.add(new ArrayList<SmallItem>(group.items));
             } else {
-                // move cluster-i to no location cluster
-                withoutLatLong.addAll(cluster);
+                // move the group to no location cluster
+                withoutLatLong.addAll(group.items);
                 hasUnresolvedAddress = true;
             }
         }
@@ -147,8 +230,84 @@ class LocationClustering extends Clustering {
         }
     }
 
-    private static String generateName(ArrayList<SmallItem> items,
-            ReverseGeocoder geocoder) {
+    // Groups all the items with lat-long from scratch.
+    private void buildGroups(SmallItem[] buf) {
+        ArrayList<SmallItem> withLatLong = new ArrayList<SmallItem>();
+        ArrayList<Point> points = new ArrayList<Point>();
+        for (SmallItem s : buf) {
+            if (s == null) continue;
+            s.group = null;
+            if (GalleryUtils.isValidLocation(s.lat, s.lng)) {
+                withLatLong.add(s);
+                points.add(new Point(s.lat, s.lng));
+            }
+        }
+
+        mGroups = new ArrayList<Group>();
+        int m = withLatLong.size();
+        if (m == 0) return;
+
+        // cluster the items with lat-long
+        Point[] pointsArray = new Point[m];
+        pointsArray = points.toArray(pointsArray);
+        int[] bestK = new int[1];
+        int[] index = kMeans(pointsArray, bestK);
+
+        for (int i = 0; i < bestK[0]; i++) {
+            mGroups.add(new Group());
+        }
+        for (int i = 0; i < m; i++) {
+            mGroups.get(index[i]).add(withLatLong.get(i), pointsArray[i]);
+        }
+        for (Group group : mGroups) {
+            group.updateCenter();
+        }
+        for (int i = 0; i < m; i++) {
+            Group group = mGroups.get(index[i]);
+            group.radius = Math.max(group.radius, group.distanceTo(pointsArray[i]));
+        }
+    }
+
+    // Applies the inserted and deleted items to the groups. Returns false if
+    // the changes need a full run.
+    private boolean updateGroups(HashMap<Path, SmallItem> oldMap,
+            HashMap<Path, SmallItem> itemMap, ArrayList<SmallItem> inserted) {
+        for (SmallItem s : oldMap.values()) {
+            if (s.group != null && itemMap.get(s.path) != s) {
+                s.group.remove(s);
+            }
+        }
+        for (Group group : mGroups) {
+            if (group.dirty) group.updateCenter();
+        }
+
+        for (SmallItem s : inserted) {
+            if (!GalleryUtils.isValidLocation(s.lat, s.lng)) continue;
+            Point p = new Point(s.lat, s.lng);
+            Group nearest = null;
+            double nearestDistance = Double.MAX_VALUE;
+            for (Group group : mGroups) {
+                if (group.count == 0) continue;
+                double distance = group.distanceTo(p);
+                if (distance < nearestDistance) {
+                    nearest = group;
+                    nearestDistance = distance;
+                }
+            }
+            if (nearest == null || nearestDistance > Math.max(
+                    nearest.radius * 2, NEW_PLACE_MIN_DISTANCE_IN_METERS)) {
+                return false;
+            }
+            nearest.add(s, p);
+            nearest.radius = Math.max(nearest.radius, nearestDistance);
+        }
+        for (Group group : mGroups) {
+            if (group.dirty) group.updateCenter();
+        }
+        return true;
+    }
+
+    private static ReverseGeocoder.SetLatLong getSetLatLong(ArrayList<SmallItem> items) {
         ReverseGeocoder.SetLatLong set = new ReverseGeocoder.SetLatLong();
 
         int n = items.size();
@@ -175,7 +334,7 @@ class LocationClustering extends Clustering {
             }
         }
 
-        return geocoder.computeAddress(set);
+        return set;
     }
 
     @Override
@@ -233,6 +233,22 @@ public abstract class MediaSet extends MediaObject {
         void consume(int index, MediaItem item);
     }
 
+    // Returns the paths of all media items in this media set, in the order
+    // of getMediaItem(). The default implementation uses getMediaItem().
+    // Subclasses may override this and list the paths without loading the
+    // items.
+    public ArrayList<Path> getMediaItemPaths() {
+        int total = getMediaItemCount();
+        ArrayList<Path> paths = new ArrayList<Path>(total);
+        for (int start = 0; start < total; start += MEDIAITEM_BATCH_FETCH_COUNT) {
+            int count = Math.min(MEDIAITEM_BATCH_FETCH_COUNT, total - start);
+            for (MediaItem item : getMediaItem(start, count)) {
+                paths.add(item.getPath());
+            }
+        }
+        return paths;
+    }
+
     // The default implementation uses getMediaItem() for enumerateMediaItems().
     // Subclasses may override this and use more efficient implementations.
     // Returns the number of items enumerated.
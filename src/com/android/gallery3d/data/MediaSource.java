@@ -67,6 +67,34 @@ public abstract class MediaSource {
         public int id;
     }
 
+    // Deletes a list of media objects (all belong to this MediaSource).
+    //
+    // This default implementation deletes each object. Subclasses may
+    // override this and provide more efficient implementation (like
+    // batching the database operations).
+    public void deleteAll(ArrayList<Path> paths) {
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            MediaObject obj = getObject(paths.get(i));
+            if (obj != null) obj.delete();
+        }
+    }
+
+    // Returns the media object of a Path that belongs to this MediaSource,
+    // creating it if needed, or null if it cannot be created.
+    protected MediaObject getObject(Path path) {
+        synchronized (DataManager.LOCK) {
+            MediaObject obj = path.getObject();
+            if (obj == null) {
+                try {
+                    obj = createMediaObject(path);
+                } catch (Throwable th) {
+                    Log.w(TAG, "cannot create media object: " + path, th);
+                }
+            }
+            return obj;
+        }
+    }
+
     // Maps a list of Paths (all belong to this MediaSource) to MediaItems,
     // and invoke consumer.consume() for each MediaItem with the given id.
     //
@@ -77,17 +105,7 @@ public abstract class MediaSource {
         int n = list.size();
         for (int i = 0; i < n; i++) {
             PathId pid = list.get(i);
-            MediaObject obj;
-            synchronized (DataManager.LOCK) {
-                obj = pid.path.getObject();
-                if (obj == null) {
-                    try {
-                        obj = createMediaObject(pid.path);
-                    } catch (Throwable th) {
-                        Log.w(TAG, "cannot create media object: " + pid.path, th);
-                    }
-                }
-            }
+            MediaObject obj = getObject(pid.path);
             if (obj != null) {
                 consumer.consume(pid.id, (MediaItem) obj);
             }
@@ -26,10 +26,15 @@ public class Path {
     private static final String TAG = "Path";
     private static Path sRoot = new Path(null, "ROOT");
 
+    private static final long ID_UNKNOWN = Long.MIN_VALUE;
+
     private final Path mParent;
     private final String mSegment;
     private WeakReference<MediaObject> mObject;
     private IdentityCache<String, Path> mChildren;
+    // Lazily computed by getMediaId() and getParentId().
+    private volatile long mMediaId = ID_UNKNOWN;
+    private volatile long mId = ID_UNKNOWN;
 
     private Path(Path parent, String segment) {
         mParent = parent;
@@ -203,6 +208,48 @@ public class Path {
         return mSegment;
     }
 
+    // Returns the last segment as a number, e.g. 123 for
+    // "/local/image/item/123", or -1 if it is not a non-negative number.
+    // The value is cached, so this does not allocate after the first call.
+    public long getMediaId() {
+        long id = mMediaId;
+        if (id == ID_UNKNOWN) {
+            id = parseMediaId(mSegment);
+            mMediaId = id;
+        }
+        return id;
+    }
+
+    // Returns a hash of the parent path, e.g. of "/local/image/item" for
+    // "/local/image/item/123". Together with getMediaId() it identifies the
+    // path without building its string form. The value is cached in the
+    // parent, so this does not allocate after the first call.
+    public int getParentId() {
+        Path parent = getParent();
+        if (parent == null) return 0;
+        long id = parent.mId;
+        if (id == ID_UNKNOWN) {
+            id = (int) Utils.crc64Long(parent.toString());
+            parent.mId = id;
+        }
+        return (int) id;
+    }
+
+    private static long parseMediaId(String segment) {
+        int n = segment.length();
+        // Longer numbers may overflow a long.
+        if (n == 0 || n > 18) return -1;
+        // Keep "0123" distinct from "123".
+        if (n > 1 && segment.charAt(0) == '0') return -1;
+        long id = 0;
+        for (int i = 0; i < n; i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
     // Below are for testing/debugging only
     static void clearAll() {
         synchronized (Path.class) {
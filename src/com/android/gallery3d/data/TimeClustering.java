@@ -26,6 +26,8 @@ import com.android.gallery3d.util.GalleryUtils;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 public class TimeClustering extends Clustering {
     @SuppressWarnings("unused")
@@ -67,11 +69,39 @@ public class TimeClustering extends Clustering {
     // cluster.
     private static final int PARTITION_CLUSTER_SPLIT_TIME_FACTOR = 2;
 
+    // Re-cluster everything if more than 1/4 of the items changed, or if the
+    // cluster split time drifted more than 1/8 from the one the clusters were
+    // made with.
+    private static final int MAX_CHANGED_ITEMS_FRACTION = 4;
+    private static final int MAX_SPLIT_TIME_DRIFT_FRACTION = 8;
+
     private Context mContext;
     private ArrayList<Cluster> mClusters;
     private String[] mNames;
     private Cluster mCurrCluster;
 
+    // The state kept between runs for incremental clustering: the items
+    // sorted by sDateComparator, the same items by path, and for every item
+    // which started a new current cluster, the state of the clustering right
+    // after it did (see RunStart).
+    private ArrayList<SmallItem> mItems;
+    private HashMap<Path, SmallItem> mItemMap;
+    private IdentityHashMap<SmallItem, RunStart> mRunStarts =
+            new IdentityHashMap<SmallItem, RunStart>();
+
+    // The clustering state right after an item started a new current
+    // cluster. All the clusters before the last one are final at that point,
+    // and the rest of the run only depends on this state and the items
+    // after. So a run can restart from here, or stop here if it reaches the
+    // same state as the previous run.
+    private static class RunStart {
+        // The first item and the size of the last cluster, or null and 0.
+        SmallItem lastFirstItem;
+        int lastSize;
+        // mGeographicallySeparatedFromPrevCluster of the current cluster.
+        boolean geographicallySeparated;
+    }
+
     private long mClusterSplitTime =
             (MIN_CLUSTER_SPLIT_TIME_IN_MS + MAX_CLUSTER_SPLIT_TIME_IN_MS) / 2;
     private long mLargeClusterSplitTime =
@@ -96,27 +126,225 @@ public class TimeClustering extends Clustering {
         mCurrCluster = new Cluster();
     }
 
+    // A TimeClustering can be run again on the same base set and only
+    // re-clusters around the changed items.
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    // The first run clusters all items. Later runs on the same base set only
+    // apply the inserted and deleted items: they restart the clustering from
+    // the last RunStart before the first change, and splice in the clusters
+    // of the previous run as soon as the clustering state matches it again
+    // after the last change.
     @Override
     public void run(MediaSet baseSet) {
         final double[] latLng = new double[2];
-
+        final HashMap<Path, SmallItem> oldMap = mItemMap;
+        final HashMap<Path, SmallItem> itemMap = new HashMap<Path, SmallItem>();
         final ArrayList<SmallItem> items = new ArrayList<>();
+        final ArrayList<SmallItem> inserted = new ArrayList<>();
         baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
             @Override
             public void consume(int index, MediaItem item) {
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
-                s.mediaType = item.getMediaType();
-                s.dateInMs = item.getDateInMs();
+                Path path = item.getPath();
+                if (itemMap.containsKey(path)) return;
+                long dateInMs = item.getDateInMs();
+                int mediaType = item.getMediaType();
                 item.getLatLong(latLng);
-                s.lat = latLng[0];
-                s.lng = latLng[1];
+                SmallItem s = (oldMap == null) ? null : oldMap.get(path);
+                if (s == null || s.dateInMs != dateInMs || s.mediaType != mediaType
+                        || s.lat != latLng[0] || s.lng != latLng[1]) {
+                    s = new SmallItem();
+                    s.path = path;
+                    s.mediaType = mediaType;
+                    s.dateInMs = dateInMs;
+                    s.lat = latLng[0];
+                    s.lng = latLng[1];
+                    inserted.add(s);
+                }
+                itemMap.put(path, s);
                 items.add(s);
             }
         });
+        mItemMap = itemMap;
+
+        int n = items.size();
+        int deleted = (mItems == null) ? 0 : mItems.size() - (n - inserted.size());
+        if (mItems == null || (inserted.size() + deleted) * MAX_CHANGED_ITEMS_FRACTION > n
+                || !runIncremental(inserted)) {
+            Collections.sort(items, sDateComparator);
+            mItems = items;
+            runFull();
+        }
+
+        int m = mClusters.size();
+        mNames = new String[m];
+        for (int i = 0; i < m; i++) {
+            mNames[i] = mClusters.get(i).getCaption(mContext);
+        }
+    }
+
+    private void runFull() {
+        ArrayList<SmallItem> items = mItems;
+        int n = items.size();
+        setTimeRange(getTimeRange(items), n);
+
+        mClusters = new ArrayList<Cluster>();
+        mCurrCluster = new Cluster();
+        mRunStarts.clear();
+        for (int i = 0; i < n; i++) {
+            SmallItem item = items.get(i);
+            compute(item);
+            recordRunStart(item);
+        }
+
+        compute(null);
+    }
+
+    // Returns false if the changes need a full run.
+    private boolean runIncremental(ArrayList<SmallItem> inserted) {
+        // Merge the inserted items into the sorted items which are still
+        // there. Ties keep the old items first.
+        Collections.sort(inserted, sDateComparator);
+        ArrayList<SmallItem> oldItems = mItems;
+        ArrayList<SmallItem> items = new ArrayList<SmallItem>(mItemMap.size());
+        int firstChanged = Integer.MAX_VALUE;
+        int lastChanged = -1;
+        int j = 0;
+        for (int i = 0, n = oldItems.size(); i <= n; i++) {
+            SmallItem old = (i < n) ? oldItems.get(i) : null;
+            while (j < inserted.size() && (old == null
+                    || sDateComparator.compare(inserted.get(j), old) < 0)) {
+                firstChanged = Math.min(firstChanged, items.size());
+                lastChanged = items.size();
+                items.add(inserted.get(j++));
+            }
+            if (old == null) break;
+            if (mItemMap.get(old.path) == old) {
+                items.add(old);
+            } else {
+                // The item after a deleted one has a different predecessor.
+                mRunStarts.remove(old);
+                firstChanged = Math.min(firstChanged, items.size());
+                lastChanged = items.size();
+            }
+        }
+        int n = items.size();
+        mItems = items;
+        if (lastChanged == -1) return true;
+
+        // Keep the cluster parameters unless they drifted too much.
+        long oldSplitTime = mClusterSplitTime;
+        long oldLargeSplitTime = mLargeClusterSplitTime;
+        int oldMinSize = mMinClusterSize;
+        int oldMaxSize = mMaxClusterSize;
+        setTimeRange(getTimeRange(items), n);
+        if (mMinClusterSize != oldMinSize || mMaxClusterSize != oldMaxSize
+                || Math.abs(mClusterSplitTime - oldSplitTime) * MAX_SPLIT_TIME_DRIFT_FRACTION
+                > oldSplitTime) {
+            return false;
+        }
+        mClusterSplitTime = oldSplitTime;
+        mLargeClusterSplitTime = oldLargeSplitTime;
+
+        // Find the last run start before the first change, and restore the
+        // clustering state there. Without one, start from the first item.
+        int restart = Math.min(firstChanged, n) - 1;
+        while (restart >= 0 && !mRunStarts.containsKey(items.get(restart))) --restart;
+        ArrayList<Cluster> oldClusters = mClusters;
+        mClusters = new ArrayList<Cluster>();
+        mCurrCluster = new Cluster();
+        if (restart >= 0) {
+            SmallItem restartItem = items.get(restart);
+            RunStart state = mRunStarts.get(restartItem);
+            int lastIndex = indexOfCluster(oldClusters, state.lastFirstItem);
+            if (lastIndex < 0) return false;
+            mClusters.addAll(oldClusters.subList(0, lastIndex));
+            if (state.lastFirstItem != null) {
+                Cluster old = oldClusters.get(lastIndex);
+                Cluster last = new Cluster();
+                last.mGeographicallySeparatedFromPrevCluster =
+                        old.mGeographicallySeparatedFromPrevCluster;
+                ArrayList<SmallItem> oldClusterItems = old.getItems();
+                for (int i = 0; i < state.lastSize; i++) {
+                    last.addItem(oldClusterItems.get(i));
+                }
+                mClusters.add(last);
+            }
+            mCurrCluster.mGeographicallySeparatedFromPrevCluster =
+                    state.geographicallySeparated;
+            mCurrCluster.addItem(restartItem);
+        }
+
+        IdentityHashMap<SmallItem, Boolean> insertedSet =
+                new IdentityHashMap<SmallItem, Boolean>();
+        for (SmallItem item : inserted) insertedSet.put(item, Boolean.TRUE);
+
+        for (int i = restart + 1; i < n; i++) {
+            SmallItem item = items.get(i);
+            RunStart oldState = mRunStarts.remove(item);
+            compute(item);
+            RunStart newState = recordRunStart(item);
+            if (i > lastChanged && oldState != null && newState != null
+                    && isSameState(oldState, newState, insertedSet)) {
+                // From here on the run goes as the previous one did.
+                int index = indexOfCluster(oldClusters, oldState.lastFirstItem);
+                if (index < 0) return false;
+                if (!mClusters.isEmpty()) mClusters.remove(mClusters.size() - 1);
+                mClusters.addAll(oldClusters.subList(index, oldClusters.size()));
+                mCurrCluster = new Cluster();
+                return true;
+            }
+        }
+
+        compute(null);
+        return true;
+    }
+
+    private boolean isSameState(RunStart a, RunStart b,
+            IdentityHashMap<SmallItem, Boolean> inserted) {
+        if (a.lastFirstItem != b.lastFirstItem || a.lastSize != b.lastSize
+                || a.geographicallySeparated != b.geographicallySeparated) {
+            return false;
+        }
+        if (mClusters.isEmpty()) return true;
+        // With the same first item and size, the last cluster has the same
+        // items if none of them is new.
+        ArrayList<SmallItem> items = mClusters.get(mClusters.size() - 1).getItems();
+        for (int i = 0, n = items.size(); i < n; i++) {
+            if (inserted.containsKey(items.get(i))) return false;
+        }
+        return true;
+    }
+
+    // Records the state if the item just started a new current cluster.
+    private RunStart recordRunStart(SmallItem item) {
+        if (mCurrCluster.size() != 1 || mCurrCluster.getLastItem() != item) return null;
+        RunStart state = new RunStart();
+        int numClusters = mClusters.size();
+        if (numClusters > 0) {
+            Cluster last = mClusters.get(numClusters - 1);
+            state.lastFirstItem = last.getItems().get(0);
+            state.lastSize = last.size();
+        }
+        state.geographicallySeparated = mCurrCluster.mGeographicallySeparatedFromPrevCluster;
+        mRunStarts.put(item, state);
+        return state;
+    }
 
-        Collections.sort(items, sDateComparator);
+    // Returns the index of the cluster starting with the given item, 0 for
+    // null, or -1 if there is none.
+    private static int indexOfCluster(ArrayList<Cluster> clusters, SmallItem first) {
+        if (first == null) return 0;
+        for (int i = clusters.size() - 1; i >= 0; i--) {
+            if (clusters.get(i).getItems().get(0) == first) return i;
+        }
+        return -1;
+    }
 
+    private static long getTimeRange(ArrayList<SmallItem> items) {
         int n = items.size();
         long minTime = 0;
         long maxTime = 0;
@@ -130,20 +358,7 @@ public class TimeClustering extends Clustering {
                 maxTime = Math.max(maxTime, t);
             }
         }
-
-        setTimeRange(maxTime - minTime, n);
-
-        for (int i = 0; i < n; i++) {
-            compute(items.get(i));
-        }
-
-        compute(null);
-
-        int m = mClusters.size();
-        mNames = new String[m];
-        for (int i = 0; i < m; i++) {
-            mNames[i] = mClusters.get(i).generateCaption(mContext);
-        }
+        return maxTime - minTime;
     }
 
     @Override
@@ -362,11 +577,13 @@ class Cluster {
     public boolean mGeographicallySeparatedFromPrevCluster = false;
 
     private ArrayList<SmallItem> mItems = new ArrayList<SmallItem>();
+    private String mCaption;
 
     public Cluster() {
     }
 
     public void addItem(SmallItem item) {
+        mCaption = null;
         if(item.mediaType == MediaObject.MEDIA_TYPE_IMAGE) {
             mPhotoCount++;
         } else if(item.mediaType == MediaObject.MEDIA_TYPE_VIDEO) {
@@ -388,6 +605,12 @@ class Cluster {
         return mItems;
     }
 
+    // Returns the caption, which is kept until the next addItem().
+    public String getCaption(Context context) {
+        if (mCaption == null) mCaption = generateCaption(context);
+        return mCaption;
+    }
+
     public String generateCaption(Context context) {
         int n = mItems.size();
         long minTimestamp = 0;
@@ -50,7 +50,8 @@ public class BitmapCache {
     public final static int PREVIEW_CACHE_NO_FILTERS = 11;
     public final static int PREVIEW_CACHE_NO_ROOT = 12;
     public static final int PREVIEW_CACHE_NO_APPLY = 13;
-    public final static int TRACKING_COUNT = 14;
+    public final static int TILE = 14;
+    public final static int TRACKING_COUNT = 15;
     private int[] mTracking = new int[TRACKING_COUNT];
 
     class BitmapTracking {
@@ -100,6 +101,7 @@ public class BitmapCache {
             case RENDERING_REQUEST: return "RENDERING_REQUEST";
             case REGION: return "REGION";
             case TINY_PLANET: return "TINY_PLANET";
+            case TILE: return "TILE";
         }
         return "UNKNOWN";
     }
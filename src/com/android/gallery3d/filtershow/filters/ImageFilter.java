@@ -28,6 +28,14 @@ import com.android.gallery3d.filtershow.imageshow.PrimaryImage;
 import com.android.gallery3d.filtershow.pipeline.FilterEnvironment;
 
 public abstract class ImageFilter implements Cloneable {
+    // How far the output pixels of a filter depend on its input pixels.
+    // Point and neighborhood filters can be run on bands of the image in
+    // parallel, see TiledRenderer; such filters must work in place and
+    // must not use the environment in apply().
+    public static final int LOCALITY_POINT = 0;
+    public static final int LOCALITY_NEIGHBORHOOD = 1;
+    public static final int LOCALITY_GLOBAL = 2;
+
     private FilterEnvironment mEnvironment = null;
 
     protected String mName = "Original";
@@ -102,6 +110,16 @@ public abstract class ImageFilter implements Cloneable {
 
     public abstract void useRepresentation(FilterRepresentation representation);
 
+    public int getLocality() {
+        return this instanceof PointFilter ? LOCALITY_POINT : LOCALITY_GLOBAL;
+    }
+
+    // The number of rows and columns around a pixel that a neighborhood
+    // filter reads to compute it.
+    public int getHaloSize() {
+        return 0;
+    }
+
     native protected void nativeApplyGradientFilter(Bitmap bitmap, int w, int h,
             int[] redGradient, int[] greenGradient, int[] blueGradient);
 
@@ -22,7 +22,7 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 
 
-public class ImageFilterBwFilter extends SimpleImageFilter {
+public class ImageFilterBwFilter extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "BWFILTER";
 
     public ImageFilterBwFilter() {
@@ -51,14 +51,27 @@ public class ImageFilterBwFilter extends SimpleImageFilter {
         }
         int w = bitmap.getWidth();
         int h = bitmap.getHeight();
-        float[] hsv = new float[] {
-                180 + getParameters().getValue(), 1, 1
-        };
-        int rgb = Color.HSVToColor(hsv);
+        int rgb = getFilterColor();
         int r = 0xFF & (rgb >> 16);
         int g = 0xFF & (rgb >> 8);
         int b = 0xFF & (rgb >> 0);
         nativeApplyFilter(bitmap, w, h, r, g, b);
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        int rgb = getFilterColor();
+        kernel.appendBw(0xFF & (rgb >> 16), 0xFF & (rgb >> 8), 0xFF & (rgb >> 0));
+    }
+
+    private int getFilterColor() {
+        float[] hsv = new float[] {
+                180 + getParameters().getValue(), 1, 1
+        };
+        return Color.HSVToColor(hsv);
+    }
 }
@@ -17,10 +17,11 @@
 package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.common.Utils;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterContrast extends SimpleImageFilter {
+public class ImageFilterContrast extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "CONTRAST";
 
     public ImageFilterContrast() {
@@ -55,4 +56,20 @@ public class ImageFilterContrast extends SimpleImageFilter {
         nativeApplyFilter(bitmap, w, h, value);
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        // same math as nativeApplyFilter
+        float value = getParameters().getValue();
+        float m = (float) Math.pow(2, value / 100.);
+        float c = 127 - m * 127;
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = Utils.clamp((int) (m * i + c), 0, 255);
+        }
+        kernel.appendLut(table, table, table);
+    }
 }
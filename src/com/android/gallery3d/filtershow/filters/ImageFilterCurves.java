@@ -20,7 +20,7 @@ import android.graphics.Bitmap;
 
 import com.android.gallery3d.filtershow.imageshow.Spline;
 
-public class ImageFilterCurves extends ImageFilter {
+public class ImageFilterCurves extends ImageFilter implements PointFilter {
 
     private static final String LOGTAG = "ImageFilterCurves";
     FilterCurvesRepresentation mParameters = new FilterCurvesRepresentation();
@@ -82,6 +82,27 @@ public class ImageFilterCurves extends ImageFilter {
         return bitmap;
     }
 
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        // same tables as apply(), in the same order
+        if (!mParameters.getSpline(Spline.RGB).isOriginal()) {
+            int[] rgbGradient = new int[256];
+            populateArray(rgbGradient, Spline.RGB);
+            kernel.appendLut(rgbGradient, rgbGradient, rgbGradient);
+        }
+        kernel.appendLut(getGradient(Spline.RED), getGradient(Spline.GREEN),
+                getGradient(Spline.BLUE));
+    }
+
+    private int[] getGradient(int curveIndex) {
+        if (mParameters.getSpline(curveIndex).isOriginal()) {
+            return null;
+        }
+        int[] gradient = new int[256];
+        populateArray(gradient, curveIndex);
+        return gradient;
+    }
+
     public void setSpline(Spline spline, int splineIndex) {
         mParameters.setSpline(splineIndex, new Spline(spline));
     }
@@ -38,6 +38,17 @@ public class ImageFilterEdge extends SimpleImageFilter {
 
     native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float p);
 
+    @Override
+    public int getLocality() {
+        return LOCALITY_NEIGHBORHOOD;
+    }
+
+    @Override
+    public int getHaloSize() {
+        // 3x3 Sobel kernel
+        return 1;
+    }
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
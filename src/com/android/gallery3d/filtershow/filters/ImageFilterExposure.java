@@ -17,10 +17,11 @@
 package com.android.gallery3d.filtershow.filters;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.common.Utils;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterExposure extends SimpleImageFilter {
+public class ImageFilterExposure extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "EXPOSURE";
     public ImageFilterExposure() {
         mName = "Exposure";
@@ -53,4 +54,18 @@ public class ImageFilterExposure extends SimpleImageFilter {
         nativeApplyFilter(bitmap, w, h, value);
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        // same math as nativeApplyFilter
+        int m = (int) (255 - (float) getParameters().getValue());
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = Utils.clamp((255 * i) / m, 0, 255);
+        }
+        kernel.appendLut(table, table, table);
+    }
 }
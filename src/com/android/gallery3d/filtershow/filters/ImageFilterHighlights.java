@@ -47,6 +47,11 @@ public class ImageFilterHighlights extends SimpleImageFilter {
 
     native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float[] luminanceMap);
 
+    @Override
+    public int getLocality() {
+        return LOCALITY_POINT;
+    }
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
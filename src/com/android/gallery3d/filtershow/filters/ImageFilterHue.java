@@ -21,7 +21,7 @@ import com.android.gallery3d.filtershow.editors.BasicEditor;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterHue extends SimpleImageFilter {
+public class ImageFilterHue extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "HUE";
     private ColorSpaceMatrix cmatrix = null;
 
@@ -61,4 +61,19 @@ public class ImageFilterHue extends SimpleImageFilter {
 
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        cmatrix.identity();
+        cmatrix.setHue(getParameters().getValue());
+        float[] mat = cmatrix.getMatrix();
+        kernel.appendMatrix(new float[] {
+                mat[0], mat[4], mat[8], mat[12],
+                mat[1], mat[5], mat[9], mat[13],
+                mat[2], mat[6], mat[10], mat[14]
+        });
+    }
 }
@@ -5,7 +5,7 @@ import android.graphics.Bitmap;
 import com.android.gallery3d.R;
 import com.android.gallery3d.filtershow.editors.ImageOnlyEditor;
 
-public class ImageFilterNegative extends ImageFilter {
+public class ImageFilterNegative extends ImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "NEGATIVE";
     public ImageFilterNegative() {
         mName = "Negative";
@@ -37,4 +37,13 @@ public class ImageFilterNegative extends ImageFilter {
         nativeApplyFilter(bitmap, w, h);
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = 255 - i;
+        }
+        kernel.appendLut(table, table, table);
+    }
 }
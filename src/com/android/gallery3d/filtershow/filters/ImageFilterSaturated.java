@@ -20,7 +20,7 @@ import com.android.gallery3d.R;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterSaturated extends SimpleImageFilter {
+public class ImageFilterSaturated extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "SATURATED";
     public ImageFilterSaturated() {
         mName = "Saturated";
@@ -55,4 +55,22 @@ public class ImageFilterSaturated extends SimpleImageFilter {
         nativeApplyFilter(bitmap, w, h, value);
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        // same matrix as nativeApplyFilter
+        float s = 1 + getParameters().getValue() / 100.0f;
+        float ms = 1.0f - s;
+        float rt = 0.2999f * ms;
+        float gt = 0.587f * ms;
+        float bt = 0.114f * ms;
+        kernel.appendMatrix(new float[] {
+                rt + s, gt, bt, 0,
+                rt, gt + s, bt, 0,
+                rt, gt, bt + s, 0
+        });
+    }
 }
@@ -43,6 +43,11 @@ public class ImageFilterShadows extends SimpleImageFilter {
 
     native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float  factor);
 
+    @Override
+    public int getLocality() {
+        return LOCALITY_POINT;
+    }
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
@@ -20,7 +20,7 @@ import com.android.gallery3d.R;
 
 import android.graphics.Bitmap;
 
-public class ImageFilterVibrance extends SimpleImageFilter {
+public class ImageFilterVibrance extends SimpleImageFilter implements PointFilter {
     private static final String SERIALIZATION_NAME = "VIBRANCE";
     public ImageFilterVibrance() {
         mName = "Vibrance";
@@ -54,4 +54,12 @@ public class ImageFilterVibrance extends SimpleImageFilter {
 
         return bitmap;
     }
+
+    @Override
+    public void appendTo(PointFilterKernel kernel) {
+        if (getParameters() == null) {
+            return;
+        }
+        kernel.appendVibrance(getParameters().getValue());
+    }
 }
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.filters;
+
+/**
+ * A filter whose output pixel only depends on the same input pixel, so that
+ * a run of them can be applied in a single pass by a {@link PointFilterKernel}.
+ */
+public interface PointFilter {
+    /**
+     * Adds the operations of the representation in use to the kernel.
+     * Called after {@link ImageFilter#useRepresentation}.
+     */
+    public void appendTo(PointFilterKernel kernel);
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.filters;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Applies a run of {@link PointFilter}s to a bitmap in one pass, instead of
+ * one pass over the whole bitmap per filter.
+ *
+ * Each filter adds one or more operations: per-channel lookup tables,
+ * 3x4 color matrices, and the vibrance and black and white mappings which
+ * are neither. Consecutive lookup tables are merged into one table; this is
+ * exact since a table maps every input level. Matrices are not multiplied
+ * together: each filter clamps its output to [0, 255], and a product of
+ * matrices would lose that clamping and change saturated pixels by a lot.
+ * They are evaluated one after the other on the pixel instead.
+ *
+ * The operations do the same integer and float math as the filters' own
+ * native code, so the result is the same as applying the filters one by
+ * one, except for the float rounding of the contrast table, which is
+ * computed here, and may differ by at most one level per channel.
+ */
+public class PointFilterKernel {
+    private static final int OP_LUT = 0;
+    private static final int OP_MATRIX = 1;
+    private static final int OP_VIBRANCE = 2;
+    private static final int OP_BW = 3;
+
+    private static final int LUT_SIZE = 3 * 256;
+    private static final int MATRIX_SIZE = 12;
+
+    private int[] mOps = new int[8];
+    private int mOpCount;
+    private float[] mParams = new float[8 * MATRIX_SIZE];
+    private int mParamCount;
+    private byte[] mLuts = new byte[2 * LUT_SIZE];
+    private int mLutCount;
+
+    public boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    public void clear() {
+        mOpCount = 0;
+        mParamCount = 0;
+        mLutCount = 0;
+    }
+
+    /**
+     * Adds a table for each channel, a null table leaves that channel as is.
+     * Values are stored as bytes, like the gradient filter does.
+     */
+    public void appendLut(int[] red, int[] green, int[] blue) {
+        if (red == null && green == null && blue == null) {
+            return;
+        }
+        byte[] table = new byte[LUT_SIZE];
+        fillChannel(table, 0, red);
+        fillChannel(table, 256, green);
+        fillChannel(table, 512, blue);
+        if (mOpCount > 0 && mOps[mOpCount - 1] == OP_LUT) {
+            // Merge with the previous table.
+            int last = (mLutCount - 1) * LUT_SIZE;
+            for (int i = 0; i < LUT_SIZE; i++) {
+                int channel = i & ~0xFF;
+                mLuts[last + i] = table[channel + (mLuts[last + i] & 0xFF)];
+            }
+            return;
+        }
+        addOp(OP_LUT);
+        if ((mLutCount + 1) * LUT_SIZE > mLuts.length) {
+            mLuts = Arrays.copyOf(mLuts, mLuts.length * 2);
+        }
+        System.arraycopy(table, 0, mLuts, mLutCount * LUT_SIZE, LUT_SIZE);
+        mLutCount++;
+    }
+
+    /**
+     * Adds a row-major 3x4 matrix: red = m[0] * r + m[1] * g + m[2] * b + m[3],
+     * and so on. The results are truncated and clamped to [0, 255].
+     */
+    public void appendMatrix(float[] matrix) {
+        addOp(OP_MATRIX);
+        addParams(matrix, MATRIX_SIZE);
+    }
+
+    /** Adds the mapping of ImageFilterVibrance. */
+    public void appendVibrance(float vibrance) {
+        addOp(OP_VIBRANCE);
+        addParams(new float[] {vibrance}, 1);
+    }
+
+    /** Adds the mapping of ImageFilterBwFilter for the given filter color. */
+    public void appendBw(int r, int g, int b) {
+        addOp(OP_BW);
+        addParams(new float[] {r, g, b}, 3);
+    }
+
+    public Bitmap apply(Bitmap bitmap) {
+        if (mOpCount == 0) {
+            return bitmap;
+        }
+        nativeApplyKernel(bitmap, bitmap.getWidth(), bitmap.getHeight(),
+                mOps, mOpCount, mParams, mLuts);
+        return bitmap;
+    }
+
+    private void addOp(int op) {
+        if (mOpCount == mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mOpCount++] = op;
+    }
+
+    private void addParams(float[] params, int count) {
+        if (mParamCount + count > mParams.length) {
+            mParams = Arrays.copyOf(mParams, Math.max(mParams.length * 2, mParamCount + count));
+        }
+        System.arraycopy(params, 0, mParams, mParamCount, count);
+        mParamCount += count;
+    }
+
+    private static void fillChannel(byte[] table, int offset, int[] values) {
+        for (int i = 0; i < 256; i++) {
+            table[offset + i] = (byte) (values == null ? i : values[i]);
+        }
+    }
+
+    private native void nativeApplyKernel(Bitmap bitmap, int w, int h,
+            int[] ops, int opCount, float[] params, byte[] luts);
+}
@@ -16,16 +16,21 @@
 
 package com.android.gallery3d.filtershow.history;
 
-import android.graphics.Bitmap;
-import android.util.Log;
 import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.pipeline.ImagePreset;
 
+import java.util.HashMap;
+import java.util.Vector;
+
 public class HistoryItem {
     private static final String LOGTAG = "HistoryItem";
     private ImagePreset mImagePreset;
     private FilterRepresentation mFilterRepresentation;
-    private Bitmap mPreviewImage;
+
+    // Once a newer step is added, the preset is replaced by its list of
+    // representations, which shares every representation that did not
+    // change with the previous step. Only the changed ones take memory.
+    private FilterRepresentation[] mFilters;
 
     public HistoryItem(ImagePreset preset, FilterRepresentation representation) {
         mImagePreset = preset; // just keep a pointer to the current preset
@@ -34,20 +39,93 @@ public class HistoryItem {
         }
     }
 
+    /**
+     * Returns the preset of this step. The preset of a frozen step is
+     * rebuilt from copies of its representations, so it can be changed.
+     */
     public ImagePreset getImagePreset() {
-        return mImagePreset;
+        if (mFilters == null) {
+            return mImagePreset;
+        }
+        ImagePreset preset = new ImagePreset();
+        Vector<FilterRepresentation> filters = preset.getFilters();
+        for (FilterRepresentation representation : mFilters) {
+            filters.add(representation.copy());
+        }
+        return preset;
     }
 
     public FilterRepresentation getFilterRepresentation() {
         return mFilterRepresentation;
     }
 
-    public Bitmap getPreviewImage() {
-        return mPreviewImage;
+    boolean isFrozen() {
+        return mFilters != null;
+    }
+
+    FilterRepresentation[] getFrozenFilters() {
+        return mFilters;
+    }
+
+    /**
+     * Drops the pointer to the preset, keeping the representations of the
+     * previous (older) step that are equal to the ones of this step.
+     */
+    void freeze(HistoryItem previous) {
+        if (mFilters != null) {
+            return;
+        }
+        FilterRepresentation[] base = previous != null ? previous.mFilters : null;
+        Vector<FilterRepresentation> filters = mImagePreset.getFilters();
+        mFilters = new FilterRepresentation[filters.size()];
+        for (int i = 0; i < mFilters.length; i++) {
+            FilterRepresentation representation = filters.elementAt(i);
+            FilterRepresentation shared = findEqual(base, i, representation);
+            mFilters[i] = shared != null ? shared : representation.copy();
+        }
+        if (mFilterRepresentation != null) {
+            FilterRepresentation shared = findEqual(mFilters, 0, mFilterRepresentation);
+            if (shared != null) {
+                mFilterRepresentation = shared;
+            }
+        }
+        mImagePreset = null;
     }
 
-    public void setPreviewImage(Bitmap previewImage) {
-        mPreviewImage = previewImage;
+    // Looks for an equal representation, starting at the same position since
+    // the representations of consecutive steps are mostly in the same order.
+    private static FilterRepresentation findEqual(FilterRepresentation[] filters,
+            int position, FilterRepresentation representation) {
+        if (filters == null) {
+            return null;
+        }
+        for (int i = 0; i < filters.length; i++) {
+            FilterRepresentation candidate = filters[(position + i) % filters.length];
+            if (ImagePreset.sameSerializationName(candidate, representation)
+                    && comparesParameters(candidate.getClass())
+                    && candidate.equals(representation)) {
+                return candidate;
+            }
+        }
+        return null;
     }
 
+    private static final HashMap<Class<?>, Boolean> sComparesParameters =
+            new HashMap<Class<?>, Boolean>();
+
+    // Representations that do not override equals() are only compared by
+    // their name and ids, so they cannot be shared between steps.
+    private static synchronized boolean comparesParameters(Class<?> type) {
+        Boolean result = sComparesParameters.get(type);
+        if (result == null) {
+            try {
+                result = type.getMethod("equals", FilterRepresentation.class)
+                        .getDeclaringClass() != FilterRepresentation.class;
+            } catch (NoSuchMethodException e) {
+                result = false;
+            }
+            sComparesParameters.put(type, result);
+        }
+        return result;
+    }
 }
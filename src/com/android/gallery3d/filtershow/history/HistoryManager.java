@@ -16,9 +16,14 @@
 
 package com.android.gallery3d.filtershow.history;
 
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 import android.view.MenuItem;
 
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+
+import java.util.IdentityHashMap;
 import java.util.Vector;
 
 public class HistoryManager {
@@ -33,6 +38,20 @@ public class HistoryManager {
     private MenuItem mResetMenuItem = null;
     private int mActiveFilter = -1;
 
+    // Preview bitmaps of the steps, the least recently used ones are dropped.
+    private static final int MAX_PREVIEW_BYTES = 8 * 1024 * 1024;
+    // A rough size of a representation, most of them hold a few parameters.
+    private static final int REPRESENTATION_BYTES = 256;
+    private static final int HISTORY_ITEM_BYTES = 64;
+
+    private final LruCache<HistoryItem, Bitmap> mPreviewImages =
+            new LruCache<HistoryItem, Bitmap>(MAX_PREVIEW_BYTES) {
+        @Override
+        protected int sizeOf(HistoryItem key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
     public void setMenuItems(MenuItem undoItem, MenuItem redoItem, MenuItem resetItem) {
         mUndoMenuItem = undoItem;
         mRedoMenuItem = redoItem;
@@ -53,10 +72,47 @@ public class HistoryManager {
 
     private void clear() {
         mHistoryItems.clear();
+        mPreviewImages.evictAll();
+    }
+
+    public Bitmap getPreviewImage(HistoryItem item) {
+        return mPreviewImages.get(item);
+    }
+
+    public void setPreviewImage(HistoryItem item, Bitmap previewImage) {
+        if (previewImage == null) {
+            mPreviewImages.remove(item);
+        } else {
+            mPreviewImages.put(item, previewImage);
+        }
     }
 
-    private void add(HistoryItem item) {
-        mHistoryItems.add(item);
+    /**
+     * Returns an estimate of the memory held by the history, in bytes: the
+     * preview bitmaps, and the representations kept by the steps, each
+     * shared representation counted once.
+     */
+    public long getMemoryFootprint() {
+        IdentityHashMap<FilterRepresentation, Boolean> representations =
+                new IdentityHashMap<FilterRepresentation, Boolean>();
+        for (int i = 0; i < getCount(); i++) {
+            HistoryItem item = getItem(i);
+            if (item.isFrozen()) {
+                for (FilterRepresentation representation : item.getFrozenFilters()) {
+                    representations.put(representation, Boolean.TRUE);
+                }
+            } else if (item.getImagePreset() != null) {
+                for (FilterRepresentation representation : item.getImagePreset().getFilters()) {
+                    representations.put(representation, Boolean.TRUE);
+                }
+            }
+            if (item.getFilterRepresentation() != null) {
+                representations.put(item.getFilterRepresentation(), Boolean.TRUE);
+            }
+        }
+        return mPreviewImages.size()
+                + (long) representations.size() * REPRESENTATION_BYTES
+                + (long) getCount() * HISTORY_ITEM_BYTES;
     }
 
     private void notifyDataSetChanged() {
@@ -138,17 +194,18 @@ public class HistoryManager {
     private void insert(HistoryItem preset, int position) {
         if (mCurrentPresetPosition != 0) {
             // in this case, let's discount the presets before the current one
-            Vector<HistoryItem> oldItems = new Vector<HistoryItem>();
-            for (int i = mCurrentPresetPosition; i < getCount(); i++) {
-                oldItems.add(getItem(i));
-            }
-            clear();
-            for (int i = 0; i < oldItems.size(); i++) {
-                add(oldItems.elementAt(i));
+            for (int i = 0; i < mCurrentPresetPosition; i++) {
+                mPreviewImages.remove(getItem(i));
             }
+            mHistoryItems.subList(0, mCurrentPresetPosition).clear();
             mCurrentPresetPosition = position;
             notifyDataSetChanged();
         }
+        if (getCount() > 0) {
+            // The newest step stops following the live preset, keep only
+            // what changed since the step before it.
+            getItem(0).freeze(getItem(1));
+        }
         mHistoryItems.insertElementAt(preset, position);
         mCurrentPresetPosition = position;
         notifyDataSetChanged();
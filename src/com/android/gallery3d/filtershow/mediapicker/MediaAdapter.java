@@ -169,6 +169,7 @@ public class MediaAdapter extends CursorAdapter implements RecyclerListener {
         SelectedImageView imageView = (SelectedImageView) view
                 .findViewById(R.id.thumbnail);
         mImageViewSelected.remove(imageView);
+        mMediaImageLoader.cancelDisplayTask(imageView);
     }
 
     public void onDestroyView() {
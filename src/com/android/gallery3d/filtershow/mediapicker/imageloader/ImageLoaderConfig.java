@@ -32,11 +32,19 @@ package com.android.gallery3d.filtershow.mediapicker.imageloader;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.CacheManager;
+
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -61,9 +69,25 @@ public class ImageLoaderConfig {
     public int threadPoolSize = DEFAULT_THREAD_POOL_SIZE;
     public int threadPriority = DEFAULT_THREAD_PRIORITY;
 
-    private LinkedHashMap<String, Bitmap> imageCacheMap;
+    // The second level cache keeps the decoded thumbnails as JPEG data, so
+    // cells scrolled back into view, or shown again in a later session, do
+    // not open and decode the original image again.
+    private static final String DISK_CACHE_FILE = "pickercache";
+    private static final int DISK_CACHE_MAX_ENTRIES = 2000;
+    private static final int DISK_CACHE_MAX_BYTES = 40 * 1024 * 1024;
+    private static final int DISK_CACHE_VERSION = 1;
+    // Larger bitmaps are for full screen views, which are not worth keeping.
+    private static final int DISK_CACHE_MAX_PIXELS = 1024 * 1024;
+
+    // Evicts the least recently shown entries first, so the thumbnails of
+    // the cells scrolled out of view go before the visible ones.
+    private LruCache<String, Bitmap> imageCacheMap;
     private int icmMaxSize;
-    private int icmSize;
+    private BlobCache diskCache;
+    private boolean diskCacheOpened;
+    // Compressing a thumbnail for the disk cache takes about as long as
+    // decoding it, so it is done on this thread after the thumbnail is shown.
+    private Executor diskCacheWriter;
     public ImageLoaderOptions defaultOptions = null;
 
     public ImageLoaderConfig(Context context) {
@@ -79,6 +103,7 @@ public class ImageLoaderConfig {
 
         long availableMemory = Runtime.getRuntime().maxMemory();
         icmMaxSize = (int) (availableMemory * (availableMemoryPercent / 100f));
+        imageCacheMap.resize(icmMaxSize);
     }
 
     private void initEmptyFieldsWithDefaultValues() {
@@ -88,8 +113,13 @@ public class ImageLoaderConfig {
             customExecutor = true;
         }
         if (imageCacheMap == null) {
-            icmSize = 0;
-            imageCacheMap = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+            icmMaxSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+            imageCacheMap = new LruCache<String, Bitmap>(icmMaxSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
         }
         if (defaultOptions == null) {
             defaultOptions = new ImageLoaderOptions();
@@ -100,73 +130,92 @@ public class ImageLoaderConfig {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
-
-        synchronized (this) {
-            return imageCacheMap.get(key);
-        }
+        return imageCacheMap.get(key);
     }
 
     public final boolean put(String key, Bitmap value) {
         if (key == null || value == null) {
             throw new NullPointerException("key == null || value == null");
         }
-
-        synchronized (this) {
-            icmSize += sizeOf(value);
-            Bitmap previous = imageCacheMap.put(key, value);
-            if (previous != null) {
-                icmSize -= sizeOf(previous);
-            }
-        }
-
-        trimToSize(icmMaxSize);
+        imageCacheMap.put(key, value);
         return true;
     }
 
-    private void trimToSize(int maxSize) {
-        while (true) {
-            String key;
-            Bitmap value;
-            synchronized (this) {
-                if (icmSize < 0 || (imageCacheMap.isEmpty() && icmSize != 0)) {
-                    throw new IllegalStateException(getClass().getName() + ".sizeOf() is inconsistent!");
-                }
+    public final Bitmap remove(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return imageCacheMap.remove(key);
+    }
 
-                if (icmSize <= maxSize || imageCacheMap.isEmpty()) {
-                    break;
-                }
+    // Opened on first use, which is on a loader thread, since it reads the
+    // cache files.
+    private synchronized BlobCache getDiskCache() {
+        if (!diskCacheOpened) {
+            diskCache = CacheManager.getCache(context, DISK_CACHE_FILE,
+                    DISK_CACHE_MAX_ENTRIES, DISK_CACHE_MAX_BYTES, DISK_CACHE_VERSION, true);
+            diskCacheOpened = true;
+        }
+        return diskCache;
+    }
 
-                Map.Entry<String, Bitmap> toEvict = imageCacheMap.entrySet().iterator().next();
-                if (toEvict == null) {
-                    break;
-                }
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                imageCacheMap.remove(key);
-                icmSize -= sizeOf(value);
+    /**
+     * Returns the thumbnail saved for the key in the disk cache, or null.
+     * The key is stored in front of the image data, so a crc collision is
+     * taken as a miss.
+     */
+    public final Bitmap getFromDisk(String key) {
+        BlobCache cache = getDiskCache();
+        if (cache == null) return null;
+        byte[] keyBytes = key.getBytes();
+        try {
+            byte[] data = cache.lookup(Utils.crc64Long(keyBytes));
+            if (data == null || data.length <= keyBytes.length
+                    || !Arrays.equals(keyBytes, Arrays.copyOf(data, keyBytes.length))) {
+                return null;
             }
+            return BitmapFactory.decodeByteArray(data, keyBytes.length,
+                    data.length - keyBytes.length);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read disk cache " + key, e);
+            return null;
         }
     }
 
-    public final Bitmap remove(String key) {
-        if (key == null) {
-            throw new NullPointerException("key == null");
+    public final void putToDisk(String key, Bitmap value) {
+        if (value.getWidth() * value.getHeight() > DISK_CACHE_MAX_PIXELS) return;
+        BlobCache cache = getDiskCache();
+        if (cache == null) return;
+        byte[] keyBytes = key.getBytes();
+        byte[] data = BitmapUtils.compressToBytes(value);
+        try {
+            cache.insert(Utils.crc64Long(keyBytes), keyBytes, data, 0, data.length);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write disk cache " + key, e);
         }
+    }
 
+    /**
+     * Saves the thumbnail in the disk cache on a low priority thread, so
+     * the caller does not wait for the compression.
+     */
+    public final void putToDiskLater(final String key, final Bitmap value) {
+        if (value.getWidth() * value.getHeight() > DISK_CACHE_MAX_PIXELS) return;
+        Executor writer;
         synchronized (this) {
-            Bitmap previous = imageCacheMap.remove(key);
-            if (previous != null) {
-                icmSize -= sizeOf(previous);
+            if (diskCacheWriter == null) {
+                diskCacheWriter = createExecutor(1, Thread.MIN_PRIORITY);
             }
-            return previous;
+            writer = diskCacheWriter;
         }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                putToDisk(key, value);
+            }
+        });
     }
 
-    private int sizeOf(Bitmap value) {
-        return value.getRowBytes() * value.getHeight();
-    }
-
-
     public int defineHeightForImage(ImageViewImpl imageView) {
         int height = imageView.getHeight();
         if (height <= 0)
@@ -186,6 +235,13 @@ public class ImageLoaderConfig {
                 .append(WIDTH_AND_HEIGHT_SEPARATOR).append(h).toString();
     }
 
+    // The modification time keeps an edited image from showing its old
+    // thumbnail.
+    public static String generateDiskKey(String memoryCacheKey, long dateModified) {
+        return new StringBuilder(memoryCacheKey).append(URI_AND_SIZE_SEPARATOR)
+                .append(dateModified).toString();
+    }
+
     public static Executor createExecutor(int threadPoolSize, int threadPriority) {
         BlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<Runnable>();
         return new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS,
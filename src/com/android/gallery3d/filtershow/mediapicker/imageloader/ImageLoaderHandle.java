@@ -87,5 +87,10 @@ class ImageLoaderHandle {
     void prepareDisplayTaskFor(ImageViewImpl imageView, String memoryCacheKey) {
         cacheKeysForImageAwares.put(imageView.getId(), memoryCacheKey);
     }
+
+    /** The pending task of the view is dropped when it gets to run */
+    void cancelDisplayTaskFor(ImageViewImpl imageView) {
+        cacheKeysForImageAwares.remove(imageView.getId());
+    }
 }
 
@@ -90,4 +90,8 @@ public class ImageLoaderInstance {
             handle.submit(displayTask);
         }
     }
+
+    public void cancelDisplayTask(ImageViewImpl imageView) {
+        handle.cancelDisplayTaskFor(imageView);
+    }
 }
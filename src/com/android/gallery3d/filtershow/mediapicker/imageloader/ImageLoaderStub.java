@@ -49,4 +49,10 @@ public class ImageLoaderStub {
         ImageViewImpl imageViewImpl = new ImageViewImpl(imageView);
         ImageLoaderInstance.getInstance().displayImage(uri.toString(), imageViewImpl, displayImageOptions);
     }
+
+    // Called when the view is scrolled out of the grid, so its image is not
+    // decoded for nothing.
+    public void cancelDisplayTask(ImageView imageView) {
+        ImageLoaderInstance.getInstance().cancelDisplayTask(new ImageViewImpl(imageView));
+    }
 }
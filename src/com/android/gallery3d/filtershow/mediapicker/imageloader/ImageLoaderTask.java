@@ -30,13 +30,16 @@
 package com.android.gallery3d.filtershow.mediapicker.imageloader;
 
 import android.content.ContentResolver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.Handler;
+import android.provider.MediaStore;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -46,6 +49,12 @@ import java.util.concurrent.locks.ReentrantLock;
 final class ImageLoaderTask implements Runnable {
 
     private final String TAG = "ImageLoaderTask";
+    // Enough for the headers of most images, including an EXIF thumbnail.
+    private static final int BOUNDS_MARK_LIMIT = 128 * 1024;
+    private static final String[] PROJECTION_IMAGE_INFO = {
+            MediaStore.MediaColumns.WIDTH,
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.DATE_MODIFIED};
     private final ImageLoaderHandle handle;
     private final ImageLoaderInfo imageLoadingInfo;
     private final Handler handler;
@@ -54,6 +63,7 @@ final class ImageLoaderTask implements Runnable {
     private final String memoryCacheKey;
     final ImageViewImpl imageView;
     private int imageHeight, imageWidth;
+    private long dateModified = -1;
 
     public ImageLoaderTask(ImageLoaderHandle handle, ImageLoaderInfo imageLoadingInfo, Handler handler) {
         this.handle = handle;
@@ -75,13 +85,23 @@ final class ImageLoaderTask implements Runnable {
         Log.d(TAG, "Start display image task " + memoryCacheKey);
         loadFromUriLock.lock();
         Bitmap bmp = null;
+        String diskCacheKeyToWrite = null;
         try {
             checkTaskNotActual();
             checkTaskInterrupted();
             bmp = handle.configuration.get(memoryCacheKey);
             if (bmp == null || bmp.isRecycled()) {
-                bmp = parseImage(uri);
-                if (bmp == null) return;
+                BitmapFactory.Options opt = queryImageOpt(uri);
+                String diskCacheKey = dateModified < 0 ? null
+                        : ImageLoaderConfig.generateDiskKey(memoryCacheKey, dateModified);
+                bmp = diskCacheKey == null ? null : handle.configuration.getFromDisk(diskCacheKey);
+                if (bmp != null) {
+                    Log.d(TAG, "Load image from disk cache " + memoryCacheKey);
+                } else {
+                    bmp = parseImage(uri, opt);
+                    if (bmp == null) return;
+                    diskCacheKeyToWrite = diskCacheKey;
+                }
 
                 checkTaskNotActual();
                 checkTaskInterrupted();
@@ -95,6 +115,11 @@ final class ImageLoaderTask implements Runnable {
             checkTaskNotActual();
             checkTaskInterrupted();
         } catch (TaskInvalidException e) {
+            // The decoded bitmap is still kept for the next time the cell
+            // is shown.
+            if (bmp != null && diskCacheKeyToWrite != null) {
+                handle.configuration.putToDiskLater(diskCacheKeyToWrite, bmp);
+            }
             return;
         } catch (IOException e) {
             Log.e(TAG, e.toString());
@@ -107,18 +132,51 @@ final class ImageLoaderTask implements Runnable {
         }
         ImageDisplayTask displayBitmapTask = new ImageDisplayTask(bmp, imageLoadingInfo, handle);
         runTask(displayBitmapTask, handler, handle);
+        // The disk cache is only written once the display is posted.
+        if (bmp != null && diskCacheKeyToWrite != null) {
+            handle.configuration.putToDiskLater(diskCacheKeyToWrite, bmp);
+        }
     }
 
 
-    private Bitmap parseImage(String imageUri) throws IOException {
+    /**
+     * Returns the image size recorded by MediaStore, or null if it is not
+     * known, and reads the modification time for the disk cache key.
+     */
+    private BitmapFactory.Options queryImageOpt(String imageUri) {
+        ContentResolver res = handle.configuration.context.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = res.query(Uri.parse(imageUri), PROJECTION_IMAGE_INFO, null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) return null;
+            dateModified = cursor.isNull(2) ? -1 : cursor.getLong(2);
+            if (cursor.getInt(0) <= 0 || cursor.getInt(1) <= 0) return null;
+            BitmapFactory.Options opt = new BitmapFactory.Options();
+            opt.outWidth = cursor.getInt(0);
+            opt.outHeight = cursor.getInt(1);
+            return opt;
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot query image info " + imageUri, e);
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private Bitmap parseImage(String imageUri, BitmapFactory.Options opt) throws IOException {
         ViewScaleType viewScaleType = imageView.getScaleType();
         Bitmap parsedBitmap;
-        BitmapFactory.Options opt;
 
         InputStream imageStream = getImageStream(imageUri);
         try {
-            opt = getImageOpt(imageStream);
-            imageStream = resetStream(imageStream, imageUri);
+            if (opt == null) {
+                // Read the bounds from the start of the same stream, and only
+                // open the image again if the header did not fit in the mark.
+                imageStream = new BufferedInputStream(imageStream, BOUNDS_MARK_LIMIT);
+                imageStream.mark(BOUNDS_MARK_LIMIT);
+                opt = getImageOpt(imageStream);
+                imageStream = resetStream(imageStream, imageUri);
+            }
             int scale = computeImageSampleSize(opt, imageHeight, imageWidth, viewScaleType);
             BitmapFactory.Options decodingOptions = new BitmapFactory.Options();
             decodingOptions.inSampleSize = scale;
@@ -24,17 +24,38 @@ import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.imageshow.GeometryMathUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Renders the preview of a filter chain, reusing the intermediate results
+ * of earlier renderings: the bitmap after each step but the last is kept,
+ * for several branches of edits, within a budget of bytes. This way,
+ * switching between variants of a filter, or undoing, only renders the
+ * steps after the longest prefix already rendered.
+ */
 public class CacheProcessing {
     private static final String LOGTAG = "CacheProcessing";
     private static final boolean DEBUG = false;
     private static final boolean NO_CACHING = false;
-    private Vector<CacheStep> mSteps = new Vector<CacheStep>();
+    private static final long DEFAULT_MAX_BYTES = 48 * 1024 * 1024;
+
+    // The entries by the hash of the prefix of the chain they are for.
+    private final HashMap<Long, ArrayList<Entry>> mEntries =
+            new HashMap<Long, ArrayList<Entry>>();
+    // Also read by BitmapCache from other threads, through contains().
+    private final ConcurrentHashMap<Bitmap, Entry> mBitmaps =
+            new ConcurrentHashMap<Bitmap, Entry>();
+    private Bitmap mOriginalBitmap;
+    private long mMaxBytes;
+    private long mBytes;
+    private long mInflation;
+    private int mHitCount;
+    private int mMissCount;
 
     static class CacheStep {
         ArrayList<FilterRepresentation> representations;
-        Bitmap cache;
 
         public CacheStep() {
             representations = new ArrayList<FilterRepresentation>();
@@ -128,6 +149,83 @@ public class CacheProcessing {
         }
     }
 
+    /**
+     * A cached intermediate result: the bitmap after all the steps of a
+     * prefix of the filter chain. The steps are shared with the chain the
+     * entry was rendered for, and compared one by one on lookup, since the
+     * key is only a hash of the prefix.
+     */
+    private static class Entry {
+        CacheStep[] steps;
+        long key;
+        Bitmap bitmap;
+        long bytes;
+        // The time it took to render the last step, in milliseconds.
+        long cost;
+        // The eviction priority of the entry, see evict().
+        long priority;
+
+        boolean matches(Vector<CacheStep> chain, int last) {
+            if (steps.length != last + 1) {
+                return false;
+            }
+            for (int i = last; i >= 0; i--) {
+                CacheStep step = chain.elementAt(i);
+                if (steps[i] != step && !steps[i].equals(step)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public CacheProcessing() {
+        this(Math.min(Runtime.getRuntime().maxMemory() / 16, DEFAULT_MAX_BYTES));
+    }
+
+    public CacheProcessing(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes, FilterEnvironment environment) {
+        mMaxBytes = maxBytes;
+        evict(environment, 0);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long getSize() {
+        return mBytes;
+    }
+
+    /** Returns the number of steps whose result was found in the cache. */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of steps that had to be rendered. */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public void clear(FilterEnvironment environment) {
+        ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>(mEntries.size());
+        for (ArrayList<Entry> bucket : mEntries.values()) {
+            for (Entry entry : bucket) {
+                bitmaps.add(entry.bitmap);
+            }
+        }
+        mEntries.clear();
+        mBitmaps.clear();
+        mBytes = 0;
+        mInflation = 0;
+        for (Bitmap bitmap : bitmaps) {
+            environment.cache(bitmap);
+        }
+    }
+
     public Bitmap process(Bitmap originalBitmap,
                           Vector<FilterRepresentation> filters,
                           FilterEnvironment environment) {
@@ -138,136 +236,160 @@ public class CacheProcessing {
 
         environment.getBimapCache().setCacheProcessing(this);
 
-        if (DEBUG) {
-            displayFilters(filters);
-        }
-        Vector<CacheStep> steps = CacheStep.buildSteps(filters);
-        // New set of filters, let's clear the cache and rebuild it.
-        if (steps.size() != mSteps.size()) {
-            mSteps = steps;
+        if (originalBitmap != mOriginalBitmap) {
+            // Results of another image, or of another size of this one.
+            clear(environment);
+            mOriginalBitmap = originalBitmap;
         }
 
         if (DEBUG) {
-            displaySteps(mSteps);
-        }
-
-        // First, let's find how similar we are in our cache
-        // compared to the current list of filters
-        int similarUpToIndex = -1;
-        boolean similar = true;
-        for (int i = 0; i < steps.size(); i++) {
-            CacheStep newStep = steps.elementAt(i);
-            CacheStep cacheStep = mSteps.elementAt(i);
-            if (similar) {
-                similar = newStep.equals(cacheStep);
-            }
-            if (similar) {
-                similarUpToIndex = i;
-            } else {
-                mSteps.remove(i);
-                mSteps.insertElementAt(newStep, i);
-                environment.cache(cacheStep.cache);
-            }
+            displayFilters(filters);
         }
-        if (DEBUG) {
-            Log.v(LOGTAG, "similar up to index " + similarUpToIndex);
+        Vector<CacheStep> steps = CacheStep.buildSteps(filters);
+        long[] keys = new long[steps.size()];
+        long key = 17;
+        for (int i = 0; i < keys.length; i++) {
+            key = key * 31 + getKey(steps.elementAt(i));
+            keys[i] = key;
         }
 
-        // Now, let's get the earliest cached result in our pipeline
-        Bitmap cacheBitmap = null;
-        int findBaseImageIndex = similarUpToIndex;
-        if (findBaseImageIndex > -1) {
-            while (findBaseImageIndex > 0
-                    && mSteps.elementAt(findBaseImageIndex).cache == null) {
-                findBaseImageIndex--;
-            }
-            cacheBitmap = mSteps.elementAt(findBaseImageIndex).cache;
+        // Find the longest prefix of the chain already rendered, in this
+        // branch or in another one the user went through.
+        Entry base = null;
+        int last = steps.size() - 1;
+        for (int i = last - 1; i >= 0 && base == null; i--) {
+            base = lookup(keys[i], steps, i);
         }
-
+        int first = base == null ? 0 : base.steps.length;
+        mHitCount += first;
+        mMissCount += steps.size() - first;
         if (DEBUG) {
-            Log.v(LOGTAG, "found baseImageIndex: " + findBaseImageIndex + " max is "
-                    + mSteps.size() + " cacheBitmap: " + cacheBitmap);
+            Log.v(LOGTAG, "reuse " + first + " steps out of " + steps.size());
         }
 
         if (NO_CACHING) {
-            cacheBitmap = environment.getBitmapCopy(originalBitmap,
+            Bitmap cacheBitmap = environment.getBitmapCopy(originalBitmap,
                     BitmapCache.PREVIEW_CACHE_NO_ROOT);
-            for (int i = 0; i < mSteps.size(); i++) {
-                CacheStep step = mSteps.elementAt(i);
-                Bitmap prev = cacheBitmap;
-                cacheBitmap = step.apply(environment, cacheBitmap);
-                if (prev != cacheBitmap) {
-                    environment.cache(prev);
-                }
+            for (int i = 0; i < steps.size(); i++) {
+                cacheBitmap = steps.elementAt(i).apply(environment, cacheBitmap);
             }
             return cacheBitmap;
         }
 
-        Bitmap originalCopy = null;
-        int lastPositionCached = -1;
-        for (int i = findBaseImageIndex; i < mSteps.size(); i++) {
-            if (i == -1 || cacheBitmap == null) {
-                cacheBitmap = environment.getBitmapCopy(originalBitmap,
-                        BitmapCache.PREVIEW_CACHE_NO_ROOT);
-                originalCopy = cacheBitmap;
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " cacheBitmap: " + cacheBitmap + " w: "
-                            + cacheBitmap.getWidth() + " h: " + cacheBitmap.getHeight()
-                            + " got from original Bitmap: " + originalBitmap + " w: "
-                            + originalBitmap.getWidth() + " h: " + originalBitmap.getHeight());
-                }
-                if (i == -1) {
-                    continue;
-                }
+        if (base != null) {
+            touch(base);
+        }
+
+        Bitmap cacheBitmap = base != null ? base.bitmap : originalBitmap;
+        for (int i = first; i < steps.size(); i++) {
+            long start = System.currentTimeMillis();
+            // The steps work in place, so the input of a step is always a
+            // copy, and cached results are left untouched.
+            Bitmap input = cacheBitmap;
+            cacheBitmap = environment.getBitmapCopy(input,
+                    i == 0 ? BitmapCache.PREVIEW_CACHE_NO_ROOT : BitmapCache.PREVIEW_CACHE);
+            if (input != originalBitmap && !contains(input)) {
+                environment.cache(input);
             }
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache == null) {
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " get new copy for cacheBitmap "
-                            + cacheBitmap + " apply...");
-                }
-                cacheBitmap = environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE);
-                cacheBitmap = step.apply(environment, cacheBitmap);
-                step.cache = cacheBitmap;
-                lastPositionCached = i;
+            cacheBitmap = steps.elementAt(i).apply(environment, cacheBitmap);
+            // The result of the last step is returned and will never be
+            // reused as is: only the intermediate results are kept.
+            if (i < last && !environment.needsStop()) {
+                CacheStep[] prefix = new CacheStep[i + 1];
+                steps.subList(0, i + 1).toArray(prefix);
+                insert(environment, keys[i], prefix, cacheBitmap,
+                        System.currentTimeMillis() - start);
             }
         }
-        environment.cache(originalCopy);
 
         if (DEBUG) {
-            Log.v(LOGTAG, "now let's cleanup the cache...");
             displayNbBitmapsInCache();
         }
+        return cacheBitmap;
+    }
 
-        // Let's see if we can cleanup the cache for unused bitmaps
-        for (int i = 0; i < similarUpToIndex; i++) {
-            CacheStep currentStep = mSteps.elementAt(i);
-            Bitmap bitmap = currentStep.cache;
-            currentStep.cache = null;
-            environment.cache(bitmap);
+    public boolean contains(Bitmap bitmap) {
+        return mBitmaps.containsKey(bitmap);
+    }
+
+    // Hashes what identifies the filters of a step. The parameters are left
+    // to Entry.matches(), the variants of a step share a bucket.
+    private static long getKey(CacheStep step) {
+        long key = step.representations.size();
+        for (FilterRepresentation representation : step.representations) {
+            String name = representation.getSerializationName();
+            key = key * 31 + (name != null ? name.hashCode() : 0);
+            key = key * 31 + representation.getFilterType();
         }
+        return key;
+    }
 
-        if (DEBUG) {
-            Log.v(LOGTAG, "cleanup done...");
-            displayNbBitmapsInCache();
+    private Entry lookup(long key, Vector<CacheStep> steps, int last) {
+        ArrayList<Entry> bucket = mEntries.get(key);
+        if (bucket == null) {
+            return null;
+        }
+        for (Entry entry : bucket) {
+            if (entry.matches(steps, last)) {
+                return entry;
+            }
         }
-        if (lastPositionCached != -1) {
-            // The last element will never be reused, remove it from the cache.
-            mSteps.elementAt(lastPositionCached).cache = null;
+        return null;
+    }
+
+    private void insert(FilterEnvironment environment, long key, CacheStep[] steps,
+            Bitmap bitmap, long cost) {
+        Entry entry = new Entry();
+        entry.key = key;
+        entry.steps = steps;
+        entry.bitmap = bitmap;
+        entry.bytes = bitmap.getByteCount();
+        entry.cost = cost;
+        evict(environment, entry.bytes);
+        if (mBytes + entry.bytes > mMaxBytes) {
+            // Too big for the budget: it stays a temporary bitmap.
+            return;
         }
-        if (contains(cacheBitmap)) {
-            return environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE_NO_APPLY);
+        touch(entry);
+        ArrayList<Entry> bucket = mEntries.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Entry>(2);
+            mEntries.put(key, bucket);
         }
-        return cacheBitmap;
+        bucket.add(entry);
+        mBitmaps.put(bitmap, entry);
+        mBytes += entry.bytes;
     }
 
-    public boolean contains(Bitmap bitmap) {
-        for (int i = 0; i < mSteps.size(); i++) {
-            if (mSteps.elementAt(i).cache == bitmap) {
-                return true;
+    private void touch(Entry entry) {
+        // The +1 keeps entries that rendered in no time ordered by use.
+        entry.priority = mInflation + entry.cost + 1;
+    }
+
+    /**
+     * Evicts entries until there is room for the given number of bytes.
+     * This is GreedyDual eviction: the entry with the lowest priority goes
+     * first, and every eviction raises the priority new and used entries
+     * get, so expensive results last longer, but not forever.
+     */
+    private void evict(FilterEnvironment environment, long bytes) {
+        while (mBytes + bytes > mMaxBytes && !mBitmaps.isEmpty()) {
+            Entry victim = null;
+            for (Entry entry : mBitmaps.values()) {
+                if (victim == null || entry.priority < victim.priority) {
+                    victim = entry;
+                }
+            }
+            ArrayList<Entry> bucket = mEntries.get(victim.key);
+            bucket.remove(victim);
+            if (bucket.isEmpty()) {
+                mEntries.remove(victim.key);
             }
+            mBitmaps.remove(victim.bitmap);
+            mBytes -= victim.bytes;
+            mInflation = victim.priority;
+            environment.cache(victim.bitmap);
         }
-        return false;
     }
 
     private void displayFilters(Vector<FilterRepresentation> filters) {
@@ -279,28 +401,9 @@ public class CacheProcessing {
         Log.v(LOGTAG, "<<<------");
     }
 
-    private void displaySteps(Vector<CacheStep> filters) {
-        Log.v(LOGTAG, "------>>>");
-        for (int i = 0; i < filters.size(); i++) {
-            CacheStep newStep = filters.elementAt(i);
-            CacheStep step = mSteps.elementAt(i);
-            boolean similar = step.equals(newStep);
-            Log.v(LOGTAG, "[" + i + "] - " + step.getName()
-                    + " similar rep ? " + (similar ? "YES" : "NO")
-                    + " -- bitmap: " + step.cache);
-        }
-        Log.v(LOGTAG, "<<<------");
-    }
-
     private void displayNbBitmapsInCache() {
-        int nbBitmapsCached = 0;
-        for (int i = 0; i < mSteps.size(); i++) {
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache != null) {
-                nbBitmapsCached++;
-            }
-        }
-        Log.v(LOGTAG, "nb bitmaps in cache: " + nbBitmapsCached + " / " + mSteps.size());
+        Log.v(LOGTAG, "nb bitmaps in cache: " + mBitmaps.size() + ", " + mBytes
+                + " / " + mMaxBytes + " bytes, hits: " + mHitCount + " misses: " + mMissCount);
     }
 
 }
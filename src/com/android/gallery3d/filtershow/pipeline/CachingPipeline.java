@@ -170,6 +170,7 @@ public class CachingPipeline implements PipelineInterface {
             mEnvironment.setScaleFactor(mPreviewScaleFactor);
         }
         mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
+        mEnvironment.setTiledRendering(false);
         mEnvironment.setImagePreset(preset);
         mEnvironment.setStop(false);
     }
@@ -227,6 +228,7 @@ public class CachingPipeline implements PipelineInterface {
             bitmap = preset.applyGeometry(bitmap, mEnvironment);
 
             mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
+            mEnvironment.setTiledRendering(true);
             Bitmap bmp = preset.apply(bitmap, mEnvironment);
             if (!mEnvironment.needsStop()) {
                 request.setBitmap(bmp);
@@ -403,6 +405,7 @@ public class CachingPipeline implements PipelineInterface {
             setupEnvironment(preset, false);
             mEnvironment.setQuality(FilterEnvironment.QUALITY_FINAL);
             mEnvironment.setScaleFactor(1.0f);
+            mEnvironment.setTiledRendering(true);
             mFiltersManager.freeFilterResources(preset);
             bitmap = preset.applyGeometry(bitmap, mEnvironment);
             bitmap = preset.apply(bitmap, mEnvironment);
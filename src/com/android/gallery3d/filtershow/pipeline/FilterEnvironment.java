@@ -26,9 +26,12 @@ import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.filters.FilterUserPresetRepresentation;
 import com.android.gallery3d.filtershow.filters.FiltersManagerInterface;
 import com.android.gallery3d.filtershow.filters.ImageFilter;
+import com.android.gallery3d.filtershow.filters.PointFilter;
+import com.android.gallery3d.filtershow.filters.PointFilterKernel;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.List;
 
 public class FilterEnvironment {
     private static final String LOGTAG = "FilterEnvironment";
@@ -39,6 +42,8 @@ public class FilterEnvironment {
     private PipelineInterface mPipeline;
     private volatile boolean mStop = false;
     private BitmapCache mBitmapCache;
+    private final PointFilterKernel mPointKernel = new PointFilterKernel();
+    private boolean mTiledRendering = false;
 
     public static final int QUALITY_ICON = 0;
     public static final int QUALITY_PREVIEW = 1;
@@ -142,6 +147,53 @@ public class FilterEnvironment {
         return ret;
     }
 
+    public boolean isPointRepresentation(FilterRepresentation representation) {
+        if (representation instanceof FilterUserPresetRepresentation) {
+            return false;
+        }
+        return mFiltersManager.getFilterForRepresentation(representation) instanceof PointFilter;
+    }
+
+    // Applies a run of representations whose filters are all PointFilters in
+    // a single pass over the bitmap.
+    public Bitmap applyPointRepresentations(List<FilterRepresentation> representations,
+                                            Bitmap bitmap) {
+        mPointKernel.clear();
+        for (FilterRepresentation representation : representations) {
+            ImageFilter filter = mFiltersManager.getFilterForRepresentation(representation);
+            filter.useRepresentation(representation);
+            filter.setEnvironment(this);
+            ((PointFilter) filter).appendTo(mPointKernel);
+            filter.setGeneralParameters();
+            filter.setEnvironment(null);
+        }
+        return mPointKernel.apply(bitmap);
+    }
+
+    // Lets point and neighborhood filters run on bands of large bitmaps in
+    // parallel, see TiledRenderer.
+    public void setTiledRendering(boolean tiledRendering) {
+        mTiledRendering = tiledRendering;
+    }
+
+    public boolean canRenderTiled(Bitmap bitmap) {
+        return mTiledRendering && TiledRenderer.canRender(bitmap);
+    }
+
+    public boolean isTileableRepresentation(FilterRepresentation representation) {
+        if (representation instanceof FilterUserPresetRepresentation) {
+            return false;
+        }
+        return TiledRenderer.isTileable(mFiltersManager.getFilterForRepresentation(representation));
+    }
+
+    // Returns false if the representations could not be applied in bands,
+    // in which case the bitmap is left as is.
+    public boolean applyTiledRepresentations(List<FilterRepresentation> representations,
+                                             Bitmap bitmap) {
+        return TiledRenderer.render(this, representations, bitmap);
+    }
+
     public PipelineInterface getPipeline() {
         return mPipeline;
     }
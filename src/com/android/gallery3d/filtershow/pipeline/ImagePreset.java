@@ -21,6 +21,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Vector;
 
 import android.graphics.Bitmap;
@@ -645,6 +646,36 @@ public class ImagePreset {
         return mFilters.size();
     }
 
+    // Returns the filters to apply if all of them can be applied to bands of
+    // rows of the image one after the other, with no geometry or border, or
+    // null otherwise.
+    public List<FilterRepresentation> getBandFilters(FilterEnvironment environment) {
+        if (!mDoApplyGeometry || !mDoApplyFilters) {
+            return null;
+        }
+        ArrayList<FilterRepresentation> filters = new ArrayList<FilterRepresentation>();
+        for (FilterRepresentation representation : mFilters) {
+            if (representation instanceof FilterUserPresetRepresentation) {
+                continue;
+            }
+            int type = representation.getFilterType();
+            if (type == FilterRepresentation.TYPE_GEOMETRY
+                    || type == FilterRepresentation.TYPE_BORDER
+                    || type == FilterRepresentation.TYPE_DUALCAM
+                    || type == FilterRepresentation.TYPE_TRUEPORTRAIT) {
+                if (!representation.isNil()) {
+                    return null;
+                }
+                continue;
+            }
+            if (!environment.isTileableRepresentation(representation)) {
+                return null;
+            }
+            filters.add(representation);
+        }
+        return filters;
+    }
+
     public Bitmap applyFilters(Bitmap bitmap, int from, int to, FilterEnvironment environment) {
         if (mDoApplyFilters) {
             if (from < 0) {
@@ -673,6 +704,40 @@ public class ImagePreset {
                     // skip the true portrait as it's already applied.
                     continue;
                 }
+                if (environment.canRenderTiled(bitmap)
+                        && environment.isTileableRepresentation(representation)) {
+                    // Apply consecutive point and neighborhood filters on
+                    // bands of the bitmap in parallel.
+                    int end = i + 1;
+                    while (end < to
+                            && environment.isTileableRepresentation(mFilters.elementAt(end))) {
+                        end++;
+                    }
+                    if (environment.applyTiledRepresentations(mFilters.subList(i, end), bitmap)) {
+                        i = end - 1;
+                        if (environment.needsStop()) {
+                            return bitmap;
+                        }
+                        continue;
+                    }
+                }
+                if (environment.isPointRepresentation(representation)) {
+                    // Apply consecutive point filters in a single pass.
+                    int end = i + 1;
+                    while (end < to
+                            && environment.isPointRepresentation(mFilters.elementAt(end))) {
+                        end++;
+                    }
+                    if (end - i > 1) {
+                        bitmap = environment.applyPointRepresentations(
+                                mFilters.subList(i, end), bitmap);
+                        i = end - 1;
+                        if (environment.needsStop()) {
+                            return bitmap;
+                        }
+                        continue;
+                    }
+                }
                 Bitmap tmp = bitmap;
                 bitmap = environment.applyRepresentation(representation, bitmap);
                 if (tmp != bitmap) {
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import com.android.gallery3d.app.Log;
+import com.android.gallery3d.filtershow.cache.BitmapCache;
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+import com.android.gallery3d.filtershow.filters.ImageFilter;
+import com.android.gallery3d.filtershow.filters.PointFilter;
+import com.android.gallery3d.filtershow.filters.PointFilterKernel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a chain of point and neighborhood filters on horizontal bands of a
+ * bitmap in parallel.
+ *
+ * Each band is copied with enough rows above and below it (the halo) for
+ * the neighborhood filters of the chain, filtered by its own filter
+ * instances, and its inner rows are copied back once all the bands are
+ * done, so no band ever reads rows another band has already written.
+ */
+public class TiledRenderer {
+    private static final String LOGTAG = "TiledRenderer";
+
+    // Smaller bitmaps are not worth the copies.
+    private static final int MIN_PIXELS = 1024 * 1024;
+    private static final int MIN_BAND_HEIGHT = 64;
+
+    private static ForkJoinPool sPool;
+
+    // Filters keep the representation in use, so the bands filtered at the
+    // same time cannot share the instances of the FiltersManager. Each thread
+    // filtering bands keeps an instance of each filter class instead.
+    private static final ThreadLocal<HashMap<Class<?>, ImageFilter>> sBandFilters =
+            new ThreadLocal<HashMap<Class<?>, ImageFilter>>() {
+                @Override
+                protected HashMap<Class<?>, ImageFilter> initialValue() {
+                    return new HashMap<Class<?>, ImageFilter>();
+                }
+            };
+
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sPool;
+    }
+
+    public static boolean canRender(Bitmap bitmap) {
+        return Runtime.getRuntime().availableProcessors() > 1
+                && bitmap.getWidth() * bitmap.getHeight() >= MIN_PIXELS
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888;
+    }
+
+    public static boolean isTileable(ImageFilter filter) {
+        return filter != null && filter.getLocality() != ImageFilter.LOCALITY_GLOBAL;
+    }
+
+    /**
+     * Returns the number of rows a band needs above and below it to apply
+     * the representations, or -1 if they cannot be applied to bands.
+     */
+    public static int getHaloSize(FilterEnvironment environment,
+            List<FilterRepresentation> representations) {
+        int halo = 0;
+        for (FilterRepresentation representation : representations) {
+            ImageFilter filter = environment.getFiltersManager()
+                    .getFilterForRepresentation(representation);
+            if (!isTileable(filter) || !hasBandConstructor(filter)) {
+                return -1;
+            }
+            if (filter.getLocality() == ImageFilter.LOCALITY_NEIGHBORHOOD) {
+                halo += filter.getHaloSize();
+            }
+        }
+        return halo;
+    }
+
+    /**
+     * Applies the representations to the bitmap in place. Returns false,
+     * leaving the bitmap untouched, if the chain could not be run in bands.
+     */
+    public static boolean render(final FilterEnvironment environment,
+            final List<FilterRepresentation> representations, Bitmap bitmap) {
+        int halo = getHaloSize(environment, representations);
+        if (halo < 0) {
+            return false;
+        }
+
+        final int w = bitmap.getWidth();
+        final int h = bitmap.getHeight();
+        int count = Math.min(getPool().getParallelism(), h / MIN_BAND_HEIGHT);
+        if (count < 2) {
+            return false;
+        }
+        int bandHeight = (h + count - 1) / count;
+
+        final Bitmap source = bitmap;
+        final Paint paint = new Paint();
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        final Band[] bands = new Band[count];
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+        for (int i = 0; i < count; i++) {
+            final Band band = new Band();
+            band.top = i * bandHeight;
+            band.bottom = Math.min(h, band.top + bandHeight);
+            band.haloTop = Math.max(0, band.top - halo);
+            band.haloBottom = Math.min(h, band.bottom + halo);
+            bands[i] = band;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    band.bitmap = environment.getBitmap(w, band.haloBottom - band.haloTop,
+                            BitmapCache.TILE);
+                    Canvas canvas = new Canvas(band.bitmap);
+                    canvas.drawBitmap(source, new Rect(0, band.haloTop, w, band.haloBottom),
+                            new Rect(0, 0, w, band.haloBottom - band.haloTop), paint);
+                    applyToBand(environment, representations, band.bitmap);
+                    return null;
+                }
+            });
+        }
+
+        boolean done = true;
+        List<Future<Void>> results = getPool().invokeAll(tasks);
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (Exception e) {
+                Log.w(LOGTAG, "cannot render band", e);
+                done = false;
+            }
+        }
+
+        if (done && !environment.needsStop()) {
+            // The bands are done reading the source, so write their inner
+            // rows back.
+            Canvas canvas = new Canvas(source);
+            for (Band band : bands) {
+                int offset = band.top - band.haloTop;
+                canvas.drawBitmap(band.bitmap,
+                        new Rect(0, offset, w, offset + band.bottom - band.top),
+                        new Rect(0, band.top, w, band.bottom), paint);
+            }
+        }
+        for (Band band : bands) {
+            if (band.bitmap != null) {
+                environment.cache(band.bitmap);
+            }
+        }
+        environment.clearGeneralParameters();
+        return done;
+    }
+
+    /**
+     * Applies the representations to a band of rows in place, with the
+     * filter instances of the calling thread, so bands can be done on
+     * several threads. The rows within the halo size of the band edges are
+     * not valid afterwards.
+     */
+    public static void applyToBand(FilterEnvironment environment,
+            List<FilterRepresentation> representations, Bitmap bitmap) throws Exception {
+        // Runs of point filters still go through a single pass.
+        PointFilterKernel kernel = new PointFilterKernel();
+        for (FilterRepresentation representation : representations) {
+            if (environment.needsStop()) {
+                return;
+            }
+            ImageFilter filter = getBandFilter(environment, representation);
+            filter.useRepresentation(representation);
+            filter.setEnvironment(environment);
+            try {
+                if (filter instanceof PointFilter) {
+                    ((PointFilter) filter).appendTo(kernel);
+                    continue;
+                }
+                kernel.apply(bitmap);
+                kernel.clear();
+                if (filter.apply(bitmap, environment.getScaleFactor(),
+                        environment.getQuality()) != bitmap) {
+                    throw new IllegalStateException(filter.getName()
+                            + " does not work in place");
+                }
+            } finally {
+                // The general parameters are shared by the bands, so they are
+                // only cleared once all of them are done.
+                filter.setEnvironment(null);
+            }
+        }
+        kernel.apply(bitmap);
+    }
+
+    // The instances for the bands are created with the no-argument
+    // constructor, so filters without one are applied to whole bitmaps.
+    private static boolean hasBandConstructor(ImageFilter filter) {
+        try {
+            filter.getClass().getConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ImageFilter getBandFilter(FilterEnvironment environment,
+            FilterRepresentation representation) throws Exception {
+        Class<? extends ImageFilter> filterClass = environment.getFiltersManager()
+                .getFilterForRepresentation(representation).getClass();
+        HashMap<Class<?>, ImageFilter> filters = sBandFilters.get();
+        ImageFilter filter = filters.get(filterClass);
+        if (filter == null) {
+            filter = filterClass.getConstructor().newInstance();
+            filters.put(filterClass, filter);
+        }
+        return filter;
+    }
+
+    private static class Band {
+        int top;
+        int bottom;
+        int haloTop;
+        int haloBottom;
+        Bitmap bitmap;
+    }
+}
@@ -22,8 +22,10 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
+import java.util.List;
 import java.util.TimeZone;
 
 import android.content.ContentResolver;
@@ -35,6 +37,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
+import android.graphics.Point;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
@@ -63,8 +66,13 @@ import com.android.gallery3d.filtershow.filters.FilterTruePortraitFusionRepresen
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 import com.android.gallery3d.filtershow.imageshow.PrimaryImage;
 import com.android.gallery3d.filtershow.pipeline.CachingPipeline;
+import com.android.gallery3d.filtershow.pipeline.FilterEnvironment;
 import com.android.gallery3d.filtershow.pipeline.ImagePreset;
 import com.android.gallery3d.filtershow.pipeline.ProcessingService;
+import com.android.gallery3d.filtershow.pipeline.TiledRenderer;
+import com.android.gallery3d.jpegstream.JPEGInputStream;
+import com.android.gallery3d.jpegstream.JPEGOutputStream;
+import com.android.gallery3d.jpegstream.JpegConfig;
 import com.android.gallery3d.util.XmpUtilHelper;
 import androidx.heifwriter.HeifWriter;
 
@@ -104,6 +112,13 @@ public class SaveImage {
     private int mCurrentProcessingStep = 1;
 
     public static final int MAX_PROCESSING_STEPS = 6;
+
+    // Images are saved a band of rows at a time (see saveBands()) when the
+    // decoded image would take more than this part of the heap...
+    private static final int BAND_SAVE_HEAP_FRACTION = 8;
+    // ...using bands of about this many bytes.
+    private static final int BAND_SAVE_BYTES = 4 * 1024 * 1024;
+    private static final int BAND_SAVE_MIN_ROWS = 16;
     public static final String DEFAULT_SAVE_DIRECTORY = "EditedOnlinePhotos";
 
     // sync with UserHandle.PER_UID_RANGE
@@ -209,34 +224,38 @@ public class SaveImage {
         });
 
         if (fullPath[0] != null) {
-            // Construct the auxiliary directory given the source file's path.
-            // Then select and delete all the files starting with the same name
-            // under the auxiliary directory.
-            File currentFile = new File(fullPath[0]);
-
-            String filename = currentFile.getName();
-            int firstDotPos = filename.indexOf(".");
-            final String filenameNoExt = (firstDotPos == -1) ? filename :
-                filename.substring(0, firstDotPos);
-            File auxDir = getLocalAuxDirectory(currentFile);
-            if (auxDir.exists()) {
-                FilenameFilter filter = new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String name) {
-                        if (name.startsWith(filenameNoExt + ".")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
+            deleteAuxFiles(fullPath[0]);
+        }
+    }
 
-                // Delete all auxiliary files whose name is matching the
-                // current local image.
-                File[] auxFiles = auxDir.listFiles(filter);
-                for (File file : auxFiles) {
-                    file.delete();
+    public static void deleteAuxFiles(String fullPath) {
+        // Construct the auxiliary directory given the source file's path.
+        // Then select and delete all the files starting with the same name
+        // under the auxiliary directory.
+        File currentFile = new File(fullPath);
+
+        String filename = currentFile.getName();
+        int firstDotPos = filename.indexOf(".");
+        final String filenameNoExt = (firstDotPos == -1) ? filename :
+            filename.substring(0, firstDotPos);
+        File auxDir = getLocalAuxDirectory(currentFile);
+        if (auxDir.exists()) {
+            FilenameFilter filter = new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    if (name.startsWith(filenameNoExt + ".")) {
+                        return true;
+                    } else {
+                        return false;
+                    }
                 }
+            };
+
+            // Delete all auxiliary files whose name is matching the
+            // current local image.
+            File[] auxFiles = auxDir.listFiles(filter);
+            for (File file : auxFiles) {
+                file.delete();
             }
         }
     }
@@ -467,6 +486,31 @@ public class SaveImage {
             }
         }
 
+        if (!saveHeif && sizeFactor == 1f && canSaveBands(newSourceUri, preset)) {
+            updateProgress();
+            Object xmp = getPanoramaXMPData(newSourceUri, preset);
+            ExifInterface exif = getExifData(newSourceUri);
+            long time = System.currentTimeMillis();
+            updateExifData(exif, time);
+            updateProgress();
+            if (saveBands(newSourceUri, preset, exif, quality)) {
+                updateProgress();
+                putPanoramaXMPData(mDestinationFile, xmp);
+                if (!flatten) {
+                    XmpPresets.writeFilterXMP(mContext, newSourceUri,
+                            mDestinationFile, preset);
+                    uri = updateFile(mContext, savedUri, mDestinationFile, time);
+                } else {
+                    ContentValues values = getContentValues(mContext, mSelectedImageUri, mDestinationFile, time);
+                    mContext.getContentResolver().insert(
+                            Images.Media.EXTERNAL_CONTENT_URI, values);
+                }
+                updateProgress();
+                return uri;
+            }
+            resetProgress();
+        }
+
         // Stopgap fix for low-memory devices.
         while (noBitmap) {
             try {
@@ -554,6 +598,124 @@ public class SaveImage {
         return uri;
     }
 
+    private boolean canSaveBands(Uri source, ImagePreset preset) {
+        if (ImageLoader.getMetadataOrientation(mContext, source) != ImageLoader.ORI_NORMAL) {
+            return false;
+        }
+        FilterFusionRepresentation fusionRep = findFusionRepresentation(preset);
+        return fusionRep == null || !fusionRep.hasUnderlay();
+    }
+
+    /**
+     * Saves a large JPEG without decoding it whole: bands of rows are
+     * decoded, filtered and encoded one after the other, so any size can be
+     * saved at full resolution with a bounded heap. Only works if all the
+     * filters can be applied to bands (see ImagePreset.getBandFilters()).
+     * Returns false if the image was not saved this way.
+     */
+    private boolean saveBands(Uri source, ImagePreset preset, ExifInterface exif,
+            int quality) {
+        FilterEnvironment environment = new FilterEnvironment();
+        environment.setFiltersManager(FiltersManager.getManager());
+        environment.setScaleFactor(1.0f);
+        environment.setQuality(FilterEnvironment.QUALITY_FINAL);
+        environment.setImagePreset(preset);
+        List<FilterRepresentation> filters = preset.getBandFilters(environment);
+        if (filters == null) {
+            return false;
+        }
+        int halo = TiledRenderer.getHaloSize(environment, filters);
+        if (halo < 0) {
+            return false;
+        }
+
+        InputStream in = null;
+        JPEGInputStream jpegIn = null;
+        JPEGOutputStream jpegOut = null;
+        try {
+            in = mContext.getContentResolver().openInputStream(source);
+            jpegIn = new JPEGInputStream(in, JpegConfig.FORMAT_RGBA);
+            Point size = jpegIn.getDimensions();
+            if (size == null || size.x <= 0 || size.y <= 0) {
+                return false;
+            }
+            int w = size.x;
+            int h = size.y;
+            long stride = w * 4L;
+            if (stride * h <= Runtime.getRuntime().maxMemory() / BAND_SAVE_HEAP_FRACTION) {
+                // Small enough for the usual path.
+                return false;
+            }
+            int rows = (int) Math.max(BAND_SAVE_MIN_ROWS, BAND_SAVE_BYTES / stride);
+            if (2 * halo >= rows || rows >= h) {
+                return false;
+            }
+
+            // The window holds the decoded rows [windowTop, windowTop + windowRows),
+            // which are the band and its halo.
+            int windowCapacity = rows + 2 * halo;
+            byte[] window = new byte[(int) (windowCapacity * stride)];
+            byte[] output = new byte[window.length];
+            Bitmap band = Bitmap.createBitmap(w, windowCapacity, Bitmap.Config.ARGB_8888);
+            int windowTop = 0;
+            int windowRows = 0;
+            jpegOut = new JPEGOutputStream(exif.getExifWriterStream(
+                    mDestinationFile.getAbsolutePath()), w, h, quality, JpegConfig.FORMAT_RGBA);
+            for (int top = 0; top < h; top += rows) {
+                int bottom = Math.min(h, top + rows);
+                int needTop = Math.max(0, top - halo);
+                int needBottom = Math.min(h, bottom + halo);
+
+                // Keep the rows of the previous band that are still needed,
+                // then decode the rest.
+                int drop = needTop - windowTop;
+                if (drop > 0) {
+                    System.arraycopy(window, (int) (drop * stride), window, 0,
+                            (int) ((windowRows - drop) * stride));
+                    windowTop = needTop;
+                    windowRows -= drop;
+                }
+                readFully(jpegIn, window, (int) (windowRows * stride),
+                        (int) ((needBottom - windowTop - windowRows) * stride));
+                windowRows = needBottom - windowTop;
+
+                int length = (int) (windowRows * stride);
+                band.reconfigure(w, windowRows, Bitmap.Config.ARGB_8888);
+                band.copyPixelsFromBuffer(ByteBuffer.wrap(window, 0, length));
+                TiledRenderer.applyToBand(environment, filters, band);
+                band.copyPixelsToBuffer(ByteBuffer.wrap(output, 0, length));
+                jpegOut.write(output, (int) ((top - windowTop) * stride),
+                        (int) ((bottom - top) * stride));
+            }
+            band.recycle();
+            jpegOut.close();
+            jpegOut = null;
+            return true;
+        } catch (Exception e) {
+            Log.w(LOGTAG, "Cannot save " + source + " in bands", e);
+            return false;
+        } catch (OutOfMemoryError e) {
+            Log.w(LOGTAG, "Cannot save " + source + " in bands", e);
+            return false;
+        } finally {
+            Utils.closeSilently(jpegOut);
+            Utils.closeSilently(jpegIn);
+            Utils.closeSilently(in);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int count)
+            throws IOException {
+        while (count > 0) {
+            int n = in.read(buffer, offset, count);
+            if (n < 0) {
+                throw new IOException("unexpected end of image");
+            }
+            offset += n;
+            count -= n;
+        }
+    }
+
     /**
      *  Move the source file to auxiliary directory if needed and return the Uri
      *  pointing to this new source file. If any file error happens, then just
@@ -20,7 +20,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
@@ -94,14 +93,10 @@ public class LocalPhotoSource implements WidgetSource {
     }
 
     @Override
-    public Bitmap getImage(int index) {
+    public MediaItem getMediaItem(int index) {
         if (index >= mPhotos.size()) return null;
         long id = mPhotos.get(index);
-        MediaItem image = (MediaItem)
-                mDataManager.getMediaObject(LOCAL_IMAGE_ROOT.getChild(id));
-        if (image == null) return null;
-
-        return WidgetUtils.createWidgetBitmap(image);
+        return (MediaItem) mDataManager.getMediaObject(LOCAL_IMAGE_ROOT.getChild(id));
     }
 
     private int[] getExponentialIndice(int total, int count) {
@@ -16,7 +16,6 @@
 
 package com.android.gallery3d.gadget;
 
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 
@@ -62,8 +61,8 @@ public class MediaSetSource implements WidgetSource, ContentListener {
     }
 
     @Override
-    public Bitmap getImage(int index) {
-        return mSource.getImage(index);
+    public MediaItem getMediaItem(int index) {
+        return mSource.getMediaItem(index);
     }
 
     @Override
@@ -166,10 +165,10 @@ public class MediaSetSource implements WidgetSource, ContentListener {
         }
 
         @Override
-        public synchronized Bitmap getImage(int index) {
+        public synchronized MediaItem getMediaItem(int index) {
             ensureCacheRange(index);
             if (index < mCacheStart || index >= mCacheEnd) return null;
-            return WidgetUtils.createWidgetBitmap(mCache[index - mCacheStart]);
+            return mCache[index - mCacheStart];
         }
 
         @Override
@@ -212,7 +211,7 @@ public class MediaSetSource implements WidgetSource, ContentListener {
         }
 
         @Override
-        public Bitmap getImage(int index) {
+        public MediaItem getMediaItem(int index) {
             throw new UnsupportedOperationException();
         }
 
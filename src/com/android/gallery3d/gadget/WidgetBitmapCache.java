@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.gadget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.DecodeUtils;
+import com.android.gallery3d.data.LocalMediaItem;
+import com.android.gallery3d.data.MediaItem;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// WidgetBitmapCache keeps the bitmaps of the widget cells, already scaled to
+// the widget size.
+//
+// The cells the stack view is likely to ask for next are prefetched on the
+// thread pool, so the binder calls for them only wait for a decode that has
+// started earlier, if at all. The scaled bitmaps are also saved as JPEG data
+// in a cache file, so the widget does not go back to the originals after the
+// process is restarted.
+public class WidgetBitmapCache {
+    private static final String TAG = "WidgetBitmapCache";
+
+    private static final String WIDGET_CACHE_FILE = "widgetcache";
+    private static final int WIDGET_CACHE_MAX_ENTRIES = 1000;
+    private static final int WIDGET_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+    private static final int WIDGET_CACHE_VERSION = 1;
+
+    // The bitmaps kept in memory: the prefetched cells, and the last few
+    // shown, for the user going back in the stack.
+    private static final int MEMORY_CACHE_ENTRIES = 8;
+
+    private final Context mContext;
+    private final ThreadPool mThreadPool;
+    private final LruCache<String, Bitmap> mBitmaps =
+            new LruCache<String, Bitmap>(MEMORY_CACHE_ENTRIES);
+    private final HashMap<String, Future<Bitmap>> mPending =
+            new HashMap<String, Future<Bitmap>>();
+    private BlobCache mDiskCache;
+    private boolean mDiskCacheOpened;
+
+    public WidgetBitmapCache(Context context, ThreadPool threadPool) {
+        mContext = context;
+        mThreadPool = threadPool;
+    }
+
+    // Returns the widget bitmap of the item, decoding it on the calling
+    // thread unless it is cached or being prefetched.
+    public Bitmap getBitmap(MediaItem item) {
+        String key = getKey(item);
+        Future<Bitmap> future;
+        synchronized (this) {
+            Bitmap bitmap = mBitmaps.get(key);
+            if (bitmap != null) return bitmap;
+            future = mPending.get(key);
+        }
+        if (future != null) {
+            Bitmap bitmap = future.get();
+            if (bitmap != null) return bitmap;
+        }
+        return load(ThreadPool.JOB_CONTEXT_STUB, item, key);
+    }
+
+    // Starts decoding the widget bitmap of the item in the background.
+    public synchronized void prefetch(final MediaItem item) {
+        final String key = getKey(item);
+        if (mBitmaps.get(key) != null || mPending.containsKey(key)) return;
+        mPending.put(key, mThreadPool.submit(new Job<Bitmap>() {
+            @Override
+            public Bitmap run(JobContext jc) {
+                try {
+                    return load(jc, item, key);
+                } finally {
+                    synchronized (WidgetBitmapCache.this) {
+                        mPending.remove(key);
+                    }
+                }
+            }
+        }));
+    }
+
+    // Drops the bitmaps in memory and the pending prefetches. The saved
+    // bitmaps are keyed by the modification time of the items, so those of
+    // changed items are simply not found again.
+    public synchronized void clear() {
+        for (Future<Bitmap> future : mPending.values()) {
+            future.cancel();
+        }
+        mPending.clear();
+        mBitmaps.evictAll();
+    }
+
+    private Bitmap load(JobContext jc, MediaItem item, String key) {
+        boolean persistent = item instanceof LocalMediaItem;
+        Bitmap bitmap = persistent ? getFromDisk(jc, key) : null;
+        if (bitmap == null) {
+            bitmap = WidgetUtils.createWidgetBitmap(jc, item);
+            if (bitmap == null || jc.isCancelled()) return null;
+            if (persistent) putToDisk(key, bitmap);
+        }
+        synchronized (this) {
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    // The key changes with the widget size, and with the modification time
+    // and the rotation of the item, since a rotation may only be in the
+    // media store.
+    private static String getKey(MediaItem item) {
+        long version = (item instanceof LocalMediaItem)
+                ? ((LocalMediaItem) item).dateModifiedInSec
+                : item.getDataVersion();
+        return item.getPath() + "+" + version + "+" + item.getRotation() + "+"
+                + WidgetUtils.getWidgetWidth() + "x" + WidgetUtils.getWidgetHeight();
+    }
+
+    private synchronized BlobCache getDiskCache() {
+        if (!mDiskCacheOpened) {
+            mDiskCache = CacheManager.getCache(mContext, WIDGET_CACHE_FILE,
+                    WIDGET_CACHE_MAX_ENTRIES, WIDGET_CACHE_MAX_BYTES,
+                    WIDGET_CACHE_VERSION, true);
+            mDiskCacheOpened = true;
+        }
+        return mDiskCache;
+    }
+
+    // The key is stored in front of the image data, so a crc collision is
+    // taken as a miss.
+    private Bitmap getFromDisk(JobContext jc, String key) {
+        BlobCache cache = getDiskCache();
+        if (cache == null) return null;
+        byte[] keyBytes = key.getBytes();
+        try {
+            byte[] data = cache.lookup(Utils.crc64Long(keyBytes));
+            if (data == null || data.length <= keyBytes.length
+                    || !Arrays.equals(keyBytes, Arrays.copyOf(data, keyBytes.length))) {
+                return null;
+            }
+            return DecodeUtils.decode(jc, data, keyBytes.length,
+                    data.length - keyBytes.length, null);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read widget cache", e);
+            return null;
+        }
+    }
+
+    private void putToDisk(String key, Bitmap bitmap) {
+        BlobCache cache = getDiskCache();
+        if (cache == null) return;
+        byte[] keyBytes = key.getBytes();
+        byte[] data = BitmapUtils.compressToBytes(bitmap);
+        try {
+            cache.insert(Utils.crc64Long(keyBytes), keyBytes, data, 0, data.length);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write widget cache", e);
+        }
+    }
+}
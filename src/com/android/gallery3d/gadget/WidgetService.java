@@ -30,6 +30,7 @@ import com.android.gallery3d.R;
 import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.data.ContentListener;
+import com.android.gallery3d.data.MediaItem;
 
 @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
 public class WidgetService extends RemoteViewsService {
@@ -54,12 +55,16 @@ public class WidgetService extends RemoteViewsService {
     private static class PhotoRVFactory implements
             RemoteViewsService.RemoteViewsFactory, ContentListener {
 
+        // The number of cells after the one shown which are decoded ahead.
+        private static final int PREFETCH_COUNT = 3;
+
         private final int mAppWidgetId;
         private final int mType;
         private final String mAlbumPath;
         private final GalleryApp mApp;
 
         private WidgetSource mSource;
+        private WidgetBitmapCache mBitmapCache;
 
         public PhotoRVFactory(GalleryApp app, int id, int type, String albumPath) {
             mApp = app;
@@ -76,6 +81,8 @@ public class WidgetService extends RemoteViewsService {
                 mSource = new LocalPhotoSource(mApp.getAndroidContext());
             }
             mSource.setContentListener(this);
+            mBitmapCache = new WidgetBitmapCache(mApp.getAndroidContext(),
+                    mApp.getThreadPool());
             AppWidgetManager.getInstance(mApp.getAndroidContext())
                     .notifyAppWidgetViewDataChanged(
                     mAppWidgetId, R.id.appwidget_stack_view);
@@ -85,6 +92,7 @@ public class WidgetService extends RemoteViewsService {
         public void onDestroy() {
             mSource.close();
             mSource = null;
+            mBitmapCache.clear();
         }
 
         @Override
@@ -120,7 +128,9 @@ public class WidgetService extends RemoteViewsService {
         public RemoteViews getViewAt(int position) {
             Bitmap bitmap = null;
             try {
-                bitmap = mSource.getImage(position);
+                MediaItem item = mSource.getMediaItem(position);
+                if (item != null) bitmap = mBitmapCache.getBitmap(item);
+                prefetch(position);
             } catch (UnsupportedOperationException e){
                 // catch exception here to avoid FC
             }
@@ -166,6 +176,16 @@ public class WidgetService extends RemoteViewsService {
             return views;
         }
 
+        // The stack view moves through the cells in order, so the next ones
+        // are the likely ones to be asked for next.
+        private void prefetch(int position) {
+            int count = mSource.size();
+            for (int i = 1; i <= PREFETCH_COUNT && i < count; i++) {
+                MediaItem item = mSource.getMediaItem((position + i) % count);
+                if (item != null) mBitmapCache.prefetch(item);
+            }
+        }
+
         @Override
         public void onDataSetChanged() {
             mSource.reload();
@@ -173,6 +193,7 @@ public class WidgetService extends RemoteViewsService {
 
         @Override
         public void onContentDirty() {
+            mBitmapCache.clear();
             AppWidgetManager.getInstance(mApp.getAndroidContext())
                     .notifyAppWidgetViewDataChanged(
                     mAppWidgetId, R.id.appwidget_stack_view);
@@ -16,14 +16,14 @@
 
 package com.android.gallery3d.gadget;
 
-import android.graphics.Bitmap;
 import android.net.Uri;
 
 import com.android.gallery3d.data.ContentListener;
+import com.android.gallery3d.data.MediaItem;
 
 public interface WidgetSource {
     public int size();
-    public Bitmap getImage(int index);
+    public MediaItem getMediaItem(int index);
     public Uri getContentUri(int index);
     public void setContentListener(ContentListener listener);
     public void reload();
@@ -25,8 +25,10 @@ import android.graphics.Paint;
 import android.util.Log;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.data.DecodeUtils;
+import com.android.gallery3d.data.LocalImage;
 import com.android.gallery3d.data.MediaItem;
-import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.JobContext;
 
 public class WidgetUtils {
 
@@ -44,9 +46,27 @@ public class WidgetUtils {
         sStackPhotoHeight = r.getDimensionPixelSize(R.dimen.stack_photo_height);
     }
 
-    public static Bitmap createWidgetBitmap(MediaItem image) {
-        Bitmap bitmap = image.requestImage(MediaItem.TYPE_THUMBNAIL)
-               .run(ThreadPool.JOB_CONTEXT_STUB);
+    public static int getWidgetWidth() {
+        return sStackPhotoWidth;
+    }
+
+    public static int getWidgetHeight() {
+        return sStackPhotoHeight;
+    }
+
+    public static Bitmap createWidgetBitmap(JobContext jc, MediaItem image) {
+        Bitmap bitmap = null;
+        if (image instanceof LocalImage && image.getFilePath() != null) {
+            // Decode just large enough to fill the widget, rather than to
+            // the thumbnail size. The shorter side of the decoded image is
+            // at least the longer side of the widget.
+            bitmap = DecodeUtils.decodeThumbnail(jc, image.getFilePath(), null,
+                    Math.max(sStackPhotoWidth, sStackPhotoHeight),
+                    MediaItem.TYPE_MICROTHUMBNAIL);
+        }
+        if (bitmap == null && !jc.isCancelled()) {
+            bitmap = image.requestImage(MediaItem.TYPE_THUMBNAIL).run(jc);
+        }
         if (bitmap == null) {
             Log.w(TAG, "fail to get image of " + image.toString());
             return null;
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+// AtlasAllocator hands out fixed-size slots of atlas pages, with no GL
+// calls, so it can be used (and tested) on its own.
+//
+// A slot is an int: the page index times the slots per page, plus the index
+// of the slot in the page. Slots are taken from the fullest page that has
+// room, so the pages stay dense and empty ones can be released. At most one
+// empty page is kept around, so a grid scrolling back and forth does not
+// release and reallocate a page every time.
+public class AtlasAllocator {
+    private final int mSlotsPerPage;
+    private final int mMaxPages;
+
+    // The free slots of each page as a stack, null for released pages.
+    private final int[][] mFreeSlots;
+    private final int[] mFreeCounts;
+    private int mPageCount;
+    private int mUsedSlots;
+
+    public AtlasAllocator(int slotsPerPage, int maxPages) {
+        mSlotsPerPage = slotsPerPage;
+        mMaxPages = maxPages;
+        mFreeSlots = new int[maxPages][];
+        mFreeCounts = new int[maxPages];
+    }
+
+    public int getSlotsPerPage() {
+        return mSlotsPerPage;
+    }
+
+    public int getMaxPages() {
+        return mMaxPages;
+    }
+
+    // Returns a free slot, or -1 if all the pages are full.
+    public synchronized int allocate() {
+        int page = -1;
+        for (int i = 0; i < mMaxPages; i++) {
+            if (mFreeSlots[i] == null || mFreeCounts[i] == 0) continue;
+            if (page == -1 || mFreeCounts[i] < mFreeCounts[page]) page = i;
+        }
+        if (page == -1) page = openPage();
+        if (page == -1) return -1;
+        mUsedSlots++;
+        return page * mSlotsPerPage + mFreeSlots[page][--mFreeCounts[page]];
+    }
+
+    // Gives back a slot. Returns the index of a page that became unused and
+    // should be released by the caller, or -1.
+    public synchronized int free(int slot) {
+        int page = slot / mSlotsPerPage;
+        mFreeSlots[page][mFreeCounts[page]++] = slot % mSlotsPerPage;
+        mUsedSlots--;
+        if (mFreeCounts[page] < mSlotsPerPage) return -1;
+        // Keep this page if it is the only empty one.
+        for (int i = 0; i < mMaxPages; i++) {
+            if (i != page && mFreeSlots[i] != null && mFreeCounts[i] == mSlotsPerPage) {
+                closePage(page);
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    public int getPage(int slot) {
+        return slot / mSlotsPerPage;
+    }
+
+    public int getIndexInPage(int slot) {
+        return slot % mSlotsPerPage;
+    }
+
+    // Returns true if the page is open (it has slots in use, or is kept).
+    public synchronized boolean isPageOpen(int page) {
+        return mFreeSlots[page] != null;
+    }
+
+    public synchronized int getPageCount() {
+        return mPageCount;
+    }
+
+    public synchronized int getUsedSlots() {
+        return mUsedSlots;
+    }
+
+    // The fraction of the slots of the open pages that are in use.
+    public synchronized float getOccupancy() {
+        return mPageCount == 0 ? 0 : (float) mUsedSlots / (mPageCount * mSlotsPerPage);
+    }
+
+    // The fraction of the open pages that would not be needed if the used
+    // slots were packed together.
+    public synchronized float getFragmentation() {
+        if (mPageCount == 0) return 0;
+        int needed = (mUsedSlots + mSlotsPerPage - 1) / mSlotsPerPage;
+        return (float) (mPageCount - Math.max(needed, 1)) / mPageCount;
+    }
+
+    private int openPage() {
+        for (int i = 0; i < mMaxPages; i++) {
+            if (mFreeSlots[i] != null) continue;
+            int[] slots = new int[mSlotsPerPage];
+            // Pushed in reverse, so the slots are used in order.
+            for (int j = 0; j < mSlotsPerPage; j++) {
+                slots[j] = mSlotsPerPage - 1 - j;
+            }
+            mFreeSlots[i] = slots;
+            mFreeCounts[i] = mSlotsPerPage;
+            mPageCount++;
+            return i;
+        }
+        return -1;
+    }
+
+    private void closePage(int page) {
+        mFreeSlots[page] = null;
+        mFreeCounts[page] = 0;
+        mPageCount--;
+    }
+}
@@ -27,6 +27,7 @@ package com.android.gallery3d.glrenderer;
 // -- ColorTexture
 // -- FadeInTexture
 // -- BasicTexture
+//    -- TextureAtlas.Page
 //    -- UploadedTexture
 //       -- BitmapTexture
 //       -- Tile
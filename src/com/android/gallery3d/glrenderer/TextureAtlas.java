@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import android.graphics.Bitmap;
+
+import javax.microedition.khronos.opengles.GL11;
+
+// TextureAtlas packs small textures of a fixed size into a few large GL
+// textures (pages), so a grid of thumbnails binds a handful of textures
+// instead of one per thumbnail. The slots are managed by an AtlasAllocator.
+public class TextureAtlas {
+    private final int mSlotSize;
+    private final int mSlotsPerRow;
+    private final AtlasAllocator mAllocator;
+    private final Page[] mPages;
+
+    // A page is allocated on the GPU when it is first drawn into, and its
+    // content is lost with the GL context, which bumps its generation.
+    public static class Page extends BasicTexture {
+        private int mGeneration;
+
+        Page(int size) {
+            setSize(size, size);
+        }
+
+        public int getGeneration() {
+            return mGeneration;
+        }
+
+        @Override
+        protected boolean onBind(GLCanvas canvas) {
+            if (isLoaded()) return true;
+            GLId glId = canvas.getGLId();
+            mId = glId.generateTexture();
+            canvas.initializeTextureSize(this, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
+            canvas.setTextureParameters(this);
+            mState = STATE_LOADED;
+            mGeneration++;
+            setAssociatedCanvas(canvas);
+            return true;
+        }
+
+        @Override
+        protected int getTarget() {
+            return GL11.GL_TEXTURE_2D;
+        }
+
+        @Override
+        public boolean isOpaque() {
+            return false;
+        }
+    }
+
+    public TextureAtlas(int slotSize, int pageSize, int maxPages) {
+        mSlotSize = slotSize;
+        mSlotsPerRow = pageSize / slotSize;
+        mAllocator = new AtlasAllocator(mSlotsPerRow * mSlotsPerRow, maxPages);
+        mPages = new Page[maxPages];
+        for (int i = 0; i < maxPages; i++) {
+            mPages[i] = new Page(pageSize);
+        }
+    }
+
+    public int getSlotSize() {
+        return mSlotSize;
+    }
+
+    // Returns a free slot, or -1 if the atlas is full.
+    public int allocate() {
+        return mAllocator.allocate();
+    }
+
+    public void free(int slot) {
+        int page = mAllocator.free(slot);
+        // The page has no slot in use any more, give its memory back.
+        if (page != -1) mPages[page].recycle();
+    }
+
+    public Page getPage(int slot) {
+        return mPages[mAllocator.getPage(slot)];
+    }
+
+    public int getSlotLeft(int slot) {
+        return (mAllocator.getIndexInPage(slot) % mSlotsPerRow) * mSlotSize;
+    }
+
+    public int getSlotTop(int slot) {
+        return (mAllocator.getIndexInPage(slot) / mSlotsPerRow) * mSlotSize;
+    }
+
+    // Uploads a bitmap of the slot size into the slot. Returns the
+    // generation of the page the content belongs to.
+    public int upload(GLCanvas canvas, int slot, Bitmap bitmap) {
+        Page page = getPage(slot);
+        page.onBind(canvas);
+        canvas.texSubImage2D(page, getSlotLeft(slot), getSlotTop(slot), bitmap,
+                GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
+        return page.getGeneration();
+    }
+
+    public AtlasAllocator getAllocator() {
+        return mAllocator;
+    }
+
+    public int getPageCount() {
+        return mAllocator.getPageCount();
+    }
+
+    public float getOccupancy() {
+        return mAllocator.getOccupancy();
+    }
+
+    public float getFragmentation() {
+        return mAllocator.getFragmentation();
+    }
+}
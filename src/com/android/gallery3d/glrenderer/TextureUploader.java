@@ -17,23 +17,21 @@
 package com.android.gallery3d.glrenderer;
 
 import com.android.gallery3d.ui.GLRoot;
-import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
 
 import java.util.ArrayDeque;
 
-public class TextureUploader implements OnGLIdleListener {
+// TextureUploader queues UploadedTextures for the UploadScheduler of a GLRoot.
+public class TextureUploader implements UploadScheduler.Source {
     private static final int INIT_CAPACITY = 64;
-    private static final int QUOTA_PER_FRAME = 1;
 
     private final ArrayDeque<UploadedTexture> mFgTextures =
             new ArrayDeque<UploadedTexture>(INIT_CAPACITY);
     private final ArrayDeque<UploadedTexture> mBgTextures =
             new ArrayDeque<UploadedTexture>(INIT_CAPACITY);
-    private final GLRoot mGLRoot;
-    private volatile boolean mIsQueued = false;
+    private final UploadScheduler mScheduler;
 
     public TextureUploader(GLRoot root) {
-        mGLRoot = root;
+        mScheduler = UploadScheduler.getInstance(root);
     }
 
     public synchronized void clear() {
@@ -45,61 +43,60 @@ public class TextureUploader implements OnGLIdleListener {
         }
     }
 
-    // caller should hold synchronized on "this"
-    private void queueSelfIfNeed() {
-        if (mIsQueued) return;
-        mIsQueued = true;
-        mGLRoot.addOnGLIdleListener(this);
+    public void addBgTexture(UploadedTexture t) {
+        synchronized (this) {
+            if (t.isContentValid()) return;
+            mBgTextures.addLast(t);
+            t.setIsUploading(true);
+        }
+        mScheduler.schedule(this);
     }
 
-    public synchronized void addBgTexture(UploadedTexture t) {
-        if (t.isContentValid()) return;
-        mBgTextures.addLast(t);
-        t.setIsUploading(true);
-        queueSelfIfNeed();
+    public void addFgTexture(UploadedTexture t) {
+        synchronized (this) {
+            if (t.isContentValid()) return;
+            mFgTextures.addLast(t);
+            t.setIsUploading(true);
+        }
+        mScheduler.schedule(this);
     }
 
-    public synchronized void addFgTexture(UploadedTexture t) {
-        if (t.isContentValid()) return;
-        mFgTextures.addLast(t);
-        t.setIsUploading(true);
-        queueSelfIfNeed();
+    @Override
+    public synchronized int peekUpload(boolean foreground) {
+        ArrayDeque<UploadedTexture> deque = foreground ? mFgTextures : mBgTextures;
+        while (!deque.isEmpty()) {
+            UploadedTexture t = deque.peekFirst();
+            if (!t.isContentValid()) return Math.max(1, t.getWidth() * t.getHeight());
+            deque.removeFirst();
+            t.setIsUploading(false);
+        }
+        return 0;
     }
 
-    private int upload(GLCanvas canvas, ArrayDeque<UploadedTexture> deque,
-            int uploadQuota, boolean isBackground) {
-        while (uploadQuota > 0) {
-            UploadedTexture t;
-            synchronized (this) {
-                if (deque.isEmpty()) break;
-                t = deque.removeFirst();
-                t.setIsUploading(false);
-                if (t.isContentValid()) continue;
-
-                // this has to be protected by the synchronized block
-                // to prevent the inner bitmap get recycled
-                t.updateContent(canvas);
-            }
+    @Override
+    public void upload(GLCanvas canvas, boolean foreground) {
+        UploadedTexture t;
+        synchronized (this) {
+            ArrayDeque<UploadedTexture> deque = foreground ? mFgTextures : mBgTextures;
+            if (deque.isEmpty()) return;
+            t = deque.removeFirst();
+            t.setIsUploading(false);
+            if (t.isContentValid()) return;
 
-            // It will took some more time for a texture to be drawn for
-            // the first time.
-            // Thus, when scrolling, if a new column appears on screen,
-            // it may cause a UI jank even these textures are uploaded.
-            if (isBackground) t.draw(canvas, 0, 0);
-            --uploadQuota;
+            // this has to be protected by the synchronized block
+            // to prevent the inner bitmap get recycled
+            t.updateContent(canvas);
         }
-        return uploadQuota;
+
+        // It will took some more time for a texture to be drawn for
+        // the first time.
+        // Thus, when scrolling, if a new column appears on screen,
+        // it may cause a UI jank even these textures are uploaded.
+        if (!foreground) t.draw(canvas, 0, 0);
     }
 
     @Override
-    public boolean onGLIdle(GLCanvas canvas, boolean renderRequested, long dueTime) {
-        int uploadQuota = QUOTA_PER_FRAME;
-        uploadQuota = upload(canvas, mFgTextures, uploadQuota, false);
-        if (uploadQuota < QUOTA_PER_FRAME) mGLRoot.requestRender();
-        upload(canvas, mBgTextures, uploadQuota, true);
-        synchronized (this) {
-            mIsQueued = !mFgTextures.isEmpty() || !mBgTextures.isEmpty();
-            return mIsQueued;
-        }
+    public synchronized int getPendingCount() {
+        return mFgTextures.size() + mBgTextures.size();
     }
 }
@@ -26,7 +26,6 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 
 import com.android.gallery3d.ui.GLRoot;
-import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -58,51 +57,63 @@ public class TiledTexture implements Texture {
     private final RectF mSrcRect = new RectF();
     private final RectF mDestRect = new RectF();
 
-    public static class Uploader implements OnGLIdleListener {
+    // Bitmaps that fit in one tile go to a slot of a shared atlas instead,
+    // which saves a GL texture per thumbnail. The bitmap is kept to upload
+    // it again if the page loses its content.
+    private static final int ATLAS_PAGE_SIZE = 2048;
+    private static final int ATLAS_MAX_PAGES = 4;
+    private static final TextureAtlas sAtlas =
+            new TextureAtlas(TILE_SIZE, ATLAS_PAGE_SIZE, ATLAS_MAX_PAGES);
+    private int mSlot;  // -1 if the texture uses tiles
+    private Bitmap mSlotBitmap;
+    private int mSlotGeneration;
+    private boolean mRecycled;  // Protected by the lock of mTiles.
+
+    // Uploads the textures through the UploadScheduler of a GLRoot, one
+    // tile at a time, as foreground uploads.
+    public static class Uploader implements UploadScheduler.Source {
         private final ArrayDeque<TiledTexture> mTextures = new ArrayDeque<>(INIT_CAPACITY);
 
-        private final GLRoot mGlRoot;
-        private boolean mIsQueued = false;
+        private final UploadScheduler mScheduler;
 
         public Uploader(GLRoot glRoot) {
-            mGlRoot = glRoot;
+            mScheduler = UploadScheduler.getInstance(glRoot);
         }
 
         public synchronized void clear() {
             mTextures.clear();
         }
 
-        public synchronized void addTexture(TiledTexture t) {
-            if (t.isReady()) return;
-            mTextures.addLast(t);
-
-            if (mIsQueued) return;
-            mIsQueued = true;
-            mGlRoot.addOnGLIdleListener(this);
+        public void addTexture(TiledTexture t) {
+            synchronized (this) {
+                if (t.isReady()) return;
+                mTextures.addLast(t);
+            }
+            mScheduler.schedule(this);
         }
 
         @Override
-        public boolean onGLIdle(GLCanvas canvas, boolean renderRequested, long dueTime) {
-            ArrayDeque<TiledTexture> deque = mTextures;
-            synchronized (this) {
-                long now = System.nanoTime();
-                long uploadTime = 0;
-                while (now + uploadTime < dueTime && !deque.isEmpty()) {
-                    TiledTexture t = deque.peekFirst();
-                    if (t.uploadNextTile(canvas)) {
-                        deque.removeFirst();
-                        mGlRoot.requestRender();
-                    }
-                    long t1 = System.nanoTime();
-                    uploadTime = t1 - now;
-                    now = t1;
-                }
-                mIsQueued = !mTextures.isEmpty();
+        public synchronized int peekUpload(boolean foreground) {
+            if (!foreground) return 0;
+            while (!mTextures.isEmpty()) {
+                if (!mTextures.peekFirst().isReady()) return TILE_SIZE * TILE_SIZE;
+                mTextures.removeFirst();
+            }
+            return 0;
+        }
 
-                // return true to keep this listener in the queue
-                return mIsQueued;
+        @Override
+        public synchronized void upload(GLCanvas canvas, boolean foreground) {
+            TiledTexture t = mTextures.peekFirst();
+            if (t != null && t.uploadNextTile(canvas)) {
+                mTextures.removeFirst();
             }
         }
+
+        @Override
+        public synchronized int getPendingCount() {
+            return mTextures.size();
+        }
     }
 
     private static class Tile extends UploadedTexture {
@@ -130,18 +141,8 @@ public class TiledTexture implements Texture {
             Bitmap localBitmapRef = bitmap;
             bitmap = null;
 
-            if (localBitmapRef != null && sCanvas != null) {
-                int x = BORDER_SIZE - offsetX;
-                int y = BORDER_SIZE - offsetY;
-                int r = localBitmapRef.getWidth() + x;
-                int b = localBitmapRef.getHeight() + y;
-                sCanvas.drawBitmap(localBitmapRef, x, y, sBitmapPaint);
-
-                // draw borders if need
-                if (x > 0) sCanvas.drawLine(x - 1, 0, x - 1, TILE_SIZE, sPaint);
-                if (y > 0) sCanvas.drawLine(0, y - 1, TILE_SIZE, y - 1, sPaint);
-                if (r < CONTENT_SIZE) sCanvas.drawLine(r, 0, r, TILE_SIZE, sPaint);
-                if (b < CONTENT_SIZE) sCanvas.drawLine(0, b, TILE_SIZE, b, sPaint);
+            if (localBitmapRef != null) {
+                drawUploadBitmap(localBitmapRef, offsetX, offsetY);
             }
 
             return sUploadBitmap;
@@ -153,6 +154,24 @@ public class TiledTexture implements Texture {
         }
     }
 
+    // Draws the part of the bitmap at the offset into the upload bitmap,
+    // with a transparent border around it.
+    private static boolean drawUploadBitmap(Bitmap bitmap, int offsetX, int offsetY) {
+        if (sCanvas == null) return false;
+        int x = BORDER_SIZE - offsetX;
+        int y = BORDER_SIZE - offsetY;
+        int r = bitmap.getWidth() + x;
+        int b = bitmap.getHeight() + y;
+        sCanvas.drawBitmap(bitmap, x, y, sBitmapPaint);
+
+        // draw borders if need
+        if (x > 0) sCanvas.drawLine(x - 1, 0, x - 1, TILE_SIZE, sPaint);
+        if (y > 0) sCanvas.drawLine(0, y - 1, TILE_SIZE, y - 1, sPaint);
+        if (r < CONTENT_SIZE) sCanvas.drawLine(r, 0, r, TILE_SIZE, sPaint);
+        if (b < CONTENT_SIZE) sCanvas.drawLine(0, b, TILE_SIZE, b, sPaint);
+        return true;
+    }
+
     private static void freeTile(Tile tile) {
         tile.invalidateContent();
         tile.bitmap = null;
@@ -173,6 +192,7 @@ public class TiledTexture implements Texture {
     }
 
     private boolean uploadNextTile(GLCanvas canvas) {
+        if (mSlot != -1) return uploadSlot(canvas);
         if (mUploadIndex == mTiles.length) return true;
 
         synchronized (mTiles) {
@@ -194,9 +214,47 @@ public class TiledTexture implements Texture {
         return mUploadIndex == mTiles.length;
     }
 
+    // Uploads the bitmap into the atlas slot, again if the content of the
+    // page was lost. Returns true since this is the only upload.
+    private boolean uploadSlot(GLCanvas canvas) {
+        synchronized (mTiles) {
+            if (mSlot == -1 || mSlotBitmap == null) return true;
+            TextureAtlas.Page page = sAtlas.getPage(mSlot);
+            if (page.isLoaded() && page.getGeneration() == mSlotGeneration) return true;
+            if (drawUploadBitmap(mSlotBitmap, 0, 0)) {
+                mSlotGeneration = sAtlas.upload(canvas, mSlot, sUploadBitmap);
+            }
+        }
+        return true;
+    }
+
+    // Sets the source rectangle to the content of the atlas slot, uploading
+    // it first if needed. Returns false if there is nothing to draw. Should
+    // be called with the lock of mTiles held.
+    private boolean prepareSlot(GLCanvas canvas, RectF source) {
+        uploadSlot(canvas);
+        TextureAtlas.Page page = sAtlas.getPage(mSlot);
+        if (!page.isLoaded() || page.getGeneration() != mSlotGeneration) return false;
+        float left = sAtlas.getSlotLeft(mSlot) + BORDER_SIZE;
+        float top = sAtlas.getSlotTop(mSlot) + BORDER_SIZE;
+        source.set(left, top, left + mWidth, top + mHeight);
+        return true;
+    }
+
     public TiledTexture(Bitmap bitmap) {
         mWidth = bitmap.getWidth();
         mHeight = bitmap.getHeight();
+        if (mWidth <= CONTENT_SIZE && mHeight <= CONTENT_SIZE) {
+            // A single tile: use a slot of the atlas if there is one left.
+            mSlot = sAtlas.allocate();
+            if (mSlot != -1) {
+                mSlotBitmap = bitmap;
+                mTiles = new Tile[0];
+                return;
+            }
+        } else {
+            mSlot = -1;
+        }
         ArrayList<Tile> list = new ArrayList<>();
 
         for (int x = 0, w = mWidth; x < w; x += CONTENT_SIZE) {
@@ -215,12 +273,29 @@ public class TiledTexture implements Texture {
     }
 
     public boolean isReady() {
+        // Like tiles, a slot stays ready if the GL context is lost, it is
+        // uploaded again when it is drawn.
+        if (mSlot != -1) return mSlotGeneration != 0;
         return mUploadIndex == mTiles.length;
     }
 
-    // Can be called in UI thread.
+    // Returns the atlas of the textures that fit in one tile, for its
+    // occupancy and fragmentation.
+    public static TextureAtlas getAtlas() {
+        return sAtlas;
+    }
+
+    // Can be called in UI thread. Calling it again does nothing, since the
+    // tiles may already be in use by another texture.
     public void recycle() {
         synchronized (mTiles) {
+            if (mRecycled) return;
+            mRecycled = true;
+            if (mSlot != -1) {
+                sAtlas.free(mSlot);
+                mSlot = -1;
+                mSlotBitmap = null;
+            }
             for (Tile mTile : mTiles) {
                 freeTile(mTile);
             }
@@ -275,6 +350,13 @@ public class TiledTexture implements Texture {
         float scaleX = (float) width / mWidth;
         float scaleY = (float) height / mHeight;
         synchronized (mTiles) {
+            if (mSlot != -1) {
+                if (prepareSlot(canvas, src)) {
+                    dest.set(x, y, x + width, y + height);
+                    canvas.drawMixed(sAtlas.getPage(mSlot), color, ratio, src, dest);
+                }
+                return;
+            }
             for (Tile t : mTiles) {
                 src.set(0, 0, t.contentWidth, t.contentHeight);
                 src.offset(t.offsetX, t.offsetY);
@@ -293,6 +375,13 @@ public class TiledTexture implements Texture {
         float scaleX = (float) width / mWidth;
         float scaleY = (float) height / mHeight;
         synchronized (mTiles) {
+            if (mSlot != -1) {
+                if (prepareSlot(canvas, src)) {
+                    dest.set(x, y, x + width, y + height);
+                    canvas.drawTexture(sAtlas.getPage(mSlot), src, dest);
+                }
+                return;
+            }
             for (Tile t : mTiles) {
                 src.set(0, 0, t.contentWidth, t.contentHeight);
                 src.offset(t.offsetX, t.offsetY);
@@ -315,6 +404,18 @@ public class TiledTexture implements Texture {
         float scaleY = target.height() / source.height();
 
         synchronized (mTiles) {
+            if (mSlot != -1) {
+                if (prepareSlot(canvas, src)) {
+                    float left = src.left;
+                    float top = src.top;
+                    src.set(0, 0, mWidth, mHeight);
+                    if (!src.intersect(source)) return;
+                    mapRect(dest, src, x0, y0, x, y, scaleX, scaleY);
+                    src.offset(left, top);
+                    canvas.drawTexture(sAtlas.getPage(mSlot), src, dest);
+                }
+                return;
+            }
             for (Tile t : mTiles) {
                 src.set(0, 0, t.contentWidth, t.contentHeight);
                 src.offset(t.offsetX, t.offsetY);
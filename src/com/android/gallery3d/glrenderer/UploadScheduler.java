@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import com.android.gallery3d.ui.GLRoot;
+import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+// UploadScheduler uploads the textures of all the sources of a GLRoot in
+// the idle time between frames.
+//
+// It keeps an estimate of the upload time per pixel, and only starts an
+// upload if it should be done before the due time of the frame, so small
+// textures (like labels) go many per frame, and big ones do not cause
+// jank. Foreground uploads of any source go before the background ones.
+public class UploadScheduler implements OnGLIdleListener {
+    // The estimate before the first measure: about 0.1 ms for a 256x256 tile.
+    private static final float INIT_NANOS_PER_PIXEL = 1.5f;
+    // The weight of a new measure in the estimate.
+    private static final float COST_WEIGHT = 0.125f;
+
+    // A source of textures to upload.
+    public interface Source {
+        // Returns the number of pixels of the next upload of the given
+        // priority, or 0 if there is nothing to upload with that priority.
+        public int peekUpload(boolean foreground);
+
+        // Does the next upload of the given priority.
+        public void upload(GLCanvas canvas, boolean foreground);
+
+        // Returns the number of uploads left.
+        public int getPendingCount();
+    }
+
+    private static final WeakHashMap<GLRoot, UploadScheduler> sSchedulers =
+            new WeakHashMap<GLRoot, UploadScheduler>();
+
+    // Weak, so the map of the schedulers does not keep the root alive.
+    private final WeakReference<GLRoot> mGLRoot;
+    private final ArrayList<Source> mSources = new ArrayList<Source>();
+    private boolean mIsQueued = false;
+
+    // Only used in the GL thread.
+    private int mNextSource = 0;
+    private float mNanosPerPixel = INIT_NANOS_PER_PIXEL;
+
+    private volatile int mLastFrameUploads;
+    private volatile long mUploadCount;
+    private volatile long mUploadNanos;
+    private volatile long mFrameCount;
+
+    // Returns the scheduler shared by the views of the given GLRoot.
+    public static UploadScheduler getInstance(GLRoot root) {
+        synchronized (sSchedulers) {
+            UploadScheduler scheduler = sSchedulers.get(root);
+            if (scheduler == null) {
+                scheduler = new UploadScheduler(root);
+                sSchedulers.put(root, scheduler);
+            }
+            return scheduler;
+        }
+    }
+
+    UploadScheduler(GLRoot root) {
+        mGLRoot = new WeakReference<GLRoot>(root);
+    }
+
+    // Asks for the uploads of the source to be done. A source calls this
+    // when it gets new work, without holding its own lock, since the
+    // scheduler calls getPendingCount() with its lock held.
+    public void schedule(Source source) {
+        synchronized (this) {
+            if (!mSources.contains(source)) mSources.add(source);
+            if (mIsQueued) return;
+            mIsQueued = true;
+        }
+        GLRoot root = mGLRoot.get();
+        if (root != null) root.addOnGLIdleListener(this);
+    }
+
+    public synchronized void remove(Source source) {
+        mSources.remove(source);
+    }
+
+    @Override
+    public boolean onGLIdle(GLCanvas canvas, boolean renderRequested, long dueTime) {
+        int uploads = 0;
+        boolean foregroundUploaded = false;
+        long now = System.nanoTime();
+        while (true) {
+            boolean foreground = true;
+            Source source = findSource(true);
+            if (source == null) {
+                foreground = false;
+                source = findSource(false);
+            }
+            if (source == null) break;
+
+            int pixels = source.peekUpload(foreground);
+            if (pixels <= 0) continue;
+            long estimate = (long) (pixels * mNanosPerPixel);
+            // One foreground upload is always done, so nothing waits forever
+            // behind a late frame.
+            if (now + estimate > dueTime && (uploads > 0 || !foreground)) break;
+
+            source.upload(canvas, foreground);
+            long t = System.nanoTime();
+            long spent = t - now;
+            now = t;
+            mNanosPerPixel += COST_WEIGHT * ((float) spent / pixels - mNanosPerPixel);
+            mUploadNanos += spent;
+            mUploadCount++;
+            uploads++;
+            foregroundUploaded |= foreground;
+        }
+        mLastFrameUploads = uploads;
+        mFrameCount++;
+        GLRoot root = mGLRoot.get();
+        if (foregroundUploaded && root != null) root.requestRender();
+
+        synchronized (this) {
+            for (int i = mSources.size() - 1; i >= 0; i--) {
+                if (mSources.get(i).getPendingCount() == 0) mSources.remove(i);
+            }
+            mIsQueued = !mSources.isEmpty();
+            // return true to keep this listener in the queue
+            return mIsQueued;
+        }
+    }
+
+    // Returns the next source, in turn, that has an upload of the given
+    // priority, or null if there is none.
+    private Source findSource(boolean foreground) {
+        Source[] sources;
+        synchronized (this) {
+            sources = mSources.toArray(new Source[mSources.size()]);
+        }
+        int n = sources.length;
+        for (int i = 0; i < n; i++) {
+            int index = (mNextSource + i) % n;
+            if (sources[index].peekUpload(foreground) > 0) {
+                mNextSource = index + 1;
+                return sources[index];
+            }
+        }
+        return null;
+    }
+
+    // The number of uploads done in the last idle time between frames.
+    public int getLastFrameUploads() {
+        return mLastFrameUploads;
+    }
+
+    // The number of uploads waiting in all the sources.
+    public int getBacklog() {
+        Source[] sources;
+        synchronized (this) {
+            sources = mSources.toArray(new Source[mSources.size()]);
+        }
+        int backlog = 0;
+        for (Source source : sources) {
+            backlog += source.getPendingCount();
+        }
+        return backlog;
+    }
+
+    public long getUploadCount() {
+        return mUploadCount;
+    }
+
+    // The total time spent in uploads, in nanoseconds.
+    public long getUploadNanos() {
+        return mUploadNanos;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    // The current estimate of the upload time per pixel, in nanoseconds.
+    public float getNanosPerPixel() {
+        return mNanosPerPixel;
+    }
+}
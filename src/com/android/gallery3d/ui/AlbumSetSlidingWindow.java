@@ -181,10 +181,29 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
 
         if (mIsActive) {
             updateTextureUploadQueue();
+            updateLoadPriorities();
             updateAllImageRequests();
         }
     }
 
+    // Returns the distance of the slot from the active range, which is used
+    // as the priority of its loads, so the visible slots are loaded first.
+    private int getSlotPriority(int slotIndex) {
+        if (slotIndex < mActiveStart) return mActiveStart - slotIndex;
+        if (slotIndex >= mActiveEnd) return slotIndex - mActiveEnd + 1;
+        return ThreadPool.PRIORITY_DEFAULT;
+    }
+
+    private void updateLoadPriorities() {
+        for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
+            AlbumSetEntry entry = mData[i % mData.length];
+            if (entry == null) continue;
+            int priority = getSlotPriority(i);
+            if (entry.coverLoader != null) entry.coverLoader.setPriority(priority);
+            if (entry.labelLoader != null) entry.labelLoader.setPriority(priority);
+        }
+    }
+
     // We would like to request non active slots in the following order:
     // Order:    8 6 4 2                   1 3 5 7
     //         |---------|---------------|---------|
@@ -269,6 +288,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             if (album != null) {
                 entry.labelLoader = new AlbumLabelLoader(
                         slotIndex, title, totalCount, sourceType);
+                entry.labelLoader.setPriority(getSlotPriority(slotIndex));
             }
         }
 
@@ -279,11 +299,14 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             if (entry.coverLoader != null) {
                 entry.coverLoader.recycle();
                 entry.coverLoader = null;
+                // The texture may hold a slot of the shared atlas.
+                if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
                 entry.bitmapTexture = null;
                 entry.content = null;
             }
             if (cover != null) {
                 entry.coverLoader = new AlbumCoverLoader(slotIndex, cover);
+                entry.coverLoader.setPriority(getSlotPriority(slotIndex));
             }
         }
     }
@@ -430,7 +453,12 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
             return mThreadPool.submit(mMediaItem.requestImage(
-                    MediaItem.TYPE_MICROTHUMBNAIL), l);
+                    MediaItem.TYPE_MICROTHUMBNAIL), l, getPriority());
+        }
+
+        @Override
+        protected void onPriorityChanged(Future<Bitmap> task, int priority) {
+            mThreadPool.setPriority(task, priority);
         }
 
         @Override
@@ -445,6 +473,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
 
             AlbumSetEntry entry = mData[mSlotIndex % mData.length];
             TiledTexture texture = new TiledTexture(bitmap);
+            if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
             entry.bitmapTexture = texture;
             entry.content = texture;
 
@@ -494,7 +523,13 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
             return mThreadPool.submit(mLabelMaker.requestLabel(
-                    mTitle, String.valueOf(mTotalCount), mSourceType), l);
+                    mTitle, String.valueOf(mTotalCount), mSourceType), l,
+                    getPriority());
+        }
+
+        @Override
+        protected void onPriorityChanged(Future<Bitmap> task, int priority) {
+            mThreadPool.setPriority(task, priority);
         }
 
         @Override
@@ -45,6 +45,7 @@ import com.android.gallery3d.glrenderer.TiledTexture;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.JobLimiter;
+import com.android.gallery3d.util.ThreadPool;
 
 public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
     @SuppressWarnings("unused")
@@ -225,10 +226,34 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         int contentEnd = Math.min(contentStart + data.length, mSize);
         setContentWindow(contentStart, contentEnd);
         updateTextureUploadQueue();
+        updateLoadPriorities();
         if (mIsActive)
             updateAllImageRequests();
     }
 
+    // Returns the distance of the slot from the active range, which is used
+    // as the priority of its loads, so the visible slots are loaded first.
+    private int getSlotPriority(int slotIndex) {
+        if (slotIndex < mActiveStart) return mActiveStart - slotIndex;
+        if (slotIndex >= mActiveEnd) return slotIndex - mActiveEnd + 1;
+        return ThreadPool.PRIORITY_DEFAULT;
+    }
+
+    private void updateLoadPriorities() {
+        if (!mIsActive)
+            return;
+        for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
+            AlbumEntry entry = mData[i % mData.length];
+            if (entry == null)
+                continue;
+            int priority = getSlotPriority(i);
+            if (entry.contentLoader != null)
+                entry.contentLoader.setPriority(priority);
+            if (entry.labelLoader != null)
+                entry.labelLoader.setPriority(priority);
+        }
+    }
+
     private void uploadBgTextureInSlot(int index) {
         if (index < mContentEnd && index >= mContentStart) {
             AlbumEntry entry = mData[index % mData.length];
@@ -389,6 +414,7 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         entry.path = (item == null) ? null : item.getPath();
         entry.rotation = (item == null) ? 0 : item.getRotation();
         entry.contentLoader = new ThumbnailLoader(slotIndex, entry.item);
+        entry.contentLoader.setPriority(getSlotPriority(slotIndex));
         if (!mViewType) {
             if (entry.labelLoader != null) {
                 entry.labelLoader.recycle();
@@ -397,6 +423,7 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
             }
             if (entry.name != null) {
                 entry.labelLoader = new AlbumLabelLoader(slotIndex, entry.name);
+                entry.labelLoader.setPriority(getSlotPriority(slotIndex));
             }
         }
         mData[slotIndex % mData.length] = entry;
@@ -451,7 +478,13 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
             return mThreadPool.submit(
-                    mItem.requestImage(MediaItem.TYPE_MICROTHUMBNAIL), this);
+                    mItem.requestImage(MediaItem.TYPE_MICROTHUMBNAIL), this,
+                    getPriority());
+        }
+
+        @Override
+        protected void onPriorityChanged(Future<Bitmap> task, int priority) {
+            mThreadPool.setPriority(task, priority);
         }
 
         @Override
@@ -465,6 +498,7 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
             if (bitmap == null)
                 return; // error or recycled
             AlbumEntry entry = mData[mSlotIndex % mData.length];
+            if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
             entry.bitmapTexture = new TiledTexture(bitmap);
             entry.content = entry.bitmapTexture;
 
@@ -543,7 +577,13 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
 
         @Override
         protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l) {
-            return mThreadPool.submit(mLabelMaker.requestLabel(mTitle), this);
+            return mThreadPool.submit(mLabelMaker.requestLabel(mTitle), this,
+                    getPriority());
+        }
+
+        @Override
+        protected void onPriorityChanged(Future<Bitmap> task, int priority) {
+            mThreadPool.setPriority(task, priority);
         }
 
         @Override
@@ -596,6 +636,7 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
             }
             if (entry.name != null) {
                 entry.labelLoader = new AlbumLabelLoader(i, entry.name);
+                entry.labelLoader.setPriority(getSlotPriority(i));
             }
         }
         updateAllImageRequests();
@@ -21,6 +21,7 @@ import android.graphics.Bitmap;
 import com.android.photos.data.GalleryBitmapPool;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
+import com.android.gallery3d.util.ThreadPool;
 
 // We use this class to
 //     1.) load bitmaps in background.
@@ -44,6 +45,7 @@ public abstract class BitmapLoader implements FutureListener<Bitmap> {
     // mTask is not null only when a task is on the way
     private Future<Bitmap> mTask;
     private Bitmap mBitmap;
+    private int mPriority = ThreadPool.PRIORITY_DEFAULT;
 
     @Override
     public void onFutureDone(Future<Bitmap> future) {
@@ -91,6 +93,18 @@ public abstract class BitmapLoader implements FutureListener<Bitmap> {
         if (mTask != null) mTask.cancel();
     }
 
+    // Sets the priority of the load, see ThreadPool.PRIORITY_DEFAULT. If a task
+    // is on the way, onPriorityChanged() is called to re-prioritize it.
+    public synchronized void setPriority(int priority) {
+        if (mPriority == priority) return;
+        mPriority = priority;
+        if (mTask != null) onPriorityChanged(mTask, priority);
+    }
+
+    public synchronized int getPriority() {
+        return mPriority;
+    }
+
     public synchronized boolean isRequestInProgress() {
         return mState == STATE_REQUESTED;
     }
@@ -105,4 +119,9 @@ public abstract class BitmapLoader implements FutureListener<Bitmap> {
 
     abstract protected Future<Bitmap> submitBitmapTask(FutureListener<Bitmap> l);
     abstract protected void onLoadComplete(Bitmap bitmap);
+
+    // Subclasses which submit prioritized tasks should pass the new priority
+    // to the pool they submitted the task to.
+    protected void onPriorityChanged(Future<Bitmap> task, int priority) {
+    }
 }
@@ -58,6 +58,9 @@ public class MenuExecutor {
     private static final int MSG_TASK_START = 3;
     private static final int MSG_DO_SHARE = 4;
 
+    // The number of items deleted together by a media operation.
+    private static final int BULK_CHUNK_SIZE = 100;
+
     public static final int EXECUTION_RESULT_SUCCESS = 1;
     public static final int EXECUTION_RESULT_FAIL = 2;
     public static final int EXECUTION_RESULT_CANCEL = 3;
@@ -376,17 +379,18 @@ public class MenuExecutor {
 
     public void startAction(int action, int title, ProgressListener listener,
             boolean waitOnStop, boolean showDialog) {
-        ArrayList<Path> ids = mSelectionManager.getSelected(false);
+        // The paths are listed by the operation, in chunks.
+        SelectionManager.Selection selection = mSelectionManager.getSelection();
         stopTaskAndDismissDialog();
 
         Activity activity = mActivity;
         if (showDialog) {
-            mDialog = createProgressDialog(activity, title, ids.size());
+            mDialog = createProgressDialog(activity, title, selection.getCount());
             mDialog.show();
         } else {
             mDialog = null;
         }
-        MediaOperation operation = new MediaOperation(action, ids, listener);
+        MediaOperation operation = new MediaOperation(action, selection, listener);
         mTask = mActivity.getBatchServiceThreadPoolIfAvailable().submit(operation, null);
         mWaitOnStop = waitOnStop;
     }
@@ -457,42 +461,85 @@ public class MenuExecutor {
         return result;
     }
 
-    private class MediaOperation implements Job<Void> {
+    private static boolean isBulkDelete(int cmd) {
+        return cmd == R.id.action_delete || cmd == R.id.photopage_bottom_control_delete;
+    }
+
+    private class MediaOperation implements Job<Void>, SelectionManager.ChunkConsumer {
         private final ArrayList<Path> mItems;
+        private final SelectionManager.Selection mSelection;
         private final int mOperation;
         private final ProgressListener mListener;
 
+        // Only used in run().
+        private JobContext mJobContext;
+        private int mIndex;
+        private int mResult;
+
         public MediaOperation(int operation, ArrayList<Path> items,
                 ProgressListener listener) {
             mOperation = operation;
             mItems = items;
+            mSelection = null;
+            mListener = listener;
+        }
+
+        public MediaOperation(int operation, SelectionManager.Selection selection,
+                ProgressListener listener) {
+            mOperation = operation;
+            mItems = null;
+            mSelection = selection;
             mListener = listener;
         }
 
         @Override
         public Void run(JobContext jc) {
-            int index = 0;
-            DataManager manager = mActivity.getDataManager();
-            int result = EXECUTION_RESULT_SUCCESS;
+            mJobContext = jc;
+            mIndex = 0;
+            mResult = EXECUTION_RESULT_SUCCESS;
             try {
                 onProgressStart(mListener);
-                for (Path id : mItems) {
-                    if (jc.isCancelled()) {
-                        result = EXECUTION_RESULT_CANCEL;
-                        break;
-                    }
-                    if (!execute(manager, jc, mOperation, id)) {
-                        result = EXECUTION_RESULT_FAIL;
-                    }
-                    onProgressUpdate(index++, mListener);
+                boolean done = mSelection != null
+                        ? mSelection.forEachChunk(jc, BULK_CHUNK_SIZE, this)
+                        : consume(mItems);
+                if (!done) {
+                    mResult = jc.isCancelled()
+                            ? EXECUTION_RESULT_CANCEL : EXECUTION_RESULT_FAIL;
                 }
             } catch (Throwable th) {
                 Log.e(TAG, "failed to execute operation " + mOperation
                         + " : " + th);
+                mResult = EXECUTION_RESULT_FAIL;
             } finally {
-               onProgressComplete(result, mListener);
+               onProgressComplete(mResult, mListener);
             }
             return null;
         }
+
+        @Override
+        public boolean consume(ArrayList<Path> items) {
+            DataManager manager = mActivity.getDataManager();
+            if (isBulkDelete(mOperation)) {
+                // Deletes go to the sources in chunks, so they can batch
+                // their database operations and change notifications.
+                for (int i = 0, n = items.size(); i < n; i += BULK_CHUNK_SIZE) {
+                    if (mJobContext.isCancelled()) return false;
+                    int end = Math.min(n, i + BULK_CHUNK_SIZE);
+                    manager.delete(i == 0 && end == n
+                            ? items : new ArrayList<Path>(items.subList(i, end)));
+                    mIndex += end - i;
+                    onProgressUpdate(mIndex - 1, mListener);
+                }
+                return true;
+            }
+            for (Path id : items) {
+                if (mJobContext.isCancelled()) return false;
+                if (!execute(manager, mJobContext, mOperation, id)) {
+                    mResult = EXECUTION_RESULT_FAIL;
+                }
+                onProgressUpdate(mIndex++, mListener);
+            }
+            return true;
+        }
     }
 }
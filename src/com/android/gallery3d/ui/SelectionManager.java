@@ -25,13 +25,14 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
 public class SelectionManager implements TimeLineDataLoader.DataListener, AlbumSetDataLoader.DataListener{
-    @SuppressWarnings("unused")
     private static final String TAG = "SelectionManager";
 
     public static final int ENTER_SELECTION_MODE = 1;
@@ -77,7 +78,11 @@ public class SelectionManager implements TimeLineDataLoader.DataListener, AlbumS
     }
 
     public SelectionManager(AbstractGalleryActivity activity, boolean isAlbumSet) {
-        mDataManager = activity.getDataManager();
+        this(activity.getDataManager(), isAlbumSet);
+    }
+
+    SelectionManager(DataManager dataManager, boolean isAlbumSet) {
+        mDataManager = dataManager;
         mClickedSet = new HashSet<Path>();
         mIsAlbumSet = isAlbumSet;
         mTotal = -1;
@@ -324,6 +329,112 @@ public class SelectionManager implements TimeLineDataLoader.DataListener, AlbumS
         }
     }
 
+    /**
+     * Returns a snapshot of the selection, which lists the selected items
+     * in chunks, without building the list of all of them. The snapshot
+     * does not change with the selection, and can be used in a job.
+     */
+    public Selection getSelection() {
+        if (mIsAlbumSet && mInverseSelection) {
+            // There are few albums, so they are listed now, while they are
+            // the ones on screen.
+            return new Selection(mDataManager, null, false,
+                    getSelected(false), -1, getSelectedCount());
+        }
+        if (mInverseSelection && mSourceMediaSet != null) {
+            return new Selection(mDataManager, mSourceMediaSet, true, mClickedSet,
+                    mSourceMediaSet.getMediaItemCount(), getSelectedCount());
+        }
+        return new Selection(mDataManager, null, false, mClickedSet, -1,
+                getSelectedCount());
+    }
+
+    public interface ChunkConsumer {
+        // Called with each chunk of selected paths, returns false to stop.
+        public boolean consume(ArrayList<Path> chunk);
+    }
+
+    public static class Selection {
+        private final DataManager mDataManager;
+        private final MediaSet mSourceMediaSet;
+        private final boolean mInverseSelection;
+        // The selected paths, or in select-all mode the items left out, so
+        // it stays small when everything is selected.
+        private final HashSet<Path> mClickedSet;
+        // In select-all mode, the set as the user saw it when the snapshot
+        // was taken.
+        private final long mDataVersion;
+        private final int mItemCount;
+        private final int mCount;
+
+        private Selection(DataManager dataManager, MediaSet set, boolean inverseSelection,
+                Collection<Path> clickedSet, int itemCount, int count) {
+            mDataManager = dataManager;
+            mSourceMediaSet = set;
+            mInverseSelection = inverseSelection;
+            mClickedSet = new HashSet<Path>(clickedSet);
+            mDataVersion = set != null ? set.getDataVersion() : 0;
+            mItemCount = itemCount;
+            mCount = count;
+        }
+
+        // Returns the number of selected items, as counted when the
+        // snapshot was taken.
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Gives the selected paths to the consumer in chunks of at most the
+         * given size, like getSelected(false). Returns false if the job was
+         * cancelled, the consumer stopped, or the set changed since the
+         * snapshot was taken.
+         *
+         * In select-all mode, the paths of the whole set are listed first,
+         * before the consumer changes anything. The selection is then
+         * checked against the set the user saw: if its data version or its
+         * size changed, nothing is given to the consumer, since the items
+         * would not be the ones selected.
+         */
+        public boolean forEachChunk(JobContext jc, int chunkSize, ChunkConsumer consumer) {
+            Collection<Path> paths = mClickedSet;
+            if (mInverseSelection) {
+                if (mSourceMediaSet.getDataVersion() != mDataVersion) return false;
+                ArrayList<Path> all = mSourceMediaSet.getMediaItemPaths();
+                if (mSourceMediaSet.getDataVersion() != mDataVersion
+                        || all.size() != mItemCount) {
+                    Log.w(TAG, "selected set changed, " + all.size()
+                            + " items instead of " + mItemCount);
+                    return false;
+                }
+                paths = all;
+            }
+
+            ArrayList<Path> chunk = new ArrayList<Path>(chunkSize);
+            for (Path id : paths) {
+                if (mInverseSelection && mClickedSet.contains(id)) continue;
+                addPathIfSelectable(chunk, id);
+                if (chunk.size() == chunkSize) {
+                    if (jc.isCancelled() || !consumer.consume(chunk)) return false;
+                    chunk = new ArrayList<Path>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                if (jc.isCancelled() || !consumer.consume(chunk)) return false;
+            }
+            return true;
+        }
+
+        private void addPathIfSelectable(ArrayList<Path> chunk, Path path) {
+            if (mDataManager != null) {
+                MediaObject mediaObject = mDataManager.getMediaObject(path);
+                if (mediaObject != null && mediaObject.isSelectable()) {
+                    chunk.add(path);
+                }
+            }
+        }
+    }
+
     public void setSourceMediaSet(MediaSet set) {
         mSourceMediaSet = set;
         mTotal = -1;
@@ -30,21 +30,19 @@ import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.DecodeUtils;
 import com.android.photos.data.GalleryBitmapPool;
 import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.gallery3d.glrenderer.UploadScheduler;
 import com.android.gallery3d.glrenderer.UploadedTexture;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.ThreadPool;
 import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TileImageView extends GLView {
     public static final int SIZE_UNKNOWN = -1;
 
     @SuppressWarnings("unused")
     private static final String TAG = "TileImageView";
-    private static final int UPLOAD_LIMIT = 1;
-
     // TILE_SIZE must be 2^N
     private static int sTileSize;
 
@@ -151,7 +149,8 @@ public class TileImageView extends GLView {
 
     public TileImageView(GalleryContext context) {
         mThreadPool = context.getThreadPool();
-        mTileDecoder = mThreadPool.submit(new TileDecoder());
+        mTileDecoder = mThreadPool.submit(new TileDecoder(), null,
+                ThreadPool.PRIORITY_FOREGROUND);
         if (sTileSize == 0) {
             if (isHighResolution(context.getAndroidContext())) {
                 // Need to tuning
@@ -391,7 +390,8 @@ public class TileImageView extends GLView {
 
     public void prepareTextures() {
         if (mTileDecoder == null) {
-            mTileDecoder = mThreadPool.submit(new TileDecoder());
+            mTileDecoder = mThreadPool.submit(new TileDecoder(), null,
+                ThreadPool.PRIORITY_FOREGROUND);
         }
         if (mIsTextureFreed) {
             layoutTiles(mCenterX, mCenterY, mScale, mRotation);
@@ -476,8 +476,9 @@ public class TileImageView extends GLView {
         synchronized (this) {
             mUploadQueue.push(tile);
         }
-        if (getGLRoot() != null && mTileUploader.mActive.compareAndSet(false, true)) {
-            getGLRoot().addOnGLIdleListener(mTileUploader);
+        GLRoot root = getGLRoot();
+        if (root != null) {
+            UploadScheduler.getInstance(root).schedule(mTileUploader);
         }
     }
 
@@ -556,31 +557,37 @@ public class TileImageView extends GLView {
         return result;
     }
 
-    private class TileUploader implements GLRoot.OnGLIdleListener {
-        AtomicBoolean mActive = new AtomicBoolean(false);
+    // Uploads the decoded tiles through the UploadScheduler of the GLRoot,
+    // as foreground uploads since they are on screen.
+    private class TileUploader implements UploadScheduler.Source {
+        @Override
+        public int peekUpload(boolean foreground) {
+            if (!foreground) return 0;
+            synchronized (TileImageView.this) {
+                return mUploadQueue.peek() == null ? 0 : sTileSize * sTileSize;
+            }
+        }
 
         @Override
-        public boolean onGLIdle(GLCanvas canvas, boolean renderRequested, long dueTime) {
-            long now = System.nanoTime();
-            long uploadTime = 0;
-            Tile tile = null;
-            while (now + uploadTime < dueTime) {
-                synchronized (TileImageView.this) {
-                    tile = mUploadQueue.pop();
-                }
-                if (tile == null) break;
-                if (!tile.isContentValid()) {
-                    boolean hasBeenLoaded = tile.isLoaded();
-                    Utils.assertTrue(tile.mTileState == STATE_DECODED);
-                    tile.updateContent(canvas);
-                    if (!hasBeenLoaded) tile.draw(canvas, 0, 0);
-                }
-                long t1 = System.nanoTime();
-                uploadTime = t1 - now;
-                now = t1;
+        public void upload(GLCanvas canvas, boolean foreground) {
+            Tile tile;
+            synchronized (TileImageView.this) {
+                tile = mUploadQueue.pop();
+            }
+            if (tile == null) return;
+            if (!tile.isContentValid()) {
+                boolean hasBeenLoaded = tile.isLoaded();
+                Utils.assertTrue(tile.mTileState == STATE_DECODED);
+                tile.updateContent(canvas);
+                if (!hasBeenLoaded) tile.draw(canvas, 0, 0);
+            }
+        }
+
+        @Override
+        public int getPendingCount() {
+            synchronized (TileImageView.this) {
+                return mUploadQueue.size();
             }
-            if (tile == null) mActive.set(false);
-            return tile != null;
         }
     }
 
@@ -729,10 +736,18 @@ public class TileImageView extends GLView {
 
     private static class TileQueue {
         private Tile mHead;
+        private int mSize;
+
+        public Tile peek() {
+            return mHead;
+        }
 
         public Tile pop() {
             Tile tile = mHead;
-            if (tile != null) mHead = tile.mNext;
+            if (tile != null) {
+                mHead = tile.mNext;
+                mSize--;
+            }
             return tile;
         }
 
@@ -740,11 +755,17 @@ public class TileImageView extends GLView {
             boolean wasEmpty = mHead == null;
             tile.mNext = mHead;
             mHead = tile;
+            mSize++;
             return wasEmpty;
         }
 
+        public int size() {
+            return mSize;
+        }
+
         public void clean() {
             mHead = null;
+            mSize = 0;
         }
     }
 
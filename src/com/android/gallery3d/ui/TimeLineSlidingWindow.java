@@ -324,6 +324,7 @@ public class TimeLineSlidingWindow implements TimeLineDataLoader.DataListener {
 
                 AlbumEntry entry = mData[mSlotIndex % mData.length];
                 if (entry == null)  return;
+                if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
                 entry.bitmapTexture = new TiledTexture(bitmap);
                 entry.content = entry.bitmapTexture;
 
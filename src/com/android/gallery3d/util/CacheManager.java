@@ -38,6 +38,13 @@ public class CacheManager {
     // This can only be called from data thread.
     public static BlobCache getCache(Context context, String filename,
             int maxEntries, int maxBytes, int version) {
+        return getCache(context, filename, maxEntries, maxBytes, version, false);
+    }
+
+    // Same as above, but the cache is opened in concurrent mode if
+    // "concurrent" is true, so the callers do not need to synchronize on it.
+    public static BlobCache getCache(Context context, String filename,
+            int maxEntries, int maxBytes, int version, boolean concurrent) {
         synchronized (sCacheMap) {
             if (!sOldCheckDone) {
                 removeOldFilesIfNecessary(context);
@@ -50,7 +57,7 @@ public class CacheManager {
                     String path = cacheDir.getAbsolutePath() + "/" + filename;
                     try {
                         cache = new BlobCache(path, maxEntries, maxBytes, false,
-                                version);
+                                version, concurrent);
                         sCacheMap.put(filename, cache);
                     } catch (IOException e) {
                         Log.e(TAG, "Cannot instantiate cache!", e);
@@ -6,6 +6,8 @@ import android.util.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 public class GifDecoder extends Thread {
 
@@ -14,6 +16,12 @@ public class GifDecoder extends Thread {
     public static final int STATUS_OPEN_ERROR = 2;
     public static final int STATUS_FINISH = -1;
 
+    // The number of frames decoded ahead in streaming mode.
+    public static final int DEFAULT_RING_SIZE = 2;
+    // The streaming frames the caller may hold at once: the one shown, and
+    // the next one while it replaces it.
+    private static final int HELD_FRAMES = 2;
+
     private InputStream mIS;
     private int mStatus;
 
@@ -68,18 +76,52 @@ public class GifDecoder extends Thread {
 
     private byte[] mGifData = null;
 
+    // The composed frame, reused for every frame.
+    private int[] mDest;
+
+    // Streaming mode: instead of keeping a bitmap for every frame, the
+    // decoder thread composes the frames on mDest and copies them into
+    // bitmaps from a small pool. The decoded frames wait in a ring, and the
+    // decoder waits while the ring is full. The caller of
+    // nextStreamingFrame() gives the bitmap of a frame back once it is no
+    // longer shown, so no bitmap is written while it may be uploading, and
+    // the animation does not allocate a bitmap per frame. At the end of the
+    // data it starts over, so the data is kept. mSavedDest holds the frame to
+    // restore for a frame with dispose code 3.
+    private final boolean mStreaming;
+    private GifFrame[] mRing; // guarded by this
+    private final ArrayList<Bitmap> mFreeBitmaps = new ArrayList<Bitmap>(); // guarded by this
+    private int mBitmapCount; // guarded by this
+    private int[] mSavedDest;
+    private long mProducedFrames; // guarded by this
+    private long mConsumedFrames; // guarded by this
+    private boolean mStreamDone; // guarded by this
+    private volatile boolean mFreed;
+
     public GifDecoder(byte[] data, GifAction act) {
         mGifData = data;
         mGifAction = act;
+        mStreaming = false;
+    }
+
+    // Creates a decoder in streaming mode, with ringSize frame bitmaps.
+    public GifDecoder(byte[] data, GifAction act, int ringSize) {
+        mGifData = data;
+        mGifAction = act;
+        mStreaming = true;
+        mRing = new GifFrame[Math.max(ringSize, 1)];
     }
 
     public GifDecoder(InputStream is, GifAction act) {
         mIS = is;
         mGifAction = act;
+        mStreaming = false;
     }
 
     public void run() {
-        if (mIS != null) {
+        if (mStreaming) {
+            runStreaming();
+        } else if (mIS != null) {
             readStream();
         } else if (mGifData != null) {
             readByte();
@@ -87,11 +129,134 @@ public class GifDecoder extends Thread {
     }
 
     public void free() {
+        if (mStreaming) {
+            // The frames in the ring have not been handed out and the pooled
+            // bitmaps have been given back, so they can be recycled here. The
+            // bitmaps the caller still holds are recycled when given back.
+            synchronized (this) {
+                mFreed = true;
+                for (int i = 0; i < mRing.length; i++) {
+                    if (mRing[i] != null) {
+                        mRing[i].mImage.recycle();
+                        mRing[i] = null;
+                    }
+                }
+                for (Bitmap bitmap : mFreeBitmaps) {
+                    bitmap.recycle();
+                }
+                mFreeBitmaps.clear();
+                notifyAll();
+            }
+            return;
+        }
         freeFrame();
         freeIS();
         freeImage();
     }
 
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    private void runStreaming() {
+        byte[] data = mGifData;
+        while (!mFreed) {
+            mIS = new ByteArrayInputStream(data);
+            mLastDispose = 0;
+            if (readStream() != STATUS_FINISH || mFrameCount <= 1) break;
+        }
+        synchronized (this) {
+            mStreamDone = true;
+            notifyAll();
+        }
+    }
+
+    // Waits until the first frame is decoded in streaming mode. Returns false
+    // if there is none.
+    public synchronized boolean waitForFirstFrame() {
+        while (mProducedFrames == 0 && !mStreamDone && !mFreed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return mProducedFrames > 0 && !mFreed;
+    }
+
+    // Returns the next frame in streaming mode, or null if it is not decoded
+    // yet. The caller owns the bitmap of the frame until it gives it back
+    // with releaseStreamingFrame().
+    public synchronized GifFrame nextStreamingFrame() {
+        if (mFreed || mConsumedFrames == mProducedFrames) return null;
+        int slot = (int) (mConsumedFrames % mRing.length);
+        GifFrame frame = mRing[slot];
+        mRing[slot] = null;
+        ++mConsumedFrames;
+        notifyAll();
+        return frame;
+    }
+
+    // Gives back the bitmap of a frame returned by nextStreamingFrame(). It
+    // must no longer be shown or uploaded, since it is written again for a
+    // later frame.
+    public synchronized void releaseStreamingFrame(Bitmap image) {
+        if (mFreed) {
+            image.recycle();
+            return;
+        }
+        mFreeBitmaps.add(image);
+        notifyAll();
+    }
+
+    // Returns true if nextStreamingFrame() will not return any more frames.
+    public synchronized boolean isStreamDone() {
+        return mFreed || (mStreamDone && mConsumedFrames == mProducedFrames);
+    }
+
+    // Copies mDest into a pooled bitmap and adds it to the ring, waiting for
+    // room in the ring and for a bitmap. Returns false if the decoder is
+    // freed.
+    private boolean publishFrame() {
+        Bitmap image = null;
+        synchronized (this) {
+            while (!mFreed && (mProducedFrames - mConsumedFrames >= mRing.length
+                    || (mFreeBitmaps.isEmpty()
+                            && mBitmapCount >= mRing.length + HELD_FRAMES))) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            if (mFreed) return false;
+            if (mFreeBitmaps.isEmpty()) {
+                ++mBitmapCount;
+            } else {
+                image = mFreeBitmaps.remove(mFreeBitmaps.size() - 1);
+            }
+        }
+
+        // The bitmap is neither pooled nor in the ring, so only this thread
+        // uses it until it is published.
+        if (image == null) {
+            image = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_4444);
+        }
+        image.setPixels(mDest, 0, mWidth, 0, 0, mWidth, mHeight);
+
+        synchronized (this) {
+            if (mFreed) {
+                image.recycle();
+                return false;
+            }
+            mRing[(int) (mProducedFrames % mRing.length)] =
+                    new GifFrame(image, mDelay, mDispose);
+            ++mProducedFrames;
+            notifyAll();
+            return true;
+        }
+    }
+
     public int getStatus() {
         return mStatus;
     }
@@ -123,6 +288,8 @@ public class GifDecoder extends Thread {
         return d;
     }
 
+    // In streaming mode, this is the number of frames decoded in the current
+    // pass over the data.
     public int getFrameCount() {
         return mFrameCount;
     }
@@ -136,8 +303,58 @@ public class GifDecoder extends Thread {
     }
 
     private void setPixels() {
-        int[] dest = new int[mWidth * mHeight];
+        int size = mWidth * mHeight;
+        if (mDest == null || mDest.length != size) {
+            mDest = new int[size];
+        }
+        int[] dest = mDest;
+        if (mStreaming) {
+            prepareStreamingPixels(dest);
+        } else {
+            prepareDecodedPixels(dest);
+        }
+        drawPixels(dest);
+        if (!mStreaming) {
+            mImage = Bitmap.createBitmap(dest, mWidth, mHeight, Config.ARGB_4444);
+        }
+    }
+
+    // In streaming mode dest still holds the last frame.
+    private void prepareStreamingPixels(int[] dest) {
+        if (mLastDispose == 0) {
+            Arrays.fill(dest, 0);
+        } else if (mLastDispose == 2) {
+            fillLastRect(dest);
+        } else if (mLastDispose == 3 && mSavedDest != null) {
+            System.arraycopy(mSavedDest, 0, dest, 0, dest.length);
+        }
+        if (mDispose == 3) {
+            // Save the frame to restore after this one.
+            if (mSavedDest == null || mSavedDest.length != dest.length) {
+                mSavedDest = new int[dest.length];
+            }
+            System.arraycopy(dest, 0, mSavedDest, 0, dest.length);
+        }
+    }
+
+    private void fillLastRect(int[] dest) {
+        // fill last image rect area with background color
+        int c = 0;
+        if (!mTransparency) {
+            c = mLastBgColor;
+        }
+        for (int i = 0; i < mLrh; i++) {
+            int n1 = (mLry + i) * mWidth + mLrx;
+            int n2 = Math.min(n1 + mLrw, dest.length);
+            for (int k = n1; k < n2; k++) {
+                dest[k] = c;
+            }
+        }
+    }
+
+    private void prepareDecodedPixels(int[] dest) {
         // fill in starting image contents based on last image's dispose code
+        boolean filled = false;
         if (mLastDispose > 0) {
             if (mLastDispose == 3) {
                 // use image before last
@@ -150,24 +367,19 @@ public class GifDecoder extends Thread {
             }
             if (mLastImage != null) {
                 mLastImage.getPixels(dest, 0, mWidth, 0, 0, mWidth, mHeight);
+                filled = true;
                 // copy pixels
                 if (mLastDispose == 2) {
-                    // fill last image rect area with background color
-                    int c = 0;
-                    if (!mTransparency) {
-                        c = mLastBgColor;
-                    }
-                    for (int i = 0; i < mLrh; i++) {
-                        int n1 = (mLry + i) * mWidth + mLrx;
-                        int n2 = n1 + mLrw;
-                        for (int k = n1; k < n2; k++) {
-                            dest[k] = c;
-                        }
-                    }
+                    fillLastRect(dest);
                 }
             }
         }
+        if (!filled) {
+            Arrays.fill(dest, 0);
+        }
+    }
 
+    private void drawPixels(int[] dest) {
         // copy each source line to the appropriate place in the destination
         int pass = 1;
         int inc = 8;
@@ -213,7 +425,6 @@ public class GifDecoder extends Thread {
                 }
             }
         }
-        mImage = Bitmap.createBitmap(dest, mWidth, mHeight, Config.ARGB_4444);
     }
 
     public Bitmap getFrameImage(int n) {
@@ -430,7 +641,7 @@ public class GifDecoder extends Thread {
     }
 
     private boolean err() {
-        return mStatus != STATUS_PARSING;
+        return mStatus != STATUS_PARSING || mFreed;
     }
 
     private void init() {
@@ -608,10 +819,20 @@ public class GifDecoder extends Thread {
             if (err()) {
                 return;
             }
+            if (mStreaming) {
+                setPixels();
+                if (mTransparency) {
+                    mAct[mTransIndex] = save;
+                }
+                if (!publishFrame()) return;
+                mFrameCount++;
+                resetFrame();
+                if (mGifAction != null) {
+                    mGifAction.parseOk(true, mFrameCount);
+                }
+                return;
+            }
             mFrameCount++;
-            // create new image to receive frame data
-            mImage = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_4444);
-            // createImage(mWidth, mHeight);
             setPixels(); // transfer pixel data to image
             if (mGifFrame == null) {
                 mGifFrame = new GifFrame(mImage, mDelay, mDispose);
@@ -34,9 +34,12 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
@@ -63,14 +66,46 @@ public class GifRequest implements Job<GifDecoder> {
         return input;
     }
 
+    // Returns a streaming GifDecoder which has decoded the first frame.
     @Override
     public GifDecoder run(JobContext jc) {
         InputStream input = getInputStream(itemUri);
-        if (input != null) {
-            return new GifDecoder(getInputStream(itemUri), null);
-        } else {
+        if (input == null) return null;
+        byte[] data;
+        try {
+            if (!jc.setMode(ThreadPool.MODE_IO)) return null;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int rc;
+            while ((rc = input.read(buffer)) > 0) {
+                if (jc.isCancelled()) return null;
+                bos.write(buffer, 0, rc);
+            }
+            data = bos.toByteArray();
+        } catch (IOException e) {
+            Log.e(TAG, "cannot read " + itemUri, e);
+            return null;
+        } finally {
+            Utils.closeSilently(input);
+            jc.setMode(ThreadPool.MODE_CPU);
+        }
+
+        final GifDecoder decoder =
+                new GifDecoder(data, null, GifDecoder.DEFAULT_RING_SIZE);
+        decoder.start();
+        jc.setCancelListener(new CancelListener() {
+            @Override
+            public void onCancel() {
+                decoder.free();
+            }
+        });
+        boolean ok = decoder.waitForFirstFrame();
+        jc.setCancelListener(null);
+        if (!ok || jc.isCancelled()) {
+            decoder.free();
             return null;
         }
+        return decoder;
     }
 
 
@@ -20,7 +20,7 @@ import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
-import java.util.LinkedList;
+import java.util.PriorityQueue;
 
 // Limit the number of concurrent jobs that has been submitted into a ThreadPool
 @SuppressWarnings("rawtypes")
@@ -34,20 +34,42 @@ public class JobLimiter implements FutureListener {
     private static final int STATE_DONE = 1;
     private static final int STATE_CANCELLED = 2;
 
-    private final LinkedList<JobWrapper<?>> mJobs = new LinkedList<JobWrapper<?>>();
+    // Waiting jobs ordered by priority, see ThreadPool.PRIORITY_DEFAULT.
+    private final PriorityQueue<JobWrapper<?>> mJobs = new PriorityQueue<JobWrapper<?>>();
     private final ThreadPool mPool;
     private int mLimit;
+    private long mSequence;
 
-    private static class JobWrapper<T> implements Future<T>, Job<T> {
+    private static class JobWrapper<T> implements Future<T>, Job<T>,
+            Comparable<JobWrapper<?>> {
         private int mState = STATE_INIT;
         private Job<T> mJob;
         private Future<T> mDelegate;
         private FutureListener<T> mListener;
         private T mResult;
+        // Guarded by the JobLimiter.
+        private int mPriority;
+        private final long mSequence;
 
-        public JobWrapper(Job<T> job, FutureListener<T> listener) {
+        public JobWrapper(Job<T> job, FutureListener<T> listener, int priority,
+                long sequence) {
             mJob = job;
             mListener = listener;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(JobWrapper<?> another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1
+                    : (mSequence == another.mSequence ? 0 : 1);
+        }
+
+        public synchronized Future<T> getFuture() {
+            return mDelegate;
         }
 
         public synchronized void setFuture(Future<T> future) {
@@ -134,19 +156,43 @@ public class JobLimiter implements FutureListener {
     }
 
     public synchronized <T> Future<T> submit(Job<T> job, FutureListener<T> listener) {
-        JobWrapper<T> future = new JobWrapper<T>(Utils.checkNotNull(job), listener);
-        mJobs.addLast(future);
+        return submit(job, listener, ThreadPool.PRIORITY_DEFAULT);
+    }
+
+    // Same as above, but the job is started before the waiting jobs with a
+    // higher priority value. See ThreadPool.PRIORITY_DEFAULT.
+    public synchronized <T> Future<T> submit(Job<T> job, FutureListener<T> listener,
+            int priority) {
+        JobWrapper<T> future = new JobWrapper<T>(
+                Utils.checkNotNull(job), listener, priority, mSequence++);
+        mJobs.offer(future);
         submitTasksIfAllowed();
         return future;
     }
 
+    // Changes the priority of a job submitted to this limiter. If the job is
+    // already in the thread pool, its priority there is changed instead.
+    public synchronized void setPriority(Future<?> future, int priority) {
+        if (!(future instanceof JobWrapper)) return;
+        JobWrapper<?> wrapper = (JobWrapper<?>) future;
+        if (wrapper.mPriority == priority) return;
+        if (mJobs.remove(wrapper)) {
+            wrapper.mPriority = priority;
+            if (!wrapper.isCancelled()) mJobs.offer(wrapper);
+        } else {
+            wrapper.mPriority = priority;
+            Future<?> delegate = wrapper.getFuture();
+            if (delegate != null) mPool.setPriority(delegate, priority);
+        }
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     private void submitTasksIfAllowed() {
         while (mLimit > 0 && !mJobs.isEmpty()) {
-            JobWrapper wrapper = mJobs.removeFirst();
+            JobWrapper wrapper = mJobs.poll();
             if (!wrapper.isCancelled()) {
                 --mLimit;
-                wrapper.setFuture(mPool.submit(wrapper, this));
+                wrapper.setFuture(mPool.submit(wrapper, this, wrapper.mPriority));
             }
         }
     }
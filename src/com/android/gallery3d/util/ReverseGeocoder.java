@@ -23,14 +23,18 @@ import android.location.Location;
 import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 
 import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
@@ -52,7 +56,52 @@ public class ReverseGeocoder {
     private static final String GEO_CACHE_FILE = "rev_geocoding";
     private static final int GEO_CACHE_MAX_ENTRIES = 1000;
     private static final int GEO_CACHE_MAX_BYTES = 500 * 1024;
-    private static final int GEO_CACHE_VERSION = 0;
+    // Version 1 keys the addresses by grid cell, see getCell().
+    private static final int GEO_CACHE_VERSION = 1;
+
+    // The addresses are cached per cell of a grid, numbered like a geohash
+    // of 35 bits: 18 bits of longitude and 17 of latitude, interleaved. The
+    // cells are about 150 m wide, which is within the accuracy of most photo
+    // locations, so the photos taken around one place share their lookup.
+    private static final int CELL_LON_BITS = 18;
+    private static final int CELL_LAT_BITS = 17;
+
+    // The current address is looked up again after this time.
+    private static final long CURRENT_ADDRESS_MAX_AGE_MS = 5 * 60 * 1000;
+
+    /**
+     * Resolves locations to addresses. The default one uses the platform
+     * Geocoder; an offline one can be given to the constructor instead.
+     */
+    public interface AddressSource {
+        // Returns false if the source cannot be used right now.
+        public boolean isAvailable();
+        public List<Address> getFromLocation(double latitude, double longitude,
+                int maxResults) throws IOException;
+    }
+
+    private static class GeocoderSource implements AddressSource {
+        private final Geocoder mGeocoder;
+        private final ConnectivityManager mConnectivityManager;
+
+        public GeocoderSource(Context context) {
+            mGeocoder = new Geocoder(context);
+            mConnectivityManager = (ConnectivityManager)
+                    context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+            return networkInfo != null && networkInfo.isConnected();
+        }
+
+        @Override
+        public List<Address> getFromLocation(double latitude, double longitude,
+                int maxResults) throws IOException {
+            return mGeocoder.getFromLocation(latitude, longitude, maxResults);
+        }
+    }
 
     public static class SetLatLong {
         // The latitude and longitude of the min latitude point.
@@ -70,22 +119,62 @@ public class ReverseGeocoder {
     }
 
     private Context mContext;
-    private Geocoder mGeocoder;
+    private AddressSource mSource;
     private BlobCache mGeoCache;
-    private ConnectivityManager mConnectivityManager;
+    // The addresses looked up by this geocoder, by cell. A null value is a
+    // cell which could not be resolved.
+    private HashMap<Long, Address> mAddresses = new HashMap<Long, Address>();
     private static Address sCurrentAddress; // last known address
+    private static long sCurrentAddressTime;
 
     public ReverseGeocoder(Context context) {
+        this(context, new GeocoderSource(context));
+    }
+
+    public ReverseGeocoder(Context context, AddressSource source) {
         mContext = context;
-        mGeocoder = new Geocoder(mContext);
+        mSource = source;
         mGeoCache = CacheManager.getCache(context, GEO_CACHE_FILE,
                 GEO_CACHE_MAX_ENTRIES, GEO_CACHE_MAX_BYTES,
                 GEO_CACHE_VERSION);
-        mConnectivityManager = (ConnectivityManager)
-                context.getSystemService(Context.CONNECTIVITY_SERVICE);
     }
 
     public String computeAddress(SetLatLong set) {
+        ArrayList<SetLatLong> sets = new ArrayList<SetLatLong>(1);
+        sets.add(set);
+        return computeAddresses(sets)[0];
+    }
+
+    /**
+     * Computes the names of the sets. The corners of all the sets are
+     * resolved first, each cell once, and the current location is only
+     * looked up once for all of them.
+     */
+    public String[] computeAddresses(List<SetLatLong> sets) {
+        int n = sets.size();
+        double[] corners = new double[n * 4];
+        for (int i = 0; i < n; i++) {
+            getCorners(sets.get(i), corners, i * 4);
+            lookupNearAddress(corners[i * 4], corners[i * 4 + 1]);
+            lookupNearAddress(corners[i * 4 + 2], corners[i * 4 + 3]);
+        }
+
+        Address currentAddress = getCurrentAddress();
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            int k = i * 4;
+            Address addr1 = lookupNearAddress(corners[k], corners[k + 1]);
+            Address addr2 = lookupNearAddress(corners[k + 2], corners[k + 3]);
+            names[i] = computeAddress(corners[k], corners[k + 1], corners[k + 2],
+                    corners[k + 3], addr1, addr2, currentAddress);
+        }
+        return names;
+    }
+
+    // Puts the two points whose addresses name the set in corners, from
+    // offset on: the latitude and longitude of the first point, and then of
+    // the second one.
+    private static void getCorners(SetLatLong set, double[] corners, int offset) {
         // The overall min and max latitudes and longitudes of the set.
         double setMinLatitude = set.mMinLatLatitude;
         double setMinLongitude = set.mMinLatLongitude;
@@ -98,14 +187,20 @@ public class ReverseGeocoder {
             setMaxLatitude = set.mMaxLonLatitude;
             setMaxLongitude = set.mMaxLonLongitude;
         }
-        Address addr1 = lookupAddress(setMinLatitude, setMinLongitude, true);
-        Address addr2 = lookupAddress(setMaxLatitude, setMaxLongitude, true);
-        if (addr1 == null)
-            addr1 = addr2;
-        if (addr2 == null)
-            addr2 = addr1;
-        if (addr1 == null || addr2 == null) {
-            return null;
+        corners[offset] = setMinLatitude;
+        corners[offset + 1] = setMinLongitude;
+        corners[offset + 2] = setMaxLatitude;
+        corners[offset + 3] = setMaxLongitude;
+    }
+
+    // Returns the address of the current location. It is kept for a few
+    // minutes, so naming several sets in a row does not look it up again.
+    private Address getCurrentAddress() {
+        synchronized (ReverseGeocoder.class) {
+            if (sCurrentAddress != null && SystemClock.elapsedRealtime()
+                    - sCurrentAddressTime < CURRENT_ADDRESS_MAX_AGE_MS) {
+                return sCurrentAddress;
+            }
         }
 
         // Get current location, we decide the granularity of the string based
@@ -120,22 +215,39 @@ public class ReverseGeocoder {
             if (location != null)
                 break;
         }
-        String currentCity = "";
-        String currentAdminArea = "";
-        String currentCountry = Locale.getDefault().getCountry();
-        if (location != null) {
-            Address currentAddress = lookupAddress(
-                    location.getLatitude(), location.getLongitude(), true);
+        if (location == null) return null;
+
+        Address currentAddress = lookupNearAddress(
+                location.getLatitude(), location.getLongitude());
+        synchronized (ReverseGeocoder.class) {
             if (currentAddress == null) {
                 currentAddress = sCurrentAddress;
             } else {
                 sCurrentAddress = currentAddress;
+                sCurrentAddressTime = SystemClock.elapsedRealtime();
             }
-            if (currentAddress != null && currentAddress.getCountryCode() != null) {
-                currentCity = checkNull(currentAddress.getLocality());
-                currentCountry = checkNull(currentAddress.getCountryCode());
-                currentAdminArea = checkNull(currentAddress.getAdminArea());
-            }
+        }
+        return currentAddress;
+    }
+
+    private String computeAddress(double setMinLatitude, double setMinLongitude,
+            double setMaxLatitude, double setMaxLongitude,
+            Address addr1, Address addr2, Address currentAddress) {
+        if (addr1 == null)
+            addr1 = addr2;
+        if (addr2 == null)
+            addr2 = addr1;
+        if (addr1 == null || addr2 == null) {
+            return null;
+        }
+
+        String currentCity = "";
+        String currentAdminArea = "";
+        String currentCountry = Locale.getDefault().getCountry();
+        if (currentAddress != null && currentAddress.getCountryCode() != null) {
+            currentCity = checkNull(currentAddress.getLocality());
+            currentCountry = checkNull(currentAddress.getCountryCode());
+            currentAdminArea = checkNull(currentAddress.getAdminArea());
         }
 
         String closestCommonLocation = null;
@@ -304,92 +416,114 @@ public class ReverseGeocoder {
 
     public Address lookupAddress(final double latitude, final double longitude,
             boolean useCache) {
+        long cell = getCell(latitude, longitude);
+        if (useCache) {
+            Address address = getCachedAddress(cell);
+            if (address != null) return address;
+        }
+        return resolveAddress(latitude, longitude, cell);
+    }
+
+    // Same as lookupAddress(), but the addresses cached for the cells next to
+    // the point are used before resolving it. This is for naming sets, where
+    // only the locality and larger areas matter.
+    private Address lookupNearAddress(double latitude, double longitude) {
+        long cell = getCell(latitude, longitude);
+        if (mAddresses.containsKey(cell)) return mAddresses.get(cell);
+        Address address = getCachedAddress(cell);
+        if (address != null) return address;
+
+        int x = getCellX(longitude);
+        int y = getCellY(latitude);
+        for (int dy = -1; dy <= 1; dy++) {
+            if (y + dy < 0 || y + dy >= 1 << CELL_LAT_BITS) continue;
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) continue;
+                // The longitude wraps around.
+                int nx = (x + dx) & ((1 << CELL_LON_BITS) - 1);
+                address = getCachedAddress(interleave(nx, y + dy));
+                if (address != null) {
+                    mAddresses.put(cell, address);
+                    return address;
+                }
+            }
+        }
+
+        address = resolveAddress(latitude, longitude, cell);
+        mAddresses.put(cell, address);
+        return address;
+    }
+
+    private static int getCellX(double longitude) {
+        int max = (1 << CELL_LON_BITS) - 1;
+        return Utils.clamp((int) ((longitude - LON_MIN) / (LON_MAX - LON_MIN) * (max + 1)), 0, max);
+    }
+
+    private static int getCellY(double latitude) {
+        int max = (1 << CELL_LAT_BITS) - 1;
+        return Utils.clamp((int) ((latitude - LAT_MIN) / (LAT_MAX - LAT_MIN) * (max + 1)), 0, max);
+    }
+
+    // Like a geohash, the bits of the longitude and the latitude alternate,
+    // starting with the longitude, so nearby cells share a prefix.
+    private static long interleave(int x, int y) {
+        long cell = 0;
+        for (int i = CELL_LON_BITS - 1; i >= 0; i--) {
+            cell = (cell << 1) | ((x >> i) & 1);
+            if (i < CELL_LAT_BITS) cell = (cell << 1) | ((y >> i) & 1);
+        }
+        return cell;
+    }
+
+    private static long getCell(double latitude, double longitude) {
+        return interleave(getCellX(longitude), getCellY(latitude));
+    }
+
+    // The cell is also stored in front of the address, so a collision of the
+    // cache keys is taken as a miss.
+    private static long getCacheKey(long cell) {
+        return Utils.crc64Long(GalleryUtils.getBytes(Long.toString(cell)));
+    }
+
+    private Address getCachedAddress(long cell) {
+        Address address = mAddresses.get(cell);
+        if (address != null || mGeoCache == null) return address;
         try {
-            long locationKey = (long) (((latitude + LAT_MAX) * 2 * LAT_MAX
-                    + (longitude + LON_MAX)) * EARTH_RADIUS_METERS);
-            byte[] cachedLocation = null;
-            if (useCache && mGeoCache != null) {
-                cachedLocation = mGeoCache.lookup(locationKey);
+            byte[] cachedLocation;
+            synchronized (mGeoCache) {
+                cachedLocation = mGeoCache.lookup(getCacheKey(cell));
             }
-            Address address = null;
-            NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
-            if (cachedLocation == null || cachedLocation.length == 0) {
-                if (networkInfo == null || !networkInfo.isConnected()) {
-                    return null;
-                }
-                List<Address> addresses = mGeocoder.getFromLocation(latitude, longitude, 1);
-                if (!addresses.isEmpty()) {
-                    address = addresses.get(0);
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(bos);
-                    Locale locale = address.getLocale();
-                    writeUTF(dos, locale.getLanguage());
-                    writeUTF(dos, locale.getCountry());
-                    writeUTF(dos, locale.getVariant());
-
-                    writeUTF(dos, address.getThoroughfare());
-                    int numAddressLines = address.getMaxAddressLineIndex();
-                    dos.writeInt(numAddressLines);
-                    for (int i = 0; i < numAddressLines; ++i) {
-                        writeUTF(dos, address.getAddressLine(i));
-                    }
-                    writeUTF(dos, address.getFeatureName());
-                    writeUTF(dos, address.getLocality());
-                    writeUTF(dos, address.getAdminArea());
-                    writeUTF(dos, address.getSubAdminArea());
-
-                    writeUTF(dos, address.getCountryName());
-                    writeUTF(dos, address.getCountryCode());
-                    writeUTF(dos, address.getPostalCode());
-                    writeUTF(dos, address.getPhone());
-                    writeUTF(dos, address.getUrl());
-
-                    dos.flush();
-                    if (mGeoCache != null) {
-                        mGeoCache.insert(locationKey, bos.toByteArray());
-                    }
-                    dos.close();
-                }
-            } else {
-                // Parsing the address from the byte stream.
-                DataInputStream dis = new DataInputStream(
-                        new ByteArrayInputStream(cachedLocation));
-                String language = readUTF(dis);
-                String country = readUTF(dis);
-                String variant = readUTF(dis);
-                Locale locale = null;
-                if (language != null) {
-                    if (country == null) {
-                        locale = new Locale(language);
-                    } else if (variant == null) {
-                        locale = new Locale(language, country);
-                    } else {
-                        locale = new Locale(language, country, variant);
-                    }
-                }
-                if (!locale.getLanguage().equals(Locale.getDefault().getLanguage())) {
-                    dis.close();
-                    return lookupAddress(latitude, longitude, false);
-                }
-                address = new Address(locale);
+            if (cachedLocation == null || cachedLocation.length == 0) return null;
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(cachedLocation));
+            if (dis.readLong() != cell) return null;
+            address = readAddress(dis);
+            dis.close();
+        } catch (Exception e) {
+            // Ignore.
+        }
+        if (address != null) mAddresses.put(cell, address);
+        return address;
+    }
 
-                address.setThoroughfare(readUTF(dis));
-                int numAddressLines = dis.readInt();
-                for (int i = 0; i < numAddressLines; ++i) {
-                    address.setAddressLine(i, readUTF(dis));
+    private Address resolveAddress(double latitude, double longitude, long cell) {
+        try {
+            if (!mSource.isAvailable()) return null;
+            List<Address> addresses = mSource.getFromLocation(latitude, longitude, 1);
+            if (addresses == null || addresses.isEmpty()) return null;
+            Address address = addresses.get(0);
+            if (mGeoCache != null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                dos.writeLong(cell);
+                writeAddress(dos, address);
+                dos.flush();
+                synchronized (mGeoCache) {
+                    mGeoCache.insert(getCacheKey(cell), bos.toByteArray());
                 }
-                address.setFeatureName(readUTF(dis));
-                address.setLocality(readUTF(dis));
-                address.setAdminArea(readUTF(dis));
-                address.setSubAdminArea(readUTF(dis));
-
-                address.setCountryName(readUTF(dis));
-                address.setCountryCode(readUTF(dis));
-                address.setPostalCode(readUTF(dis));
-                address.setPhone(readUTF(dis));
-                address.setUrl(readUTF(dis));
-                dis.close();
+                dos.close();
             }
+            mAddresses.put(cell, address);
             return address;
         } catch (Exception e) {
             // Ignore.
@@ -397,6 +531,69 @@ public class ReverseGeocoder {
         return null;
     }
 
+    private static void writeAddress(DataOutputStream dos, Address address)
+            throws IOException {
+        Locale locale = address.getLocale();
+        writeUTF(dos, locale.getLanguage());
+        writeUTF(dos, locale.getCountry());
+        writeUTF(dos, locale.getVariant());
+
+        writeUTF(dos, address.getThoroughfare());
+        int numAddressLines = address.getMaxAddressLineIndex();
+        dos.writeInt(numAddressLines);
+        for (int i = 0; i < numAddressLines; ++i) {
+            writeUTF(dos, address.getAddressLine(i));
+        }
+        writeUTF(dos, address.getFeatureName());
+        writeUTF(dos, address.getLocality());
+        writeUTF(dos, address.getAdminArea());
+        writeUTF(dos, address.getSubAdminArea());
+
+        writeUTF(dos, address.getCountryName());
+        writeUTF(dos, address.getCountryCode());
+        writeUTF(dos, address.getPostalCode());
+        writeUTF(dos, address.getPhone());
+        writeUTF(dos, address.getUrl());
+    }
+
+    // Returns null if the address is not in the current language.
+    private static Address readAddress(DataInputStream dis) throws IOException {
+        String language = readUTF(dis);
+        String country = readUTF(dis);
+        String variant = readUTF(dis);
+        Locale locale = null;
+        if (language != null) {
+            if (country == null) {
+                locale = new Locale(language);
+            } else if (variant == null) {
+                locale = new Locale(language, country);
+            } else {
+                locale = new Locale(language, country, variant);
+            }
+        }
+        if (!locale.getLanguage().equals(Locale.getDefault().getLanguage())) {
+            return null;
+        }
+        Address address = new Address(locale);
+
+        address.setThoroughfare(readUTF(dis));
+        int numAddressLines = dis.readInt();
+        for (int i = 0; i < numAddressLines; ++i) {
+            address.setAddressLine(i, readUTF(dis));
+        }
+        address.setFeatureName(readUTF(dis));
+        address.setLocality(readUTF(dis));
+        address.setAdminArea(readUTF(dis));
+        address.setSubAdminArea(readUTF(dis));
+
+        address.setCountryName(readUTF(dis));
+        address.setCountryCode(readUTF(dis));
+        address.setPostalCode(readUTF(dis));
+        address.setPhone(readUTF(dis));
+        address.setUrl(readUTF(dis));
+        return address;
+    }
+
     private String valueIfEqual(String a, String b) {
         return (a != null && b != null && a.equalsIgnoreCase(b)) ? a : null;
     }
@@ -20,8 +20,10 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.media.MediaMetadataRetriever;
+import android.app.ProgressDialog;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
 import android.provider.MediaStore.Video;
 import android.provider.MediaStore.Video.VideoColumns;
 
@@ -33,6 +35,31 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 public class SaveVideoFileUtils {
+    /**
+     * Gets the progress of writing a video file, in percent. It is called on
+     * the thread writing the file.
+     */
+    public interface ProgressListener {
+        public void onProgress(int percent);
+    }
+
+    // Returns a listener showing the progress in a horizontal progress
+    // dialog. The dialog is updated on the thread of the handler.
+    public static ProgressListener getDialogProgressListener(final Handler handler,
+            final ProgressDialog dialog) {
+        return new ProgressListener() {
+            @Override
+            public void onProgress(final int percent) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dialog.setProgress(percent);
+                    }
+                });
+            }
+        };
+    }
+
     // This function can decide which folder to save the video file, and generate
     // the needed information for the video file including filename.
     public static SaveVideoFileInfo getDstMp4FileInfo(String fileNameFormat,
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.common;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+
+// Measures the lookup throughput of BlobCache from 1 to 8 threads, in the
+// concurrent mode and in the old one, where the callers serialize all the
+// calls on the cache. Each lookup is followed by a pass over the blob that
+// stands for the decode of the thumbnail. The "mixed" workload also inserts
+// new blobs, so the regions get flipped while the lookups run.
+//
+// Each measured iteration runs LOOKUPS_PER_THREAD lookups on each thread,
+// so the time per lookup is the reported time divided by
+// threads * LOOKUPS_PER_THREAD.
+@RunWith(Parameterized.class)
+public class BlobCacheBenchmark {
+    private static final String MODE_SERIALIZED = "serialized";
+    private static final String MODE_CONCURRENT = "concurrent";
+    private static final String WORKLOAD_READ = "read";
+    private static final String WORKLOAD_MIXED = "mixed";
+
+    private static final int ENTRIES = 1000;
+    private static final int BLOB_SIZE = 8 * 1024;
+    private static final int MAX_BYTES = 2 * ENTRIES * BLOB_SIZE;
+    private static final int LOOKUPS_PER_THREAD = 256;
+    // The mixed workload does one insert for this many lookups.
+    private static final int LOOKUPS_PER_INSERT = 16;
+
+    @Parameters(name = "{0}_{1}_{2}threads")
+    public static Collection<Object[]> getParameters() {
+        ArrayList<Object[]> parameters = new ArrayList<Object[]>();
+        for (String mode : new String[] {MODE_SERIALIZED, MODE_CONCURRENT}) {
+            for (String workload : new String[] {WORKLOAD_READ, WORKLOAD_MIXED}) {
+                for (int threads : new int[] {1, 2, 4, 8}) {
+                    parameters.add(new Object[] {mode, workload, threads});
+                }
+            }
+        }
+        return parameters;
+    }
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final boolean mConcurrent;
+    private final boolean mMixed;
+    private final int mThreads;
+    private String mPath;
+    private BlobCache mCache;
+    private ExecutorService mExecutor;
+    // Key 0 marks a cleared entry, so the keys start at 1.
+    private long mNextKey = ENTRIES + 1;
+
+    public BlobCacheBenchmark(String mode, String workload, int threads) {
+        mConcurrent = MODE_CONCURRENT.equals(mode);
+        mMixed = WORKLOAD_MIXED.equals(workload);
+        mThreads = threads;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        File dir = InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        mPath = new File(dir, "blobcache_benchmark").getAbsolutePath();
+        mCache = new BlobCache(mPath, 4 * ENTRIES, MAX_BYTES, true, 0, mConcurrent);
+        byte[] data = new byte[BLOB_SIZE];
+        Random random = new Random(0);
+        for (int key = 1; key <= ENTRIES; key++) {
+            random.nextBytes(data);
+            mCache.insert(key, data);
+        }
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mCache.close();
+        BlobCache.deleteFiles(mPath);
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(mThreads);
+        int seed = 0;
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            tasks.clear();
+            for (int i = 0; i < mThreads; i++) {
+                tasks.add(newTask(seed++));
+            }
+            state.resumeTiming();
+            for (Future<Long> result : mExecutor.invokeAll(tasks)) {
+                result.get();
+            }
+        }
+    }
+
+    private Callable<Long> newTask(final int seed) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                Random random = new Random(seed);
+                byte[] data = new byte[BLOB_SIZE];
+                LookupReader reader = new LookupReader();
+                BlobCache.LookupRequest req = new BlobCache.LookupRequest();
+                for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                    if (mMixed && i % LOOKUPS_PER_INSERT == 0) {
+                        random.nextBytes(data);
+                        insert(nextKey(), data);
+                    }
+                    long key = 1 + random.nextInt(ENTRIES);
+                    if (mConcurrent) {
+                        mCache.lookup(key, reader);
+                    } else {
+                        req.key = key;
+                        boolean found;
+                        synchronized (mCache) {
+                            found = mCache.lookup(req);
+                        }
+                        if (found) reader.read(ByteBuffer.wrap(req.buffer, 0, req.length));
+                    }
+                }
+                return reader.mSum;
+            }
+        };
+    }
+
+    private synchronized long nextKey() {
+        return mNextKey++;
+    }
+
+    private void insert(long key, byte[] data) throws IOException {
+        if (mConcurrent) {
+            mCache.insert(key, data);
+        } else {
+            synchronized (mCache) {
+                mCache.insert(key, data);
+            }
+        }
+    }
+
+    // Stands for the decode of the blob.
+    private static class LookupReader implements BlobCache.BlobReader {
+        private final Adler32 mAdler32 = new Adler32();
+        private final byte[] mChunk = new byte[4096];
+        long mSum;
+
+        @Override
+        public boolean read(ByteBuffer blob) {
+            mAdler32.reset();
+            while (blob.hasRemaining()) {
+                int n = Math.min(blob.remaining(), mChunk.length);
+                blob.get(mChunk, 0, n);
+                mAdler32.update(mChunk, 0, n);
+            }
+            mSum += mAdler32.getValue();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.gallery3d.data.DataManager;
+import com.android.gallery3d.data.MediaItem;
+import com.android.gallery3d.data.MediaObject;
+import com.android.gallery3d.data.MediaSet;
+import com.android.gallery3d.data.Path;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Measures "select all, then delete" on a set of ITEMS items, with every
+// LEFT_OUT_STEP-th item left out of the selection: the snapshot taken when
+// the delete is confirmed, and the paths it gives to the delete job in
+// chunks. The delete itself only marks the items deleted and bumps the
+// version of the set, as the reload after a real delete would.
+//
+// getSelected() is measured too, as a reference: it is what the delete
+// job was given before the snapshot, built on the UI thread. After the
+// measurement, selectAllDelete() also checks that the snapshot gives
+// nothing to the job if an item is inserted after the confirmation.
+@RunWith(AndroidJUnit4.class)
+public class SelectionManagerBenchmark {
+    private static final int ITEMS = 100000;
+    private static final int LEFT_OUT_STEP = 1000;
+    private static final int CHUNK_SIZE = 100;
+
+    // A path can be bound to one object only, so the benchmarks share
+    // the set.
+    private static SyntheticSet sSet;
+
+    private static synchronized SyntheticSet getSet() {
+        if (sSet == null) sSet = new SyntheticSet(Path.fromString("/benchmark/selection"), ITEMS);
+        return sSet;
+    }
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void selectAllDelete() {
+        final SyntheticSet set = getSet();
+        SelectionManager manager = newSelectAll(set);
+        final int[] deleted = new int[1];
+        SelectionManager.ChunkConsumer consumer = new SelectionManager.ChunkConsumer() {
+            @Override
+            public boolean consume(ArrayList<Path> chunk) {
+                set.delete(chunk);
+                deleted[0] += chunk.size();
+                return true;
+            }
+        };
+
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            set.restore();
+            deleted[0] = 0;
+            state.resumeTiming();
+            SelectionManager.Selection selection = manager.getSelection();
+            assertTrue(selection.forEachChunk(ThreadPool.JOB_CONTEXT_STUB, CHUNK_SIZE, consumer));
+        }
+        assertEquals(ITEMS - ITEMS / LEFT_OUT_STEP, deleted[0]);
+        assertEquals(ITEMS - ITEMS / LEFT_OUT_STEP, set.getDeletedCount());
+        for (int i = 0; i < ITEMS; i += LEFT_OUT_STEP) {
+            assertFalse(set.isDeleted(i));
+        }
+
+        // The snapshot must not give anything to the job once the set has
+        // changed since the user confirmed the delete.
+        set.restore();
+        deleted[0] = 0;
+        SelectionManager.Selection selection = manager.getSelection();
+        set.insertBefore(ITEMS / 2);
+        assertFalse(selection.forEachChunk(ThreadPool.JOB_CONTEXT_STUB, CHUNK_SIZE, consumer));
+        assertEquals(0, deleted[0]);
+        set.restore();
+    }
+
+    @Test
+    public void selectAllGetSelected() {
+        SyntheticSet set = getSet();
+        SelectionManager manager = newSelectAll(set);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ArrayList<Path> paths = manager.getSelected(false);
+            state.pauseTiming();
+            assertEquals(ITEMS - ITEMS / LEFT_OUT_STEP, paths.size());
+            state.resumeTiming();
+        }
+    }
+
+    private static SelectionManager newSelectAll(SyntheticSet set) {
+        DataManager dataManager = DataManager.from(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+        SelectionManager manager = new SelectionManager(dataManager, false);
+        manager.setSourceMediaSet(set);
+        manager.selectAll();
+        for (int i = 0; i < ITEMS; i += LEFT_OUT_STEP) {
+            manager.toggle(set.getItemPath(i));
+        }
+        return manager;
+    }
+
+    // An in-memory set of items. Deleted items stay in the set, so it can be
+    // restored between the iterations; only the version changes.
+    private static class SyntheticSet extends MediaSet {
+        private final ArrayList<SyntheticItem> mItems;
+        private final HashSet<Path> mDeleted = new HashSet<Path>();
+        private SyntheticItem mInserted;
+
+        SyntheticSet(Path path, int count) {
+            super(path, nextVersionNumber());
+            mItems = new ArrayList<SyntheticItem>(count);
+            for (int i = 0; i < count; i++) {
+                mItems.add(new SyntheticItem(path.getChild(i)));
+            }
+        }
+
+        Path getItemPath(int index) {
+            return mItems.get(index).getPath();
+        }
+
+        synchronized void delete(ArrayList<Path> paths) {
+            mDeleted.addAll(paths);
+            mDataVersion = nextVersionNumber();
+        }
+
+        synchronized int getDeletedCount() {
+            return mDeleted.size();
+        }
+
+        synchronized boolean isDeleted(int index) {
+            return mDeleted.contains(mItems.get(index).getPath());
+        }
+
+        synchronized void insertBefore(int index) {
+            if (mInserted == null) {
+                mInserted = new SyntheticItem(mPath.getChild("inserted"));
+            }
+            mItems.add(index, mInserted);
+            mDataVersion = nextVersionNumber();
+        }
+
+        synchronized void restore() {
+            mItems.remove(mInserted);
+            mDeleted.clear();
+            mDataVersion = nextVersionNumber();
+        }
+
+        @Override
+        public synchronized int getMediaItemCount() {
+            return mItems.size();
+        }
+
+        @Override
+        public synchronized ArrayList<MediaItem> getMediaItem(int start, int count) {
+            int end = Math.min(mItems.size(), start + count);
+            return new ArrayList<MediaItem>(mItems.subList(Math.min(start, end), end));
+        }
+
+        @Override
+        public String getName() {
+            return "selection benchmark";
+        }
+
+        @Override
+        public synchronized long reload() {
+            return mDataVersion;
+        }
+    }
+
+    private static class SyntheticItem extends MediaItem {
+        SyntheticItem(Path path) {
+            super(path, nextVersionNumber());
+        }
+
+        @Override
+        public int getMediaType() {
+            return MediaObject.MEDIA_TYPE_IMAGE;
+        }
+
+        @Override
+        public Job<Bitmap> requestImage(int type) {
+            return null;
+        }
+
+        @Override
+        public Job<BitmapRegionDecoder> requestLargeImage() {
+            return null;
+        }
+
+        @Override
+        public String getMimeType() {
+            return MIME_TYPE_JPEG;
+        }
+
+        @Override
+        public int getWidth() {
+            return 0;
+        }
+
+        @Override
+        public int getHeight() {
+            return 0;
+        }
+    }
+}
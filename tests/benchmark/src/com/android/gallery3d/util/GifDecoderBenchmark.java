@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.util;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+// Measures the time to the first frame of a GIF, and the memory used while
+// it plays, with the streaming decoder and with the decoder keeping every
+// frame. The GIF is generated: FRAMES frames of WIDTH x HEIGHT.
+//
+// The peak memory is not a timing, so peakMemory() logs it under the
+// GifDecoderBenchmark tag instead.
+@RunWith(AndroidJUnit4.class)
+public class GifDecoderBenchmark {
+    private static final String TAG = "GifDecoderBenchmark";
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 24;
+
+    private static byte[] sGif;
+
+    private static synchronized byte[] getGif() {
+        if (sGif == null) sGif = createGif(WIDTH, HEIGHT, FRAMES);
+        return sGif;
+    }
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void firstFrame_streaming() throws InterruptedException {
+        byte[] data = getGif();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            GifDecoder decoder = new GifDecoder(data, null, GifDecoder.DEFAULT_RING_SIZE);
+            decoder.start();
+            decoder.waitForFirstFrame();
+            state.pauseTiming();
+            decoder.free();
+            decoder.join();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void firstFrame_allFrames() throws InterruptedException {
+        byte[] data = getGif();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final CountDownLatch firstFrame = new CountDownLatch(1);
+            GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(data),
+                    new GifAction() {
+                        @Override
+                        public void parseOk(boolean parseStatus, int frameIndex) {
+                            if (!parseStatus || frameIndex >= 1) firstFrame.countDown();
+                        }
+                    });
+            decoder.start();
+            firstFrame.await();
+            state.pauseTiming();
+            decoder.join();
+            decoder.free();
+            state.resumeTiming();
+        }
+    }
+
+    // Plays all the frames once, giving each bitmap back as the next frame
+    // replaces it, as PhotoDataAdapter does.
+    @Test
+    public void playback_streaming() throws InterruptedException {
+        byte[] data = getGif();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            GifDecoder decoder = new GifDecoder(data, null, GifDecoder.DEFAULT_RING_SIZE);
+            decoder.start();
+            play(decoder, FRAMES, null);
+            state.pauseTiming();
+            decoder.free();
+            decoder.join();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void peakMemory() throws InterruptedException {
+        byte[] data = getGif();
+
+        long base = getUsedMemory();
+        long[] peak = {base};
+        GifDecoder decoder = new GifDecoder(data, null, GifDecoder.DEFAULT_RING_SIZE);
+        decoder.start();
+        play(decoder, 2 * FRAMES, peak);
+        decoder.free();
+        decoder.join();
+        Log.i(TAG, "streaming: peak " + (peak[0] - base) + " bytes");
+
+        base = getUsedMemory();
+        decoder = new GifDecoder(new ByteArrayInputStream(data), null);
+        decoder.start();
+        decoder.join();
+        long used = getUsedMemory();
+        decoder.free();
+        Log.i(TAG, "all frames: peak " + (used - base) + " bytes");
+    }
+
+    // Takes count frames from a streaming decoder, giving back the previous
+    // bitmap after each one, and records the peak memory use if peak is not
+    // null.
+    private static void play(GifDecoder decoder, int count, long[] peak)
+            throws InterruptedException {
+        Bitmap shown = null;
+        for (int i = 0; i < count; ) {
+            GifFrame frame = decoder.nextStreamingFrame();
+            if (frame == null) {
+                if (decoder.isStreamDone()) break;
+                Thread.sleep(1);
+                continue;
+            }
+            if (shown != null) decoder.releaseStreamingFrame(shown);
+            shown = frame.mImage;
+            if (peak != null) peak[0] = Math.max(peak[0], getUsedMemory());
+            i++;
+        }
+        if (shown != null) decoder.releaseStreamingFrame(shown);
+    }
+
+    // The bitmap pixels are on the native heap.
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory()
+                + Debug.getNativeHeapAllocatedSize();
+    }
+
+    // Writes a looping GIF with a 128 color palette and a moving gradient.
+    // The image data is not compressed: a clear code is sent before the LZW
+    // table grows past 8-bit codes, so each code is one byte and one pixel.
+    private static byte[] createGif(int width, int height, int frames) {
+        final int minCodeSize = 7;
+        final int clearCode = 1 << minCodeSize;
+        final int endCode = clearCode + 1;
+        // The table gets a new code for each pixel after the first one since
+        // the last clear code, and must stay below 256.
+        final int pixelsPerClear = 120;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAscii(out, "GIF89a");
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0xf6); // global color table of 128 colors, 8 bit colors
+        out.write(0); // background color
+        out.write(0); // pixel aspect ratio
+        for (int i = 0; i < clearCode; i++) {
+            out.write(i * 2);
+            out.write(255 - i * 2);
+            out.write((i * 5) & 0xff);
+        }
+
+        // Loop forever.
+        out.write(0x21);
+        out.write(0xff);
+        out.write(11);
+        writeAscii(out, "NETSCAPE2.0");
+        out.write(3);
+        out.write(1);
+        writeShort(out, 0);
+        out.write(0);
+
+        byte[] block = new byte[255];
+        for (int f = 0; f < frames; f++) {
+            // Graphic control extension: no disposal, 40 ms.
+            out.write(0x21);
+            out.write(0xf9);
+            out.write(4);
+            out.write(0x04);
+            writeShort(out, 4);
+            out.write(0);
+            out.write(0);
+
+            out.write(0x2c);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, width);
+            writeShort(out, height);
+            out.write(0);
+
+            out.write(minCodeSize);
+            int blockLength = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if ((y * width + x) % pixelsPerClear == 0) {
+                        blockLength = writeCode(out, block, blockLength, clearCode);
+                    }
+                    blockLength = writeCode(out, block, blockLength, getPixel(x, y, f));
+                }
+            }
+            blockLength = writeCode(out, block, blockLength, endCode);
+            if (blockLength > 0) {
+                out.write(blockLength);
+                out.write(block, 0, blockLength);
+            }
+            out.write(0);
+        }
+        out.write(0x3b);
+        return out.toByteArray();
+    }
+
+    private static int getPixel(int x, int y, int frame) {
+        return (x + y + 4 * frame) & 0x7f;
+    }
+
+    // Adds a code to the data sub-block, writing the block out when full.
+    // Returns the new length of the block.
+    private static int writeCode(ByteArrayOutputStream out, byte[] block, int length,
+            int code) {
+        block[length++] = (byte) code;
+        if (length < block.length) return length;
+        out.write(length);
+        out.write(block, 0, length);
+        return 0;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.util;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Measures the submit-to-done latency of a single tiny job, and the time to
+// run a burst of JOBS tiny jobs, on ThreadPool. The same is measured on a
+// plain fixed-size executor with as many threads, as a reference for the
+// cost of the ThreadPool workers themselves.
+//
+// The burst time divided by JOBS is the time per job at full throughput.
+@RunWith(AndroidJUnit4.class)
+public class ThreadPoolBenchmark {
+    private static final int JOBS = 2000;
+    private static final int THREADS = 4;
+
+    // ThreadPool cannot be shut down, so the benchmarks share one.
+    private static ThreadPool sThreadPool;
+    private static ExecutorService sExecutor;
+
+    private static synchronized ThreadPool getThreadPool() {
+        if (sThreadPool == null) sThreadPool = new ThreadPool(THREADS, THREADS);
+        return sThreadPool;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) sExecutor = Executors.newFixedThreadPool(THREADS);
+        return sExecutor;
+    }
+
+    private static final Job<Integer> TINY_JOB = new Job<Integer>() {
+        @Override
+        public Integer run(JobContext jc) {
+            return 1;
+        }
+    };
+
+    // Takes a CPU permit, so the jobs contend for the resource counter.
+    private static final Job<Integer> TINY_CPU_JOB = new Job<Integer>() {
+        @Override
+        public Integer run(JobContext jc) {
+            return jc.setMode(ThreadPool.MODE_CPU) ? 1 : 0;
+        }
+    };
+
+    private static final Callable<Integer> TINY_CALLABLE = new Callable<Integer>() {
+        @Override
+        public Integer call() {
+            return 1;
+        }
+    };
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void submitToDone() {
+        ThreadPool pool = getThreadPool();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            pool.submit(TINY_JOB).get();
+        }
+    }
+
+    @Test
+    public void submitToDone_executor() throws Exception {
+        ExecutorService executor = getExecutor();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            executor.submit(TINY_CALLABLE).get();
+        }
+    }
+
+    @Test
+    public void burst() throws InterruptedException {
+        runBursts(TINY_JOB);
+    }
+
+    @Test
+    public void burst_cpuMode() throws InterruptedException {
+        runBursts(TINY_CPU_JOB);
+    }
+
+    @Test
+    public void burst_executor() throws InterruptedException {
+        ExecutorService executor = getExecutor();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final CountDownLatch done = new CountDownLatch(JOBS);
+            Runnable job = new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            };
+            for (int i = 0; i < JOBS; i++) {
+                executor.execute(job);
+            }
+            done.await();
+        }
+    }
+
+    private void runBursts(Job<Integer> job) throws InterruptedException {
+        ThreadPool pool = getThreadPool();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final CountDownLatch done = new CountDownLatch(JOBS);
+            FutureListener<Integer> listener = new FutureListener<Integer>() {
+                @Override
+                public void onFutureDone(Future<Integer> future) {
+                    done.countDown();
+                }
+            };
+            for (int i = 0; i < JOBS; i++) {
+                pool.submit(job, listener);
+            }
+            done.await();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class AtlasAllocatorTest {
+    private static final float EPSILON = 1e-6f;
+
+    // 3 pages of 4 slots.
+    private final AtlasAllocator mAllocator = new AtlasAllocator(4, 3);
+
+    @Test
+    public void testAllocateInOrder() {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, mAllocator.allocate());
+        }
+        assertEquals(1, mAllocator.getPageCount());
+        // The first page is full, so the next slot is on a new page.
+        int slot = mAllocator.allocate();
+        assertEquals(1, mAllocator.getPage(slot));
+        assertEquals(0, mAllocator.getIndexInPage(slot));
+        assertEquals(2, mAllocator.getPageCount());
+        assertEquals(5, mAllocator.getUsedSlots());
+    }
+
+    @Test
+    public void testAllocateWhenFull() {
+        for (int i = 0; i < 12; i++) {
+            assertTrue(mAllocator.allocate() >= 0);
+        }
+        assertEquals(-1, mAllocator.allocate());
+        assertEquals(3, mAllocator.getPageCount());
+        assertEquals(12, mAllocator.getUsedSlots());
+
+        mAllocator.free(5);
+        assertEquals(5, mAllocator.allocate());
+    }
+
+    @Test
+    public void testFreeReusesSlot() {
+        mAllocator.allocate();
+        mAllocator.allocate();
+        mAllocator.allocate();
+        assertEquals(-1, mAllocator.free(1));
+        assertEquals(2, mAllocator.getUsedSlots());
+        assertEquals(1, mAllocator.allocate());
+    }
+
+    @Test
+    public void testAllocateFromFullestPage() {
+        for (int i = 0; i < 5; i++) {
+            mAllocator.allocate();
+        }
+        // The first page has one free slot, the second three.
+        mAllocator.free(0);
+        assertEquals(0, mAllocator.allocate());
+        assertEquals(5, mAllocator.allocate());
+    }
+
+    @Test
+    public void testPageRelease() {
+        for (int i = 0; i < 8; i++) {
+            mAllocator.allocate();
+        }
+        // The only empty page is kept.
+        for (int slot = 4; slot < 8; slot++) {
+            assertEquals(-1, mAllocator.free(slot));
+        }
+        assertTrue(mAllocator.isPageOpen(1));
+        assertEquals(2, mAllocator.getPageCount());
+
+        // A second empty page is released.
+        for (int slot = 0; slot < 3; slot++) {
+            assertEquals(-1, mAllocator.free(slot));
+        }
+        assertEquals(0, mAllocator.free(3));
+        assertFalse(mAllocator.isPageOpen(0));
+        assertTrue(mAllocator.isPageOpen(1));
+        assertEquals(1, mAllocator.getPageCount());
+        assertEquals(0, mAllocator.getUsedSlots());
+
+        // The kept page is used before a released one is opened again.
+        assertEquals(1, mAllocator.getPage(mAllocator.allocate()));
+        assertEquals(1, mAllocator.getPageCount());
+    }
+
+    @Test
+    public void testOccupancyAndFragmentation() {
+        assertEquals(0f, mAllocator.getOccupancy(), EPSILON);
+        assertEquals(0f, mAllocator.getFragmentation(), EPSILON);
+
+        for (int i = 0; i < 4; i++) {
+            mAllocator.allocate();
+        }
+        assertEquals(1f, mAllocator.getOccupancy(), EPSILON);
+        assertEquals(0f, mAllocator.getFragmentation(), EPSILON);
+
+        mAllocator.allocate();
+        assertEquals(5f / 8, mAllocator.getOccupancy(), EPSILON);
+        assertEquals(0f, mAllocator.getFragmentation(), EPSILON);
+
+        // Two used slots on two pages would fit on one.
+        mAllocator.free(0);
+        mAllocator.free(1);
+        mAllocator.free(2);
+        assertEquals(2f / 8, mAllocator.getOccupancy(), EPSILON);
+        assertEquals(0.5f, mAllocator.getFragmentation(), EPSILON);
+    }
+}